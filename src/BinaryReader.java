@@ -0,0 +1,268 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// BinaryReader.java
+// ======================================================
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Buffered reader of the primitives written by {@code BinaryWriter}. Reading
+ * past the end of the stream fails with an {@code EOFException} rather than
+ * returning garbage, and lengths larger than the rest of the message fail
+ * before anything is allocated for them.
+ */
+class BinaryReader {
+	// Little-endian views used to load multi-byte values from the buffer.
+	private static final VarHandle SHORT = MethodHandles
+		.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle CHAR = MethodHandles
+		.byteArrayViewVarHandle(char[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT = MethodHandles
+		.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG = MethodHandles
+		.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final InputStream in;	// Source of the encoded bytes.
+	private final byte[] buf = new byte[8192];	// Bytes read but not consumed.
+	private int pos = 0;			// Index of the next unconsumed byte.
+	private int limit = 0;			// Index after the last buffered byte.
+	private final long size;		// The largest size of the message.
+	private long filled = 0;		// The number of bytes read from the stream.
+
+
+	/**
+	 * Creates a reader of the passed stream.
+	 *
+	 * @param in The source of the encoded bytes.
+	 */
+	BinaryReader(InputStream in) {
+		this(in, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Creates a reader of a message of at most the passed size.
+	 *
+	 * @param in The source of the encoded bytes.
+	 * @param size The largest size (in bytes) of the message.
+	 */
+	BinaryReader(InputStream in, int size) {
+		this.in = in;
+		this.size = size;
+	}
+
+
+	/**
+	 * Reads a single unsigned byte.
+	 *
+	 * @return The byte read (0 to 255).
+	 * @throws IOException If the stream cannot be read or has ended.
+	 */
+	int readByte() throws IOException {
+		require(1);
+		return buf[pos++] & 0xFF;
+	}
+
+
+	/**
+	 * Reads an unsigned varint of at most 32 bits.
+	 *
+	 * @return The value read.
+	 * @throws IOException If the stream cannot be read, has ended or the
+	 * varint is over 5 bytes long.
+	 */
+	int readVarint() throws IOException {
+		int v = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			v |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return v;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+
+	/**
+	 * Reads a varint that must be the length of what follows, such as the
+	 * elements of an array or the bytes of a string. Each of them takes at
+	 * least a byte, so the length is at most the size left to the message.
+	 *
+	 * @return The length read.
+	 * @throws IOException If the stream cannot be read or the length is
+	 * negative or larger than the rest of the message.
+	 */
+	int readLength() throws IOException {
+		int n = readVarint();
+		if (n < 0 || n > size - (filled - (limit - pos)))
+			throw new IOException("Invalid length: " + (n & 0xFFFFFFFFL));
+		return n;
+	}
+
+
+	/**
+	 * Reads a string written as its varint byte length and UTF-8 bytes.
+	 *
+	 * @return The string read.
+	 * @throws IOException If the stream cannot be read or has ended.
+	 */
+	String readString() throws IOException {
+		int len = readLength();
+		if (len <= buf.length) {
+			require(len);
+			String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+			pos += len;
+			return s;
+		}
+		byte[] bytes = new byte[len];
+		readBytes(bytes, 0, len);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+
+	/**
+	 * Reads a run of raw bytes into the passed array.
+	 *
+	 * @param b The array to be filled.
+	 * @param off The index of the first byte to be stored.
+	 * @param len The number of bytes to be read.
+	 * @throws IOException If the stream cannot be read or has ended.
+	 */
+	void readBytes(byte[] b, int off, int len) throws IOException {
+		int buffered = Math.min(len, limit - pos);
+		System.arraycopy(buf, pos, b, off, buffered);
+		pos += buffered;
+		if (buffered == len) return;
+		int read = in.readNBytes(b, off + buffered, len - buffered);
+		filled += read;
+		if (read < len - buffered)
+			throw new EOFException("Truncated binary message");
+	}
+
+
+	boolean readBoolean() throws IOException {
+		return readByte() != 0;
+	}
+
+	short readShort() throws IOException {
+		require(2);
+		short v = (short) SHORT.get(buf, pos);
+		pos += 2;
+		return v;
+	}
+
+	char readChar() throws IOException {
+		require(2);
+		char v = (char) CHAR.get(buf, pos);
+		pos += 2;
+		return v;
+	}
+
+	int readInt() throws IOException {
+		require(4);
+		int v = (int) INT.get(buf, pos);
+		pos += 4;
+		return v;
+	}
+
+	long readLong() throws IOException {
+		require(8);
+		long v = (long) LONG.get(buf, pos);
+		pos += 8;
+		return v;
+	}
+
+	float readFloat() throws IOException {
+		return Float.intBitsToFloat(readInt());
+	}
+
+	double readDouble() throws IOException {
+		return Double.longBitsToDouble(readLong());
+	}
+
+
+	/**
+	 * Fills a primitive array with elements written back to back by
+	 * {@code BinaryWriter.writePacked}.
+	 *
+	 * @param array The primitive array to be filled.
+	 * @param code The type code of the array's component type.
+	 * @throws IOException If the stream cannot be read, has ended or the array
+	 * is not of a primitive component type.
+	 */
+	void readPacked(Object array, char code) throws IOException {
+		switch (code) {
+			case 'Z': {
+				boolean[] a = (boolean[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readBoolean();
+				break;
+			}
+			case 'B': {
+				byte[] a = (byte[]) array;
+				readBytes(a, 0, a.length);
+				break;
+			}
+			case 'C': {
+				char[] a = (char[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readChar();
+				break;
+			}
+			case 'S': {
+				short[] a = (short[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readShort();
+				break;
+			}
+			case 'I': {
+				int[] a = (int[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readInt();
+				break;
+			}
+			case 'J': {
+				long[] a = (long[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readLong();
+				break;
+			}
+			case 'F': {
+				float[] a = (float[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readFloat();
+				break;
+			}
+			case 'D': {
+				double[] a = (double[]) array;
+				for (int i = 0; i < a.length; i ++) a[i] = readDouble();
+				break;
+			}
+			default: throw new IOException(
+				"Invalid primitive array: " + array.getClass().getName());
+		}
+	}
+
+
+	/**
+	 * Ensures the passed number of bytes are buffered, reading more from the
+	 * stream if needed.
+	 *
+	 * @param n The number of bytes about to be consumed (at most the size of
+	 * the buffer).
+	 * @throws IOException If the stream cannot be read or ends first.
+	 */
+	private void require(int n) throws IOException {
+		if (limit - pos >= n) return;
+		// Move the unconsumed bytes to the front and top up the buffer.
+		System.arraycopy(buf, pos, buf, 0, limit - pos);
+		limit -= pos;
+		pos = 0;
+		while (limit < n) {
+			int read = in.read(buf, limit, buf.length - limit);
+			if (read < 0) throw new EOFException("Truncated binary message");
+			limit += read;
+			filled += read;
+		}
+	}
+}
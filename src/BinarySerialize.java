@@ -0,0 +1,422 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// BinarySerialize.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+
+
+/**
+ * Class for Java object serialization and deserialization to and from a
+ * compact binary format. A message is a version byte followed by one record
+ * per object and a terminating 0:
+ * <pre>
+ * record  := classRef [definition] id (object-fields | array-body | leaf)
+ *             (collections have an array-body holding their contents)
+ * classRef := varint: 0 ends the message, otherwise 1 + the class's index
+ *             in the message's dictionary
+ * definition := (only when classRef is 1 + the dictionary's size)
+ *             string className [varint fieldCount (string name,
+ *             string declaringClass, byte typeCode)*]
+ *             (no fields if an array, leaf or collection class)
+ * id      := varint
+ * object-fields := one value per defined field, in definition order
+ * array-body := varint length, then the packed elements
+ * leaf    := the wrapped primitive of a boxed primitive, or else a string
+ *             (the text of a string, big number or enum constant's name)
+ * </pre>
+ * In a session (see {@code setSession}), messages start with a different
+ * version byte and only carry what changed since the previous messages.
+ * Primitives are raw little-endian values (booleans as one byte), strings are
+ * a varint byte length and UTF-8 bytes, and references are varints holding
+ * 1 + the referenced object's ID (0 for null). Field names therefore appear
+ * once per class per message rather than once per object.
+ */
+class BinarySerialize extends Serialize {
+	// The version of the format, written as the first byte of every message.
+	protected static final int VERSION = 3;
+	// The first byte of the messages of a session.
+	protected static final int SESSION_VERSION = 0x80 | VERSION;
+
+	// The session messages belong to, or null if each message stands alone.
+	private DeltaSession session = null;
+
+
+	/**
+	 * Sets whether messages form a session (as over a single connection), in
+	 * which a message only holds the objects that are new and the changes to
+	 * the objects sent before (see {@code DeltaSession}). Enabling sessions
+	 * starts a new one. The serializer must then be used by a single
+	 * connection, to either send or receive messages.
+	 *
+	 * @param enabled Whether messages form a session.
+	 * @return This serializer.
+	 */
+	public BinarySerialize setSession(boolean enabled) {
+		session = enabled ? new DeltaSession() : null;
+		return this;
+	}
+
+
+	/**
+	 * Binary messages carried in a {@code String} map each byte onto the
+	 * character of the same value, which ISO-8859-1 preserves exactly.
+	 *
+	 * @return The ISO-8859-1 charset.
+	 */
+	@Override
+	public Charset getCharset() {
+		return StandardCharsets.ISO_8859_1;
+	}
+
+
+	/**
+	 * Serializes the passed object as a binary message to the passed stream.
+	 * The stream is flushed but not closed.
+	 *
+	 * @param source The object to be serialized.
+	 * @param out The stream to write the serialization to.
+	 * @throws Exception If the object cannot be serialized or written.
+	 */
+	public void serializeObject(Object source, OutputStream out)
+	throws Exception {
+		if (session != null) {
+			BinaryWriter bin = new BinaryWriter(out);
+			bin.writeByte(SESSION_VERSION);
+			session.encode(source, bin);
+			bin.flush();
+			return;
+		}
+
+		// Assigns sequential IDs to objects by identity as they are found.
+		IdentityTable ids = new IdentityTable();
+		// Stores objects encountered and yet to be serialized.
+		LinkedList<Object> todo = new LinkedList<Object>();
+		// The classes defined so far in this message.
+		ClassDictionary classes = new ClassDictionary();
+		BinaryWriter bin = new BinaryWriter(out);
+		bin.writeByte(VERSION);
+		// Initialize the stack with the root object (given ID 0).
+		referenceId(source, ids, todo);
+
+		// Serialize all objects 'recursively".
+		// Each object is pushed only once: when it is first given an ID.
+		while (todo.size() > 0) {
+			Object todoObj = todo.pop(); // Grab the next object to do.
+			encodeObject(todoObj, bin, classes, ids, todo);
+		}
+
+		bin.writeVarint(0); // End of message.
+		bin.flush();
+	}
+
+
+	/**
+	 * Serializes an object as a binary record, defining its class first if
+	 * this is the class's first use in the message.
+	 *
+	 * @param source The object to be serialized.
+	 * @param bin The binary emitter to write the record to.
+	 * @param classes The classes defined so far in the message.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @throws Exception If there is an issue accessing the values of the object
+	 * being serialized.
+	 */
+	protected static void encodeObject(Object source, BinaryWriter bin,
+	ClassDictionary classes, IdentityTable ids,
+	LinkedList<Object> todo) throws Exception {
+		// The class of the object being serialized and its cached descriptor.
+		Class<?> c = serializedClass(source);
+		ClassDescriptor desc = ClassDescriptor.of(c);
+
+		// Refer to the class by index, defining it on first use.
+		int index = classes.indexOf(c);
+		if (index >= 0)
+			bin.writeVarint(index + 1);
+		else {
+			bin.writeVarint(classes.add(new ClassDictionary.Entry(desc)) + 1);
+			bin.writeString(c.getName());
+			if (desc.byFields) {
+				bin.writeVarint(desc.fields.length);
+				for (FieldDescriptor f : desc.fields) {
+					bin.writeString(f.name);
+					bin.writeString(f.declaringClass);
+					bin.writeByte(f.typeCode);
+				}
+			}
+		}
+		bin.writeVarint(ids.get(source));
+
+		if (desc.isLeaf) {
+			// Store boxed primitives raw, and other leaves as text.
+			switch (desc.wrappedCode) {
+				case 'Z': bin.writeBoolean((Boolean) source); break;
+				case 'B': bin.writeByte((Byte) source); break;
+				case 'C': bin.writeChar((Character) source); break;
+				case 'S': bin.writeShort((Short) source); break;
+				case 'I': bin.writeInt((Integer) source); break;
+				case 'J': bin.writeLong((Long) source); break;
+				case 'F': bin.writeFloat((Float) source); break;
+				case 'D': bin.writeDouble((Double) source); break;
+				default: bin.writeString(encodeLeaf(source));
+			}
+
+		} else if (!desc.byFields) {
+			// Store the array (or the array of a collection's contents).
+			encodeArray(desc.collection == null
+				? source : desc.collection.contents(source),
+				desc.componentCode, bin, ids, todo);
+
+		} else { // Encode fields, in the order they were defined.
+			for (FieldDescriptor f : desc.fields)
+				encodeField(source, f, bin, ids, todo);
+		}
+	}
+
+
+	/**
+	 * Encodes the body of an array record: its length and packed elements.
+	 *
+	 * @param array The array.
+	 * @param code The type code of the array's component type.
+	 * @param bin The binary emitter to write the array to.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @throws IOException If the array cannot be written.
+	 */
+	protected static void encodeArray(Object array, char code,
+	BinaryWriter bin, IdentityTable ids, LinkedList<Object> todo)
+	throws IOException {
+		bin.writeVarint(Array.getLength(array));
+		if (code != 'L')
+			bin.writePacked(array, code);
+		else {
+			for (Object value : (Object[]) array)
+				encodeReference(value, bin, ids, todo);
+		}
+	}
+
+
+	/**
+	 * Encodes the value of a field of an object.
+	 *
+	 * @param source The object.
+	 * @param f The field.
+	 * @param bin The binary emitter to write the value to.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @throws Exception If the field cannot be read or written.
+	 */
+	protected static void encodeField(Object source, FieldDescriptor f,
+	BinaryWriter bin, IdentityTable ids, LinkedList<Object> todo)
+	throws Exception {
+		FieldAccessor a = f.accessor;
+		switch (f.typeCode) {
+			case 'Z': bin.writeBoolean(a.getBoolean(source)); break;
+			case 'B': bin.writeByte(a.getByte(source)); break;
+			case 'C': bin.writeChar(a.getChar(source)); break;
+			case 'S': bin.writeShort(a.getShort(source)); break;
+			case 'I': bin.writeInt(a.getInt(source)); break;
+			case 'J': bin.writeLong(a.getLong(source)); break;
+			case 'F': bin.writeFloat(a.getFloat(source)); break;
+			case 'D': bin.writeDouble(a.getDouble(source)); break;
+			default: encodeReference(a.getObject(source), bin, ids, todo);
+		}
+	}
+
+
+	/**
+	 * Encodes a reference to the passed object as 1 + its ID (0 for null).
+	 * Referenced objects not yet encountered are queued for serialization.
+	 *
+	 * @param value The referenced object (possibly {@code null}).
+	 * @param bin The binary emitter to write the reference to.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @throws IOException If the reference cannot be written.
+	 */
+	protected static void encodeReference(Object value, BinaryWriter bin,
+	IdentityTable ids, LinkedList<Object> todo) throws IOException {
+		bin.writeVarint(value == null ? 0 : referenceId(value, ids, todo) + 1);
+	}
+
+
+	/**
+	 * Deserializes the object stored as a binary message in the passed
+	 * stream. Each object is instantiated as soon as its record starts and its
+	 * fields are set as they are read.
+	 *
+	 * @param source A stream holding the binary message.
+	 * @return The object expressed by the message.
+	 * @throws Exception If the stream cannot be read or deserialized.
+	 */
+	public Object deserializeObject(InputStream source) throws Exception {
+		BinaryReader bin = new BinaryReader(source, inputLimit);
+		// Tracks the new instances and the references between them.
+		DecodeContext ctx = new DecodeContext(classResolver, inputLimit);
+
+		int version = bin.readByte();
+		if (version == SESSION_VERSION && session != null)
+			return session.decode(bin, classResolver);
+		if (version != VERSION)
+			throw new Exception(version == SESSION_VERSION
+				? "Message belongs to a session"
+				: "Unsupported binary format version " + version);
+
+		// Decode records until the end of the message.
+		for (int ref = bin.readVarint(); ref != 0; ref = bin.readVarint()) {
+			if (ref - 1 == ctx.classes.size())
+				ctx.classes.add(readDefinition(bin, ctx));
+			decodeObject(bin, ctx.classes.get(ref - 1), bin.readVarint(), ctx);
+		}
+
+		// Link the objects together now that they all exist.
+		return ctx.resolve();
+	}
+
+
+	/**
+	 * Reads the definition of a class and matches its fields against the
+	 * local class.
+	 *
+	 * @param bin The binary reader, positioned at the class's name.
+	 * @param ctx The state of the current deserialization.
+	 * @return The dictionary entry of the class.
+	 * @throws Exception If the class or one of its fields is unknown, the
+	 * class is not allowed, or a field's type differs from the local one.
+	 */
+	protected static ClassDictionary.Entry readDefinition(BinaryReader bin,
+	DecodeContext ctx) throws Exception {
+		Class<?> c = ctx.classOf(bin.readString(), 0);
+		ClassDescriptor desc = ClassDescriptor.of(c);
+		if (!desc.byFields) return new ClassDictionary.Entry(desc);
+
+		FieldDescriptor[] fields = new FieldDescriptor[bin.readLength()];
+		for (int i = 0; i < fields.length; i ++) {
+			String fieldName = bin.readString();
+			String declaringClass = bin.readString();
+			char code = (char) bin.readByte();
+			FieldDescriptor f = desc.requireField(fieldName, declaringClass);
+			if (f.typeCode != code)
+				throw new Exception(String.format("Field %s of %s has changed "
+					+ "type", fieldName, declaringClass));
+			fields[i] = f;
+		}
+		return new ClassDictionary.Entry(desc, fields);
+	}
+
+
+	/**
+	 * Deserializes the remainder of a record into a new instance.
+	 *
+	 * @param bin The binary reader, positioned after the record's ID.
+	 * @param entry The dictionary entry of the record's class.
+	 * @param id The ID of the record.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If there is an issue instantiating the object
+	 * reflectively or the message is malformed.
+	 */
+	protected static void decodeObject(BinaryReader bin,
+	ClassDictionary.Entry entry, int id, DecodeContext ctx) throws Exception {
+		ClassDescriptor desc = entry.desc;
+
+		// Deserialize leaves:
+		if (desc.isLeaf) {
+			Object out;
+			switch (desc.wrappedCode) {
+				case 'Z': out = bin.readBoolean(); break;
+				case 'B': out = (byte) bin.readByte(); break;
+				case 'C': out = bin.readChar(); break;
+				case 'S': out = bin.readShort(); break;
+				case 'I': out = bin.readInt(); break;
+				case 'J': out = bin.readLong(); break;
+				case 'F': out = bin.readFloat(); break;
+				case 'D': out = bin.readDouble(); break;
+				default: out = decodeLeaf(desc, bin.readString());
+			}
+			ctx.register(id, out);
+			return;
+		}
+
+		// Deserialize arrays (and collections):
+		if (!desc.byFields) {
+			Object out = registerArray(desc, id, bin.readLength(), ctx);
+			decodeElements(bin, out, desc.componentCode, ctx);
+			return;
+		}
+
+		// Deserialize object: fields are in the order of the definition.
+		Object out = createInstance(desc.type, 0);
+		ctx.register(id, out);
+		for (FieldDescriptor f : entry.fields)
+			decodeField(bin, out, f, ctx);
+	}
+
+
+	/**
+	 * Deserializes the packed elements of an array record.
+	 *
+	 * @param bin The binary reader, positioned after the array's length.
+	 * @param out The array to read the elements into.
+	 * @param code The type code of the array's component type.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If the message is malformed.
+	 */
+	protected static void decodeElements(BinaryReader bin, Object out,
+	char code, DecodeContext ctx) throws Exception {
+		if (code != 'L')
+			bin.readPacked(out, code);
+		else {
+			Object[] refs = (Object[]) out;
+			for (int i = 0; i < refs.length; i ++) {
+				int ref = bin.readVarint();
+				refs[i] = null;
+				if (ref != 0) ctx.setElement(refs, i, ref - 1);
+			}
+		}
+	}
+
+
+	/**
+	 * Deserializes the value of a field of an object.
+	 *
+	 * @param bin The binary reader, positioned at the value.
+	 * @param out The object whose field is read.
+	 * @param f The field.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If the field cannot be set or the message is
+	 * malformed.
+	 */
+	protected static void decodeField(BinaryReader bin, Object out,
+	FieldDescriptor f, DecodeContext ctx) throws Exception {
+		FieldAccessor a = f.accessor;
+		switch (f.typeCode) {
+			case 'Z': a.setBoolean(out, bin.readBoolean()); break;
+			case 'B': a.setByte(out, (byte) bin.readByte()); break;
+			case 'C': a.setChar(out, bin.readChar()); break;
+			case 'S': a.setShort(out, bin.readShort()); break;
+			case 'I': a.setInt(out, bin.readInt()); break;
+			case 'J': a.setLong(out, bin.readLong()); break;
+			case 'F': a.setFloat(out, bin.readFloat()); break;
+			case 'D': a.setDouble(out, bin.readDouble()); break;
+			default: {
+				int ref = bin.readVarint();
+				if (ref == 0)
+					a.setObject(out, null);
+				else
+					ctx.setReference(out, f, ref - 1);
+			}
+		}
+	}
+}
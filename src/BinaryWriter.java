@@ -0,0 +1,208 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// BinaryWriter.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Buffered emitter of the primitives making up the binary wire format:
+ * unsigned varints, little-endian fixed width values and length-prefixed
+ * UTF-8 strings. Nothing reaches the underlying stream until the buffer fills
+ * or {@code flush} is called.
+ */
+class BinaryWriter {
+	// Little-endian views used to store multi-byte values into the buffer.
+	private static final VarHandle SHORT = MethodHandles
+		.byteArrayViewVarHandle(short[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle CHAR = MethodHandles
+		.byteArrayViewVarHandle(char[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle INT = MethodHandles
+		.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+	private static final VarHandle LONG = MethodHandles
+		.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+	private final OutputStream out;	// Destination of the encoded bytes.
+	private final byte[] buf = new byte[8192];	// Bytes yet to be written.
+	private int pos = 0;			// The number of bytes in the buffer.
+
+
+	/**
+	 * Creates an emitter writing to the passed stream.
+	 *
+	 * @param out The destination of the encoded bytes.
+	 */
+	BinaryWriter(OutputStream out) {
+		this.out = out;
+	}
+
+
+	/**
+	 * Writes a single byte.
+	 *
+	 * @param b The byte to be written (the low 8 bits of the value).
+	 * @throws IOException If the stream cannot be written.
+	 */
+	void writeByte(int b) throws IOException {
+		require(1);
+		buf[pos++] = (byte) b;
+	}
+
+
+	/**
+	 * Writes an unsigned varint: 7 bits per byte, least significant group
+	 * first, with the high bit of each byte set while more bytes follow.
+	 *
+	 * @param v The value to be written (treated as unsigned).
+	 * @throws IOException If the stream cannot be written.
+	 */
+	void writeVarint(int v) throws IOException {
+		require(5);
+		while ((v & ~0x7F) != 0) {
+			buf[pos++] = (byte) (v | 0x80);
+			v >>>= 7;
+		}
+		buf[pos++] = (byte) v;
+	}
+
+
+	/**
+	 * Writes a string as its varint byte length followed by its UTF-8 bytes.
+	 *
+	 * @param s The string to be written.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	void writeString(String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(bytes.length);
+		writeBytes(bytes, 0, bytes.length);
+	}
+
+
+	/**
+	 * Writes a run of raw bytes.
+	 *
+	 * @param b The array holding the bytes.
+	 * @param off The index of the first byte to be written.
+	 * @param len The number of bytes to be written.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	void writeBytes(byte[] b, int off, int len) throws IOException {
+		if (len > buf.length - pos) {
+			drain();
+			if (len > buf.length) { // Too large to be worth buffering.
+				out.write(b, off, len);
+				return;
+			}
+		}
+		System.arraycopy(b, off, buf, pos, len);
+		pos += len;
+	}
+
+
+	void writeBoolean(boolean v) throws IOException {
+		writeByte(v ? 1 : 0);
+	}
+
+	void writeShort(short v) throws IOException {
+		require(2);
+		SHORT.set(buf, pos, v);
+		pos += 2;
+	}
+
+	void writeChar(char v) throws IOException {
+		require(2);
+		CHAR.set(buf, pos, v);
+		pos += 2;
+	}
+
+	void writeInt(int v) throws IOException {
+		require(4);
+		INT.set(buf, pos, v);
+		pos += 4;
+	}
+
+	void writeLong(long v) throws IOException {
+		require(8);
+		LONG.set(buf, pos, v);
+		pos += 8;
+	}
+
+	void writeFloat(float v) throws IOException {
+		writeInt(Float.floatToRawIntBits(v));
+	}
+
+	void writeDouble(double v) throws IOException {
+		writeLong(Double.doubleToRawLongBits(v));
+	}
+
+
+	/**
+	 * Writes every element of a primitive array back to back, with no
+	 * per-element framing.
+	 *
+	 * @param array The primitive array to be written.
+	 * @param code The type code of the array's component type.
+	 * @throws IOException If the stream cannot be written or the array is not
+	 * of a primitive component type.
+	 */
+	void writePacked(Object array, char code) throws IOException {
+		switch (code) {
+			case 'Z':
+				for (boolean v : (boolean[]) array) writeBoolean(v);
+				break;
+			case 'B': {
+				byte[] a = (byte[]) array;
+				writeBytes(a, 0, a.length);
+				break;
+			}
+			case 'C': for (char v : (char[]) array) writeChar(v); break;
+			case 'S': for (short v : (short[]) array) writeShort(v); break;
+			case 'I': for (int v : (int[]) array) writeInt(v); break;
+			case 'J': for (long v : (long[]) array) writeLong(v); break;
+			case 'F': for (float v : (float[]) array) writeFloat(v); break;
+			case 'D': for (double v : (double[]) array) writeDouble(v); break;
+			default: throw new IOException(
+				"Invalid primitive array: " + array.getClass().getName());
+		}
+	}
+
+
+	/**
+	 * Writes any buffered bytes to the stream and flushes it.
+	 *
+	 * @throws IOException If the stream cannot be written.
+	 */
+	void flush() throws IOException {
+		drain();
+		out.flush();
+	}
+
+
+	/**
+	 * Makes room in the buffer for the passed number of bytes.
+	 *
+	 * @param n The number of bytes about to be stored (at most 8).
+	 * @throws IOException If the stream cannot be written.
+	 */
+	private void require(int n) throws IOException {
+		if (pos + n > buf.length) drain();
+	}
+
+
+	/**
+	 * Writes the buffered bytes to the stream without flushing it.
+	 *
+	 * @throws IOException If the stream cannot be written.
+	 */
+	private void drain() throws IOException {
+		out.write(buf, 0, pos);
+		pos = 0;
+	}
+}
@@ -0,0 +1,165 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// ClassDescriptor.java
+// ======================================================
+
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.TreeMap;
+
+
+/**
+ * Cached reflective metadata of a class, shared by the serializers and the
+ * visualizer. Descriptors are computed once per class and are immutable, so
+ * they may be used from any number of threads.
+ */
+class ClassDescriptor {
+	// Lazily computed descriptor for each class.
+	private static final ClassValue<ClassDescriptor> cache
+		= new ClassValue<ClassDescriptor>() {
+			@Override
+			protected ClassDescriptor computeValue(Class<?> c) {
+				return new ClassDescriptor(c);
+			}
+		};
+
+	final Class<?> type;			// The described class.
+	final String name;				// The name of the described class.
+	final boolean isArray;			// Whether the class is an array type.
+	final Class<?> componentType;	// The component type, if an array type.
+	// The component type code, if an array ('L' for a collection).
+	final char componentCode;
+	// Whether instances are written as a single value rather than by field
+	// (strings, primitive wrappers, big numbers and enums).
+	final boolean isLeaf;
+	// The type code of the wrapped primitive, if a primitive wrapper class.
+	final char wrappedCode;
+	// The handler of the contents of a JDK collection class, which are
+	// written as an array rather than by field (null for other classes).
+	final CollectionHandler collection;
+	// Whether instances are written field by field (as neither an array,
+	// a leaf nor a collection).
+	final boolean byFields;
+	// The non-static fields of the class, ordered by their lookup keys.
+	final FieldDescriptor[] fields;
+	// Every field of the class (including static ones), in the same order.
+	final Field[] allFields;
+	// Maps field lookup keys to their descriptors.
+	private final HashMap<String, FieldDescriptor> fieldsByKey;
+
+
+	/**
+	 * Returns the descriptor for the passed class, building it on first use.
+	 *
+	 * @param c The class to be described.
+	 * @return The shared descriptor of the class.
+	 */
+	static ClassDescriptor of(Class<?> c) {
+		return cache.get(c);
+	}
+
+
+	/**
+	 * Builds the descriptor of the passed class.
+	 *
+	 * @param c The class to be described.
+	 */
+	private ClassDescriptor(Class<?> c) {
+		type = c;
+		name = c.getName();
+		isArray = c.isArray();
+		componentType = c.getComponentType();
+		char wrapped = typeCode(MethodType.methodType(c).unwrap().returnType());
+		wrappedCode = wrapped != 'L' ? wrapped : 0;
+		isLeaf = wrappedCode != 0 || c == String.class
+			|| c == BigInteger.class || c == BigDecimal.class
+			|| Enum.class.isAssignableFrom(c);
+		collection = CollectionHandler.of(c);
+		byFields = !isArray && !isLeaf && collection == null;
+		componentCode = isArray ? typeCode(componentType)
+			: collection != null ? 'L' : 0;
+		fieldsByKey = new HashMap<String, FieldDescriptor>();
+
+		// Arrays have no fields of interest.
+		if (isArray) {
+			fields = new FieldDescriptor[0];
+			allFields = new Field[0];
+			return;
+		}
+
+		// Keep the ordering used by ReflectionHelper so output is unchanged.
+		TreeMap<String, Field> found = ReflectionHelper.getAllFields(c);
+		ArrayList<FieldDescriptor> instanceFields
+			= new ArrayList<FieldDescriptor>();
+		allFields = found.values().toArray(new Field[0]);
+
+		for (Field f : allFields) {
+			if (Modifier.isStatic(f.getModifiers())) {
+				f.trySetAccessible();
+				continue;
+			}
+			FieldDescriptor fd
+				= new FieldDescriptor(f, instanceFields.size());
+			instanceFields.add(fd);
+			fieldsByKey.put(fd.key(), fd);
+		}
+
+		fields = instanceFields.toArray(new FieldDescriptor[0]);
+	}
+
+
+	/**
+	 * Returns the type code of the passed type: the JVM descriptor character
+	 * of a primitive type (e.g. {@code 'I'} for {@code int}) or {@code 'L'}
+	 * for any reference type.
+	 *
+	 * @param c The type to be coded.
+	 * @return The type code of the type.
+	 */
+	static char typeCode(Class<?> c) {
+		if (c == boolean.class)		return 'Z';
+		else if (c == byte.class)	return 'B';
+		else if (c == char.class)	return 'C';
+		else if (c == short.class)	return 'S';
+		else if (c == int.class)	return 'I';
+		else if (c == long.class)	return 'J';
+		else if (c == float.class)	return 'F';
+		else if (c == double.class)	return 'D';
+		else return 'L';
+	}
+
+
+	/**
+	 * Returns the descriptor of the named non-static field.
+	 *
+	 * @param fieldName The simple name of the field.
+	 * @param declaringClass The name of the class declaring the field.
+	 * @return The field's descriptor or {@code null} if there is no such field.
+	 */
+	FieldDescriptor getField(String fieldName, String declaringClass) {
+		return fieldsByKey.get(fieldName + declaringClass);
+	}
+
+
+	/**
+	 * Returns the descriptor of the named non-static field, which must exist.
+	 *
+	 * @param fieldName The simple name of the field.
+	 * @param declaringClass The name of the class declaring the field.
+	 * @return The field's descriptor.
+	 * @throws Exception If the class has no such field.
+	 */
+	FieldDescriptor requireField(String fieldName, String declaringClass)
+	throws Exception {
+		FieldDescriptor f = getField(fieldName, declaringClass);
+		if (f == null)
+			throw new Exception(String.format("Unknown field %s of %s",
+				fieldName, declaringClass));
+		return f;
+	}
+}
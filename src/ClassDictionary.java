@@ -0,0 +1,96 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// ClassDictionary.java
+// ======================================================
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+
+/**
+ * The classes defined so far in a single message. Each class is defined once
+ * (with the ordered list of its fields) and then referred to by its index, so
+ * objects can carry their field values positionally.
+ */
+class ClassDictionary {
+	// The defined classes, by index.
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+	// Maps classes to their index (only used when serializing).
+	private final HashMap<Class<?>, Integer> indexes
+		= new HashMap<Class<?>, Integer>();
+
+
+	/**
+	 * Returns the index of the passed class if it is already defined.
+	 *
+	 * @param c The class to look up.
+	 * @return The index of the class, or -1 if it is not defined.
+	 */
+	int indexOf(Class<?> c) {
+		Integer index = indexes.get(c);
+		return index == null ? -1 : index;
+	}
+
+
+	/**
+	 * Defines the next class of the dictionary.
+	 *
+	 * @param entry The definition of the class.
+	 * @return The index of the new definition.
+	 */
+	int add(Entry entry) {
+		indexes.put(entry.desc.type, entries.size());
+		entries.add(entry);
+		return entries.size() - 1;
+	}
+
+
+	/**
+	 * Returns the definition of the passed index.
+	 *
+	 * @param index The index of a defined class.
+	 * @return The definition of the class.
+	 * @throws Exception If no class is defined with that index.
+	 */
+	Entry get(int index) throws Exception {
+		if (index < 0 || index >= entries.size())
+			throw new Exception("Reference to undefined class " + index);
+		return entries.get(index);
+	}
+
+
+	/**
+	 * Returns the number of classes defined so far.
+	 *
+	 * @return The size of the dictionary.
+	 */
+	int size() {
+		return entries.size();
+	}
+
+
+	/**
+	 * The definition of a class: its local descriptor and the fields whose
+	 * values each of its objects carries, in order.
+	 */
+	static class Entry {
+		final ClassDescriptor desc;		// The local descriptor of the class.
+		// The fields, in the order their values appear (empty for arrays).
+		final FieldDescriptor[] fields;
+
+		Entry(ClassDescriptor desc, FieldDescriptor[] fields) {
+			this.desc = desc;
+			this.fields = fields;
+		}
+
+		/**
+		 * Defines the passed class with every one of its fields, as written
+		 * by a serializer.
+		 *
+		 * @param desc The descriptor of the class.
+		 */
+		Entry(ClassDescriptor desc) {
+			this(desc, desc.fields);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// ClassResolver.java
+// ======================================================
+
+import java.util.HashSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Resolves the class names found in serialized documents, caching each class
+ * after its first lookup. A resolver may be restricted to an allowlist so a
+ * peer cannot have arbitrary classes loaded and instantiated: classes outside
+ * the list are rejected before they are loaded (or initialized). Resolvers are
+ * safe to share between threads. Subclasses may override {@code isAllowed}.
+ */
+public class ClassResolver {
+	// JDK types holding plain values, which most object graphs need.
+	public static final String[] JDK_VALUE_TYPES = {
+		"java.lang.Object", "java.lang.String", "java.lang.Boolean",
+		"java.lang.Byte", "java.lang.Character", "java.lang.Short",
+		"java.lang.Integer", "java.lang.Long", "java.lang.Float",
+		"java.lang.Double", "java.math.BigInteger", "java.math.BigDecimal",
+	};
+
+	// Classes resolved so far, by name.
+	private final ConcurrentHashMap<String, Class<?>> cache
+		= new ConcurrentHashMap<String, Class<?>>();
+	private final boolean allowAll;	// Whether every class is allowed.
+	// Allowed packages, as name prefixes ending in '.'.
+	private final String[] packages;
+	private final HashSet<String> classes;	// Allowed class names.
+
+
+	/**
+	 * Creates a resolver that allows every class.
+	 */
+	public ClassResolver() {
+		this("*");
+	}
+
+
+	/**
+	 * Creates a resolver that only allows the passed classes. Each pattern is
+	 * either {@code "*"} (every class), a package followed by {@code ".*"}
+	 * (every class of the package and its subpackages) or the name of a
+	 * class. Arrays are allowed if their element type is; primitives always
+	 * are.
+	 *
+	 * @param allowed The patterns of the allowed classes.
+	 */
+	public ClassResolver(String... allowed) {
+		boolean all = false;
+		HashSet<String> prefixes = new HashSet<String>();
+		classes = new HashSet<String>();
+		for (String pattern : allowed) {
+			if (pattern.equals("*"))
+				all = true;
+			else if (pattern.endsWith(".*"))
+				prefixes.add(pattern.substring(0, pattern.length() - 1));
+			else
+				classes.add(pattern);
+		}
+		allowAll = all;
+		packages = prefixes.toArray(new String[0]);
+	}
+
+
+	/**
+	 * Returns the class of the passed name, as given by {@code Class.getName}
+	 * (so array classes are named by their descriptors, e.g.
+	 * {@code "[Lsamples.Node;"}).
+	 *
+	 * @param name The name of the class.
+	 * @return The named class.
+	 * @throws Exception If the class is not allowed or cannot be found.
+	 */
+	public Class<?> resolve(String name) throws Exception {
+		Class<?> c = cache.get(name);
+		if (c != null) return c;
+
+		if (!isAllowed(elementName(name)))
+			throw new Exception("Class not allowed: " + name);
+		c = Class.forName(name, false, ClassResolver.class.getClassLoader());
+		cache.putIfAbsent(name, c);
+		return c;
+	}
+
+
+	/**
+	 * Returns whether the named (non-array) class may be resolved.
+	 *
+	 * @param className The name of the class, or of the element type of an
+	 * array class (a primitive element type is given as {@code null}).
+	 * @return Whether the class is allowed.
+	 */
+	protected boolean isAllowed(String className) {
+		if (allowAll || className == null || classes.contains(className))
+			return true;
+		for (String prefix : packages)
+			if (className.startsWith(prefix)) return true;
+		return false;
+	}
+
+
+	/**
+	 * Returns the name of the element type of an array class name, or the
+	 * passed name itself if it does not name an array.
+	 *
+	 * @param name The name of a class.
+	 * @return The name of the element class, or {@code null} if the element
+	 * type is primitive.
+	 * @throws Exception If the name is a malformed array descriptor.
+	 */
+	private static String elementName(String name) throws Exception {
+		int dims = 0;
+		while (dims < name.length() && name.charAt(dims) == '[') dims ++;
+		if (dims == 0) return name;
+		if (dims == name.length())
+			throw new Exception("Malformed array class name: " + name);
+		if (name.charAt(dims) == 'L' && name.endsWith(";"))
+			return name.substring(dims + 1, name.length() - 1);
+		if (name.length() == dims + 1) return null;
+		throw new Exception("Malformed array class name: " + name);
+	}
+}
@@ -0,0 +1,145 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// CollectionHandler.java
+// ======================================================
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
+
+/**
+ * Access to the logical contents of a JDK collection class, so collections
+ * are serialized as an array of their elements (or of the keys and values of
+ * their entries) instead of by their internal fields. Payloads then scale
+ * with the number of elements rather than with the capacity of the
+ * collection, and the JDK's internals never need to be opened to reflection.
+ */
+abstract class CollectionHandler {
+	/**
+	 * Returns the handler of the passed class, if it is one of the supported
+	 * collection classes (subclasses are serialized by field as usual).
+	 *
+	 * @param c A class.
+	 * @return The handler of the class, or null if it has none.
+	 */
+	static CollectionHandler of(Class<?> c) {
+		if (c == ArrayList.class) return new ElementHandler() {
+			Collection<Object> create(int length) {
+				return new ArrayList<Object>(length);
+			}
+		};
+		if (c == ArrayDeque.class) return new ElementHandler() {
+			Collection<Object> create(int length) {
+				return new ArrayDeque<Object>(length);
+			}
+		};
+		if (c == HashSet.class) return new ElementHandler() {
+			Collection<Object> create(int length) {
+				return new HashSet<Object>(capacity(length));
+			}
+		};
+		if (c == HashMap.class) return new EntryHandler();
+		return null;
+	}
+
+
+	/**
+	 * Returns an empty collection sized to hold the passed number of values.
+	 *
+	 * @param length The number of values (as returned by {@code contents}).
+	 * @return The new collection.
+	 * @throws Exception If the length is invalid.
+	 */
+	abstract Object create(int length) throws Exception;
+
+
+	/**
+	 * Returns the logical contents of a collection, in iteration order.
+	 *
+	 * @param collection The collection.
+	 * @return The values held by the collection.
+	 */
+	abstract Object[] contents(Object collection);
+
+
+	/**
+	 * Replaces the contents of a collection by the passed values.
+	 *
+	 * @param collection The collection (as created by {@code create}).
+	 * @param contents The values of the collection, as returned by
+	 * {@code contents}.
+	 * @throws Exception If the values cannot be held by the collection.
+	 */
+	abstract void populate(Object collection, Object[] contents)
+	throws Exception;
+
+
+	/**
+	 * Returns the initial capacity a hash table needs to hold the passed
+	 * number of entries without being resized.
+	 *
+	 * @param size The number of entries.
+	 * @return The capacity of the table.
+	 */
+	static int capacity(int size) {
+		return (int) Math.min((long) Math.ceil(size / 0.75), Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Handler of a {@code Collection}, whose contents are its elements.
+	 */
+	abstract static class ElementHandler extends CollectionHandler {
+		abstract Collection<Object> create(int length);
+
+		Object[] contents(Object collection) {
+			return ((Collection<?>) collection).toArray();
+		}
+
+		@SuppressWarnings("unchecked")
+		void populate(Object collection, Object[] contents) {
+			Collection<Object> c = (Collection<Object>) collection;
+			c.clear();
+			Collections.addAll(c, contents);
+		}
+	}
+
+
+	/**
+	 * Handler of a {@code HashMap}, whose contents are the key and value of
+	 * each entry in turn.
+	 */
+	static final class EntryHandler extends CollectionHandler {
+		Object create(int length) throws Exception {
+			if (length % 2 != 0)
+				throw new Exception("Odd number of map keys and values");
+			return new HashMap<Object, Object>(capacity(length / 2));
+		}
+
+		Object[] contents(Object collection) {
+			Map<?, ?> map = (Map<?, ?>) collection;
+			Object[] contents = new Object[map.size() * 2];
+			int i = 0;
+			for (Map.Entry<?, ?> e : map.entrySet()) {
+				contents[i ++] = e.getKey();
+				contents[i ++] = e.getValue();
+			}
+			return contents;
+		}
+
+		@SuppressWarnings("unchecked")
+		void populate(Object collection, Object[] contents) throws Exception {
+			if (contents.length % 2 != 0)
+				throw new Exception("Odd number of map keys and values");
+			Map<Object, Object> map = (Map<Object, Object>) collection;
+			map.clear();
+			for (int i = 0; i < contents.length; i += 2)
+				map.put(contents[i], contents[i + 1]);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// CommandLine.java
+// ======================================================
+
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Shared parsing of the command-line arguments of Sender and Receiver. The
+ * arguments are words in any order: an encoding ("json", "xml" or "binary",
+ * JSON if absent), any number of flags (such as "packed", "dictionary",
+ * "session", "compress" or "checksum") and options of the form
+ * {@code name=value} (such as "allow=samples.*,java.util.*" or
+ * "compress=4096").
+ */
+class CommandLine {
+	// Classes a Receiver instantiates unless told otherwise: the samples and
+	// the collection they use (on top of the JDK value types).
+	static final String DEFAULT_ALLOWED = "samples.*,java.util.ArrayList";
+
+	private final String[] args;	// The arguments, as passed.
+
+
+	/**
+	 * Captures the passed program arguments.
+	 *
+	 * @param args The arguments passed to {@code main}.
+	 */
+	CommandLine(String[] args) {
+		this.args = args.clone();
+	}
+
+
+	/**
+	 * Returns the encoding selected by the arguments.
+	 *
+	 * @return One of "json", "xml" or "binary".
+	 */
+	String mode() {
+		for (String arg : args) {
+			String word = arg.toLowerCase();
+			if (word.equals("xml") || word.equals("binary")
+			|| word.equals("json"))
+				return word;
+		}
+		return "json";
+	}
+
+
+	/**
+	 * Returns whether the passed flag is among the arguments.
+	 *
+	 * @param flag The (lower case) flag to look for.
+	 * @return Whether the flag was passed.
+	 */
+	boolean hasFlag(String flag) {
+		for (String arg : args)
+			if (arg.equalsIgnoreCase(flag)) return true;
+		return false;
+	}
+
+
+	/**
+	 * Returns the value of the passed option (the text after "name=").
+	 *
+	 * @param name The (lower case) name of the option.
+	 * @param fallback The value to return if the option was not passed.
+	 * @return The value of the option.
+	 */
+	String option(String name, String fallback) {
+		String prefix = name + "=";
+		for (String arg : args)
+			if (arg.regionMatches(true, 0, prefix, 0, prefix.length()))
+				return arg.substring(prefix.length());
+		return fallback;
+	}
+
+
+	/**
+	 * Creates the class resolver allowing the classes listed by the "allow"
+	 * option (comma-separated {@code ClassResolver} patterns, or "*" for every
+	 * class) as well as the JDK value types.
+	 *
+	 * @return The new class resolver.
+	 */
+	ClassResolver createClassResolver() {
+		String[] patterns = option("allow", DEFAULT_ALLOWED).split(",");
+		String[] allowed = new String[
+			patterns.length + ClassResolver.JDK_VALUE_TYPES.length];
+		System.arraycopy(patterns, 0, allowed, 0, patterns.length);
+		System.arraycopy(ClassResolver.JDK_VALUE_TYPES, 0,
+			allowed, patterns.length, ClassResolver.JDK_VALUE_TYPES.length);
+		return new ClassResolver(allowed);
+	}
+
+
+	/**
+	 * Creates the compression stage of the frames sent, compressing messages
+	 * from the size given by the "compress" option (or from
+	 * {@code FrameCompressor.DEFAULT_THRESHOLD} bytes if "compress" is passed
+	 * as a flag). Frames are not compressed if neither is passed.
+	 *
+	 * @return The new compression stage.
+	 * @throws NumberFormatException If the size given is not a number.
+	 */
+	FrameCompressor createCompressor() {
+		int threshold = Integer.MAX_VALUE;
+		if (hasFlag("compress"))
+			threshold = FrameCompressor.DEFAULT_THRESHOLD;
+		String size = option("compress", null);
+		if (size != null) threshold = Integer.parseInt(size);
+		return new FrameCompressor(threshold);
+	}
+
+
+	/**
+	 * Creates the writer of the frames sent over a connection, in the
+	 * encoding selected, compressed as {@code createCompressor} configures it
+	 * and with the checksum of each payload if "checksum" is passed.
+	 *
+	 * @param channel The connection.
+	 * @return The new frame writer.
+	 * @throws NumberFormatException If the compression threshold given is
+	 * not a number.
+	 */
+	FrameWriter createFrameWriter(WritableByteChannel channel) {
+		return new FrameWriter(channel, Frame.codec(mode()),
+			createCompressor(), hasFlag("checksum"));
+	}
+
+
+	/**
+	 * Creates the (de)serializer selected and configured by the arguments.
+	 *
+	 * @return The new serializer.
+	 * @throws IllegalArgumentException If a session is requested with an
+	 * encoding other than binary.
+	 */
+	Serialize createSerializer() {
+		return createSerializer(mode());
+	}
+
+
+	/**
+	 * Creates a (de)serializer of the passed encoding, configured by the
+	 * arguments.
+	 *
+	 * @param mode One of "json", "xml" or "binary".
+	 * @return The new serializer.
+	 * @throws IllegalArgumentException If a session is requested with an
+	 * encoding other than binary.
+	 */
+	Serialize createSerializer(String mode) {
+		boolean session = hasFlag("session");
+		if (session && !mode.equals("binary"))
+			throw new IllegalArgumentException(
+				"Sessions need the binary encoding.");
+		Serialize serial = null;
+		switch (mode) {
+			case "xml": serial = new XMLSerialize(); break;
+			case "binary":
+				serial = new BinarySerialize().setSession(session);
+				break;
+			default: serial = new JSONSerialize();
+		}
+		return serial.setPackArrays(hasFlag("packed"))
+			.setUseDictionary(hasFlag("dictionary"))
+			.setClassResolver(createClassResolver());
+	}
+}
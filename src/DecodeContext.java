@@ -0,0 +1,348 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// DecodeContext.java
+// ======================================================
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+
+/**
+ * State of a single deserialization: the instances created so far (indexed by
+ * ID) and the references between them. Streaming decoders create each object
+ * as soon as its header is read, in a single pass. References to objects that
+ * already exist are set immediately; references to later objects are kept in
+ * a fixup table and set as soon as the referenced object is registered.
+ */
+class DecodeContext {
+	private final ClassResolver resolver;	// Resolves named classes.
+	private final int inputLimit;	// The size of the largest document.
+	private Object[] objects = new Object[64];	// Instances, indexed by ID.
+	private int rootId = -1;	// The ID of the first (root) object.
+	private int registered = 0;	// The number of objects registered.
+	// The classes defined so far by the document (if it uses a dictionary).
+	final ClassDictionary classes = new ClassDictionary();
+	// Collections waiting to be filled, with the arrays of their contents.
+	private final ArrayList<Object> collections = new ArrayList<Object>();
+	private final ArrayList<Object[]> contents = new ArrayList<Object[]>();
+	private final ArrayList<CollectionHandler> handlers
+		= new ArrayList<CollectionHandler>();
+	// Scratch space for the text of the value being decoded, for decoders
+	// whose input does not keep values in a buffer of its own.
+	char[] text = new char[64];
+
+	// The fixup table: references waiting for the object of an ID to be
+	// registered. Waiting fixups form a chain per ID (through fixupNext),
+	// and patched ones a free list for reuse, so the table only grows with
+	// the number of forward references outstanding at once.
+	private int[] waiting = newChains(64);	// First fixup waiting on each ID.
+	private Object[] fixupHolder = new Object[16];	// Referring object/array.
+	private FieldDescriptor[] fixupField = new FieldDescriptor[16];
+	private int[] fixupIndex = new int[16];	// Referring index (arrays).
+	private int[] fixupNext = new int[16];	// Next fixup in the same chain.
+	private int fixupCount = 0;		// The number of table rows in use.
+	private int freeFixup = -1;		// The first row of the free list.
+	private int unresolved = 0;		// The number of waiting fixups.
+
+
+	/**
+	 * Creates the state of a new deserialization.
+	 *
+	 * @param resolver The resolver of the classes named by the document.
+	 */
+	DecodeContext(ClassResolver resolver) {
+		this(resolver, Integer.MAX_VALUE);
+	}
+
+
+	/**
+	 * Creates the state of a new deserialization of a document of at most
+	 * the passed size.
+	 *
+	 * @param resolver The resolver of the classes named by the document.
+	 * @param inputLimit The size (in bytes) of the largest document.
+	 */
+	DecodeContext(ClassResolver resolver, int inputLimit) {
+		this.resolver = resolver;
+		this.inputLimit = inputLimit;
+	}
+
+
+	/**
+	 * Resolves the class named in the header of a serialized object (or of a
+	 * class definition).
+	 *
+	 * @param className The name of the class (null if missing from the header).
+	 * @param id The ID of the object (negative if missing from the header).
+	 * @return The named class.
+	 * @throws Exception If the header is incomplete or the class is unknown or
+	 * not allowed.
+	 */
+	Class<?> classOf(String className, int id) throws Exception {
+		if (className == null || id < 0)
+			throw new Exception(
+				"An object's class and ID must precede its contents.");
+		return resolver.resolve(className);
+	}
+
+
+	/**
+	 * Registers a newly created instance under the passed ID, setting any
+	 * references to it that were read before it. The first instance
+	 * registered is the root of the object graph.
+	 *
+	 * @param id The ID of the object in the serialized document.
+	 * @param o The new instance.
+	 * @throws Exception If the ID is invalid or already in use, or a waiting
+	 * reference cannot be set.
+	 */
+	void register(int id, Object o) throws Exception {
+		checkId(id);
+		if (id >= objects.length) grow(id);
+		if (objects[id] != null)
+			throw new Exception("Duplicate object ID: " + id);
+		objects[id] = o;
+		registered ++;
+		if (rootId < 0) rootId = id;
+
+		// Patch the references that were waiting for this object.
+		int i = waiting[id];
+		waiting[id] = -1;
+		while (i >= 0) {
+			if (fixupField[i] != null)
+				fixupField[i].accessor.setObject(fixupHolder[i], o);
+			else
+				((Object[]) fixupHolder[i])[fixupIndex[i]] = o;
+			int next = fixupNext[i];
+			fixupHolder[i] = null;
+			fixupNext[i] = freeFixup;
+			freeFixup = i;
+			unresolved --;
+			i = next;
+		}
+	}
+
+
+	/**
+	 * Registers a new, empty collection under the passed ID. The collection
+	 * is filled with the passed array of its contents once the whole graph
+	 * has been read, when the contents (and the objects they refer to) are
+	 * complete. Hash-based collections may not hold elements whose fields
+	 * are yet to be set, as their hash codes would change.
+	 *
+	 * @param id The ID of the collection in the serialized document.
+	 * @param handler The handler of the collection's class.
+	 * @param collection The new collection.
+	 * @param values The array the collection's contents are read into.
+	 * @throws Exception If the ID is invalid or already in use.
+	 */
+	void registerCollection(int id, CollectionHandler handler,
+	Object collection, Object[] values) throws Exception {
+		register(id, collection);
+		populateLater(handler, collection, values);
+	}
+
+
+	/**
+	 * Replaces the contents of a collection by the passed array once the
+	 * whole graph has been read (see {@code registerCollection}).
+	 *
+	 * @param handler The handler of the collection's class.
+	 * @param collection The collection.
+	 * @param values The array the collection's new contents are read into.
+	 */
+	void populateLater(CollectionHandler handler, Object collection,
+	Object[] values) {
+		collections.add(collection);
+		contents.add(values);
+		handlers.add(handler);
+	}
+
+
+	/**
+	 * Sets a field of an object to the object of the passed ID, now if it
+	 * exists or else once it is registered.
+	 *
+	 * @param holder The object whose field refers to another object.
+	 * @param f The referring field.
+	 * @param id The ID of the referenced object.
+	 * @throws Exception If the ID is invalid or the field cannot be set.
+	 */
+	void setReference(Object holder, FieldDescriptor f, int id)
+	throws Exception {
+		Object target = get(id);
+		if (target != null)
+			f.accessor.setObject(holder, target);
+		else
+			addFixup(holder, f, -1, id);
+	}
+
+
+	/**
+	 * Sets an element of an array to the object of the passed ID, now if it
+	 * exists or else once it is registered.
+	 *
+	 * @param array The array whose element refers to another object.
+	 * @param index The index of the referring element.
+	 * @param id The ID of the referenced object.
+	 * @throws Exception If the ID is invalid.
+	 */
+	void setElement(Object[] array, int index, int id) throws Exception {
+		Object target = get(id);
+		if (target != null)
+			array[index] = target;
+		else
+			addFixup(array, null, index, id);
+	}
+
+
+	/**
+	 * Completes the deserialization and returns the root of the object graph.
+	 *
+	 * @return The root object.
+	 * @throws Exception If the document refers to an unknown object, holds
+	 * no objects or a collection cannot hold its contents.
+	 */
+	Object resolve() throws Exception {
+		if (rootId < 0) throw new Exception("No objects to deserialize.");
+		return resolve(rootId);
+	}
+
+
+	/**
+	 * Completes the deserialization of a message and returns the object of
+	 * the passed ID. The context may then be used for another message whose
+	 * objects refer to those already registered (as in a session).
+	 *
+	 * @param root The ID of the root object, or -1 for a null root.
+	 * @return The root object (or null).
+	 * @throws Exception If the message refers to an unknown object or a
+	 * collection cannot hold its contents.
+	 */
+	Object resolve(int root) throws Exception {
+		if (unresolved > 0) {
+			for (int id = 0; id < waiting.length; id ++)
+				if (waiting[id] >= 0)
+					throw new Exception("Reference to unknown object ID: " + id);
+		}
+		Object o = root < 0 ? null : get(root);
+		if (root >= 0 && o == null)
+			throw new Exception("Reference to unknown object ID: " + root);
+
+		// Fill collections in the reverse order of their creation, so those
+		// nested in others are usually complete before they are added.
+		for (int i = collections.size() - 1; i >= 0; i --)
+			handlers.get(i).populate(collections.get(i), contents.get(i));
+		collections.clear();
+		contents.clear();
+		handlers.clear();
+		return o;
+	}
+
+
+	/**
+	 * Returns the object registered under the passed ID.
+	 *
+	 * @param id The ID of the object.
+	 * @return The object, or {@code null} if it is not registered yet.
+	 * @throws Exception If the ID is negative.
+	 */
+	Object get(int id) throws Exception {
+		if (id < 0) throw new Exception("Invalid object ID: " + id);
+		return id < objects.length ? objects[id] : null;
+	}
+
+
+	/**
+	 * Adds a reference to the chain of fixups waiting on the passed ID.
+	 *
+	 * @param holder The referring object or array.
+	 * @param f The referring field (or null for an array element).
+	 * @param index The referring array index (if an array element).
+	 * @param id The ID of the referenced object.
+	 * @throws Exception If the ID is invalid.
+	 */
+	private void addFixup(Object holder, FieldDescriptor f, int index, int id)
+	throws Exception {
+		checkId(id);
+		if (id >= objects.length) grow(id);
+		int i = freeFixup;
+		if (i >= 0)
+			freeFixup = fixupNext[i];
+		else {
+			if (fixupCount == fixupNext.length) {
+				int size = fixupCount * 2;
+				fixupHolder = Arrays.copyOf(fixupHolder, size);
+				fixupField = Arrays.copyOf(fixupField, size);
+				fixupIndex = Arrays.copyOf(fixupIndex, size);
+				fixupNext = Arrays.copyOf(fixupNext, size);
+			}
+			i = fixupCount ++;
+		}
+		fixupHolder[i] = holder;
+		fixupField[i] = f;
+		fixupIndex[i] = index;
+		fixupNext[i] = waiting[id];
+		waiting[id] = i;
+		unresolved ++;
+	}
+
+
+	/**
+	 * Checks that an ID read from the document may be that of a new object.
+	 * Encoders assign IDs in the order objects are first referenced, so an
+	 * object is either registered or referenced before any object of a later
+	 * ID: a new ID is at most the number of objects registered and waited on.
+	 * The tables indexed by ID thus only grow with the size of the document,
+	 * whatever IDs it claims.
+	 *
+	 * @param id The ID of an object that is not registered yet.
+	 * @throws Exception If the ID is out of that range.
+	 */
+	private void checkId(int id) throws Exception {
+		if (id < 0 || id > registered + unresolved)
+			throw new Exception("Invalid object ID: " + id);
+	}
+
+
+	/**
+	 * Checks the length an array or collection declares before it is
+	 * allocated. Each element takes at least a byte of the document, so the
+	 * length is at most the size of the largest document, and a short
+	 * document cannot claim a huge array.
+	 *
+	 * @param length The number of elements declared.
+	 * @throws Exception If the length is larger than the document may be.
+	 */
+	void checkLength(int length) throws Exception {
+		if (length > inputLimit)
+			throw new Exception("Invalid length: " + length);
+	}
+
+
+	/**
+	 * Grows the tables indexed by ID to hold the passed ID.
+	 *
+	 * @param id The largest ID to be held.
+	 */
+	private void grow(int id) {
+		int size = Math.max(id + 1, objects.length * 2);
+		objects = Arrays.copyOf(objects, size);
+		int[] grown = newChains(size);
+		System.arraycopy(waiting, 0, grown, 0, waiting.length);
+		waiting = grown;
+	}
+
+
+	/**
+	 * Returns a table of empty fixup chains.
+	 *
+	 * @param size The number of IDs in the table.
+	 * @return A table holding -1 for every ID.
+	 */
+	private static int[] newChains(int size) {
+		int[] chains = new int[size];
+		Arrays.fill(chains, -1);
+		return chains;
+	}
+}
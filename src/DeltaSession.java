@@ -0,0 +1,390 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// DeltaSession.java
+// ======================================================
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+
+/**
+ * State of a session of binary messages exchanged over one connection, in
+ * which each message only carries what changed since the previous ones. Both
+ * ends keep the objects of the session under the IDs they were first sent
+ * with, and the classes defined so far. The sender also keeps a snapshot of
+ * the values of each object as last sent, so a message holds a full record
+ * for each new object and an update record for each known object whose values
+ * changed: the changed fields of an object, or the new elements of an array
+ * or collection. The receiver applies updates to the instances it retained,
+ * so objects keep their identity from one message to the next.
+ * <p>
+ * A session message is the session version byte, a reference to the root
+ * object, the records and a terminating 0:
+ * <pre>
+ * update  := classRef id (varint count (varint fieldIndex value)* | array-body)
+ * </pre>
+ * where field indices are positions in the class's definition. Both ends hold
+ * every object of the session (and the sender a copy of its values) until the
+ * session ends. A message that fails leaves the two ends out of step, so the
+ * session must then be restarted on both: the receiver drops what it received
+ * and refuses every later message, rather than applying them to objects that
+ * no longer match the sender's.
+ */
+final class DeltaSession {
+	// Snapshot of a leaf, whose value cannot change.
+	private static final Object LEAF = new Object();
+
+	// The IDs of the objects sent so far, and the classes defined.
+	private final IdentityTable ids = new IdentityTable();
+	private final ClassDictionary classes = new ClassDictionary();
+	// The values of each object (by ID) as last sent.
+	private Object[] snapshots = new Object[64];
+	// The last message in which each known object (by ID) was visited.
+	private int[] visited = new int[64];
+	private int message = 0;	// The number of messages encoded.
+	private int firstNew = 0;	// The first ID assigned by the message.
+	// New objects to be written, and known objects to be checked.
+	private final LinkedList<Object> todo = new LinkedList<Object>();
+	// Scratch space for the indices of the changed fields of an object.
+	private int[] changed = new int[16];
+
+	// The objects and classes received so far (created on first use).
+	private DecodeContext received = null;
+	private boolean failed = false;	// Whether a message failed to decode.
+
+
+	/**
+	 * Snapshot of the fields of an object: the bits of its primitive fields
+	 * and the objects its reference fields point to, by field index.
+	 */
+	private static final class Values {
+		final long[] primitives;
+		final Object[] references;
+
+		Values(int count) {
+			primitives = new long[count];
+			references = new Object[count];
+		}
+	}
+
+
+	/**
+	 * Writes the records of a message: the new objects reachable from the
+	 * root and the changes to the known ones.
+	 *
+	 * @param root The root of the object graph (possibly {@code null}).
+	 * @param bin The binary emitter to write the message to, positioned
+	 * after the version byte.
+	 * @throws Exception If an object cannot be serialized or written.
+	 */
+	void encode(Object root, BinaryWriter bin) throws Exception {
+		message ++;
+		firstNew = ids.size();
+		if (visited.length < firstNew)
+			visited = Arrays.copyOf(
+				visited, Math.max(firstNew, 2 * visited.length));
+		bin.writeVarint(root == null ? 0 : visit(root) + 1);
+
+		while (todo.size() > 0) {
+			Object o = todo.pop();
+			int id = ids.get(o);
+			if (id < firstNew)
+				encodeChanges(o, id, bin);
+			else {
+				BinarySerialize.encodeObject(o, bin, classes, ids, todo);
+				if (id >= snapshots.length)
+					snapshots = Arrays.copyOf(snapshots,
+						Math.max(id + 1, 2 * snapshots.length));
+				snapshots[id] = snapshot(o);
+			}
+		}
+		bin.writeVarint(0); // End of message.
+	}
+
+
+	/**
+	 * Returns the ID of an object, queueing new objects to be written and
+	 * known ones not yet visited by this message to be checked for changes
+	 * (except leaves, which cannot change).
+	 *
+	 * @param o An object.
+	 * @return The ID of the object.
+	 */
+	private int visit(Object o) {
+		int id = ids.get(o);
+		if (id < 0) return Serialize.referenceId(o, ids, todo);
+		if (id < firstNew && visited[id] != message && snapshots[id] != LEAF) {
+			visited[id] = message;
+			todo.push(o);
+		}
+		return id;
+	}
+
+
+	/**
+	 * Takes a snapshot of the values of a newly written object, visiting the
+	 * objects it refers to.
+	 *
+	 * @param o The object.
+	 * @return The snapshot.
+	 * @throws Exception If a field cannot be read.
+	 */
+	private Object snapshot(Object o) throws Exception {
+		ClassDescriptor desc = ClassDescriptor.of(Serialize.serializedClass(o));
+		if (desc.isLeaf) return LEAF;
+		if (desc.collection != null) {
+			Object[] contents = desc.collection.contents(o);
+			visitAll(contents);
+			return contents;
+		}
+		if (desc.isArray) {
+			int length = Array.getLength(o);
+			Object copy = Array.newInstance(desc.componentType, length);
+			System.arraycopy(o, 0, copy, 0, length);
+			if (desc.componentCode == 'L') visitAll((Object[]) copy);
+			return copy;
+		}
+		Values values = new Values(desc.fields.length);
+		for (FieldDescriptor f : desc.fields) {
+			if (f.isPrimitive)
+				values.primitives[f.index] = bits(o, f);
+			else {
+				Object value = f.accessor.getObject(o);
+				if (value != null) visit(value);
+				values.references[f.index] = value;
+			}
+		}
+		return values;
+	}
+
+
+	/**
+	 * Writes an update record for a known object if its values changed since
+	 * they were last sent, visiting the objects it refers to.
+	 *
+	 * @param o The object.
+	 * @param id The ID of the object.
+	 * @param bin The binary emitter to write the record to.
+	 * @throws Exception If a field cannot be read or the record written.
+	 */
+	private void encodeChanges(Object o, int id, BinaryWriter bin)
+	throws Exception {
+		ClassDescriptor desc = ClassDescriptor.of(Serialize.serializedClass(o));
+		if (desc.isLeaf) return;
+
+		// Collections and arrays are sent whole if any element changed.
+		if (!desc.byFields) {
+			Object array;
+			if (desc.collection != null) {
+				array = desc.collection.contents(o);
+				visitAll((Object[]) array);
+				if (sameReferences((Object[]) array, (Object[]) snapshots[id]))
+					return;
+				snapshots[id] = array;
+			} else {
+				array = o;
+				if (desc.componentCode == 'L') visitAll((Object[]) array);
+				if (sameElements(array, snapshots[id], desc.componentCode))
+					return;
+				System.arraycopy(array, 0, snapshots[id], 0,
+					Array.getLength(array));
+			}
+			writeHeader(desc, id, bin);
+			BinarySerialize.encodeArray(
+				array, desc.componentCode, bin, ids, todo);
+			return;
+		}
+
+		// Objects are sent as the fields that changed.
+		Values values = (Values) snapshots[id];
+		if (changed.length < desc.fields.length)
+			changed = new int[desc.fields.length];
+		int count = 0;
+		for (FieldDescriptor f : desc.fields) {
+			if (f.isPrimitive) {
+				long bits = bits(o, f);
+				if (bits == values.primitives[f.index]) continue;
+				values.primitives[f.index] = bits;
+			} else {
+				Object value = f.accessor.getObject(o);
+				if (value != null) visit(value);
+				if (value == values.references[f.index]) continue;
+				values.references[f.index] = value;
+			}
+			changed[count ++] = f.index;
+		}
+		if (count == 0) return;
+		writeHeader(desc, id, bin);
+		bin.writeVarint(count);
+		for (int i = 0; i < count; i ++) {
+			FieldDescriptor f = desc.fields[changed[i]];
+			bin.writeVarint(f.index);
+			BinarySerialize.encodeField(o, f, bin, ids, todo);
+		}
+	}
+
+
+	/**
+	 * Writes the start of an update record: the object's class and ID.
+	 *
+	 * @param desc The descriptor of the object's (defined) class.
+	 * @param id The ID of the object.
+	 * @param bin The binary emitter to write the record to.
+	 * @throws Exception If the record cannot be written.
+	 */
+	private void writeHeader(ClassDescriptor desc, int id, BinaryWriter bin)
+	throws Exception {
+		bin.writeVarint(classes.indexOf(desc.type) + 1);
+		bin.writeVarint(id);
+	}
+
+
+	private void visitAll(Object[] values) {
+		for (Object value : values)
+			if (value != null) visit(value);
+	}
+
+
+	/**
+	 * Returns the bits of the value of a primitive field.
+	 *
+	 * @param o The object.
+	 * @param f The primitive field.
+	 * @return The value of the field, as raw bits.
+	 * @throws Exception If the field cannot be read.
+	 */
+	private static long bits(Object o, FieldDescriptor f) throws Exception {
+		FieldAccessor a = f.accessor;
+		switch (f.typeCode) {
+			case 'Z': return a.getBoolean(o) ? 1 : 0;
+			case 'B': return a.getByte(o);
+			case 'C': return a.getChar(o);
+			case 'S': return a.getShort(o);
+			case 'I': return a.getInt(o);
+			case 'J': return a.getLong(o);
+			case 'F': return Float.floatToRawIntBits(a.getFloat(o));
+			default: return Double.doubleToRawLongBits(a.getDouble(o));
+		}
+	}
+
+
+	/**
+	 * Returns whether two arrays of references refer to the same objects.
+	 *
+	 * @param a An array.
+	 * @param b Another array.
+	 * @return Whether the arrays have identical elements.
+	 */
+	private static boolean sameReferences(Object[] a, Object[] b) {
+		if (a.length != b.length) return false;
+		for (int i = 0; i < a.length; i ++)
+			if (a[i] != b[i]) return false;
+		return true;
+	}
+
+
+	/**
+	 * Returns whether an array has the same elements as its snapshot.
+	 *
+	 * @param a An array.
+	 * @param b The snapshot of the array (of the same type and length).
+	 * @param code The type code of the arrays' component type.
+	 * @return Whether the arrays have identical elements.
+	 */
+	private static boolean sameElements(Object a, Object b, char code) {
+		switch (code) {
+			case 'Z': return Arrays.equals((boolean[]) a, (boolean[]) b);
+			case 'B': return Arrays.equals((byte[]) a, (byte[]) b);
+			case 'C': return Arrays.equals((char[]) a, (char[]) b);
+			case 'S': return Arrays.equals((short[]) a, (short[]) b);
+			case 'I': return Arrays.equals((int[]) a, (int[]) b);
+			case 'J': return Arrays.equals((long[]) a, (long[]) b);
+			case 'F': return Arrays.equals((float[]) a, (float[]) b);
+			case 'D': return Arrays.equals((double[]) a, (double[]) b);
+			default: return sameReferences((Object[]) a, (Object[]) b);
+		}
+	}
+
+
+	/**
+	 * Reads the records of a message, creating its new objects and applying
+	 * its updates to the objects received before.
+	 *
+	 * @param bin The binary reader, positioned after the version byte.
+	 * @param resolver The resolver of the classes named by the message.
+	 * @return The root of the object graph (possibly {@code null}).
+	 * @throws Exception If the message is malformed or refers to classes or
+	 * objects that are unknown, or a previous message failed.
+	 */
+	Object decode(BinaryReader bin, ClassResolver resolver) throws Exception {
+		if (failed)
+			throw new Exception("Session out of step since a message failed");
+		if (received == null) received = new DecodeContext(resolver);
+		DecodeContext ctx = received;
+		boolean decoded = false;
+		try {
+			int root = bin.readVarint() - 1;
+			for (int ref = bin.readVarint(); ref != 0; ref = bin.readVarint()) {
+				if (ref - 1 == ctx.classes.size())
+					ctx.classes.add(BinarySerialize.readDefinition(bin, ctx));
+				ClassDictionary.Entry entry = ctx.classes.get(ref - 1);
+				int id = bin.readVarint();
+				Object known = ctx.get(id);
+				if (known == null)
+					BinarySerialize.decodeObject(bin, entry, id, ctx);
+				else
+					decodeChanges(bin, entry, known, ctx);
+			}
+			Object o = ctx.resolve(root);
+			decoded = true;
+			return o;
+		} finally {
+			// Part of the message may have been applied: the objects no
+			// longer match the sender's.
+			if (!decoded) {
+				failed = true;
+				received = null;
+			}
+		}
+	}
+
+
+	/**
+	 * Applies an update record to an object received before.
+	 *
+	 * @param bin The binary reader, positioned after the record's ID.
+	 * @param entry The dictionary entry of the record's class.
+	 * @param known The object being updated.
+	 * @param ctx The objects and classes received so far.
+	 * @throws Exception If the record does not match the object or is
+	 * malformed.
+	 */
+	private static void decodeChanges(BinaryReader bin,
+	ClassDictionary.Entry entry, Object known, DecodeContext ctx)
+	throws Exception {
+		ClassDescriptor desc = entry.desc;
+		if (Serialize.serializedClass(known) != desc.type || desc.isLeaf)
+			throw new Exception("Invalid update of a " + desc.name);
+
+		if (desc.byFields) {
+			for (int count = bin.readLength(); count > 0; count --) {
+				int index = bin.readVarint();
+				if (index < 0 || index >= entry.fields.length)
+					throw new Exception(String.format(
+						"%s has no field %d", desc.name, index));
+				BinarySerialize.decodeField(
+					bin, known, entry.fields[index], ctx);
+			}
+		} else if (desc.collection != null) {
+			Object[] contents = new Object[bin.readLength()];
+			BinarySerialize.decodeElements(bin, contents, 'L', ctx);
+			ctx.populateLater(desc.collection, known, contents);
+		} else {
+			if (bin.readLength() != Array.getLength(known))
+				throw new Exception("Array length changed: " + desc.name);
+			BinarySerialize.decodeElements(
+				bin, known, desc.componentCode, ctx);
+		}
+	}
+}
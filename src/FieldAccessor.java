@@ -0,0 +1,307 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FieldAccessor.java
+// ======================================================
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+import serial.FieldAccess;
+import serial.GeneratedSerializer;
+
+
+/**
+ * Typed reader and writer for a single instance field. Primitive fields are
+ * read and written through the typed methods so their values are never boxed.
+ * Fields of classes annotated {@code serial.Serializable} use the accessors
+ * generated for them at compile time; other accessors are built on
+ * {@code VarHandle}s where possible, with plain reflection as the fallback.
+ * Setting the {@code serialize.accessors} system property to
+ * {@code reflection} forces the fallback for every field, and setting it to
+ * {@code generated} generates the bytecode of an accessor per field (see
+ * {@code GeneratedAccessor}) wherever possible.
+ */
+abstract class FieldAccessor {
+	// The kind of accessors selected by the serialize.accessors property.
+	private static final String mode
+		= System.getProperty("serialize.accessors");
+	// Whether VarHandle accessors are disabled in favour of reflection.
+	private static final boolean reflectionOnly = "reflection".equals(mode);
+	// Whether accessors are generated where possible.
+	private static final boolean generated = "generated".equals(mode);
+
+
+	/**
+	 * Returns an accessor for the passed field: the one generated at compile
+	 * time if there is one, else one generated at run time if they are
+	 * enabled and one can be generated, else one using a {@code VarHandle} if
+	 * one can be obtained for it and reflection otherwise.
+	 *
+	 * @param f The (non-static) field to be accessed.
+	 * @return An accessor for the field.
+	 */
+	static FieldAccessor of(Field f) {
+		GeneratedSerializer serializer
+			= GeneratedSerializer.of(f.getDeclaringClass());
+		if (serializer != null && !reflectionOnly) {
+			FieldAccess access = serializer.field(f.getName());
+			if (access != null) return new CompiledAccessor(access);
+		}
+		if (generated) {
+			FieldAccessor accessor = GeneratedAccessor.create(f);
+			if (accessor != null) return accessor;
+		}
+		// VarHandles of final fields are read-only, so keep reflection there.
+		if (!reflectionOnly && !Modifier.isFinal(f.getModifiers())) {
+			try {
+				return new VarHandleAccessor(f);
+			} catch (IllegalAccessException | RuntimeException e) {
+				// The declaring module isn't open to us; use reflection.
+			}
+		}
+		return new ReflectiveAccessor(f);
+	}
+
+
+	abstract boolean getBoolean(Object o) throws Exception;
+	abstract byte getByte(Object o) throws Exception;
+	abstract char getChar(Object o) throws Exception;
+	abstract short getShort(Object o) throws Exception;
+	abstract int getInt(Object o) throws Exception;
+	abstract long getLong(Object o) throws Exception;
+	abstract float getFloat(Object o) throws Exception;
+	abstract double getDouble(Object o) throws Exception;
+	abstract Object getObject(Object o) throws Exception;
+
+	abstract void setBoolean(Object o, boolean v) throws Exception;
+	abstract void setByte(Object o, byte v) throws Exception;
+	abstract void setChar(Object o, char v) throws Exception;
+	abstract void setShort(Object o, short v) throws Exception;
+	abstract void setInt(Object o, int v) throws Exception;
+	abstract void setLong(Object o, long v) throws Exception;
+	abstract void setFloat(Object o, float v) throws Exception;
+	abstract void setDouble(Object o, double v) throws Exception;
+	abstract void setObject(Object o, Object v) throws Exception;
+
+
+	/**
+	 * Accessor backed by a {@code VarHandle} obtained through a private lookup
+	 * in the field's declaring class. The handle's get and set modes are
+	 * adapted to {@code (Object)T} and {@code (Object, T)void} method handles
+	 * so every typed call is an exact, non-boxing invocation.
+	 */
+	static final class VarHandleAccessor extends FieldAccessor {
+		private final MethodHandle getter; // Exact getter for the field.
+		private final MethodHandle setter; // Exact setter for the field.
+
+
+		/**
+		 * Creates a {@code VarHandle} accessor for the passed field.
+		 *
+		 * @param f The field to be accessed.
+		 * @throws IllegalAccessException If the declaring class cannot be
+		 * privately accessed.
+		 */
+		VarHandleAccessor(Field f) throws IllegalAccessException {
+			VarHandle handle = MethodHandles
+				.privateLookupIn(f.getDeclaringClass(), MethodHandles.lookup())
+				.unreflectVarHandle(f);
+			// Erase the receiver (and reference values) to Object.
+			Class<?> type = f.getType().isPrimitive()
+				? f.getType() : Object.class;
+			getter = handle.toMethodHandle(VarHandle.AccessMode.GET)
+				.asType(MethodType.methodType(type, Object.class));
+			setter = handle.toMethodHandle(VarHandle.AccessMode.SET)
+				.asType(MethodType.methodType(
+					void.class, Object.class, type));
+		}
+
+		boolean getBoolean(Object o) throws Exception {
+			try { return (boolean) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		byte getByte(Object o) throws Exception {
+			try { return (byte) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		char getChar(Object o) throws Exception {
+			try { return (char) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		short getShort(Object o) throws Exception {
+			try { return (short) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		int getInt(Object o) throws Exception {
+			try { return (int) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		long getLong(Object o) throws Exception {
+			try { return (long) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		float getFloat(Object o) throws Exception {
+			try { return (float) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		double getDouble(Object o) throws Exception {
+			try { return (double) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		Object getObject(Object o) throws Exception {
+			try { return (Object) getter.invokeExact(o); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+
+		void setBoolean(Object o, boolean v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setByte(Object o, byte v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setChar(Object o, char v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setShort(Object o, short v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setInt(Object o, int v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setLong(Object o, long v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setFloat(Object o, float v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setDouble(Object o, double v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+		void setObject(Object o, Object v) throws Exception {
+			try { setter.invokeExact(o, v); }
+			catch (Throwable e) { throw propagate(e); }
+		}
+
+
+		/**
+		 * Rethrows unchecked throwables raised by a handle and returns checked
+		 * exceptions so that they may be thrown by the caller.
+		 *
+		 * @param e The throwable raised by the handle.
+		 * @return The throwable as an {@code Exception}.
+		 */
+		private static Exception propagate(Throwable e) {
+			if (e instanceof Error) throw (Error) e;
+			return e instanceof Exception ? (Exception) e : new Exception(e);
+		}
+	}
+
+
+	/**
+	 * Accessor delegating to the accessor generated at compile time for a
+	 * field of a {@code serial.Serializable} class.
+	 */
+	static final class CompiledAccessor extends FieldAccessor {
+		private final FieldAccess access; // The generated accessor.
+
+
+		/**
+		 * Creates an accessor delegating to a generated one.
+		 *
+		 * @param access The accessor generated for the field.
+		 */
+		CompiledAccessor(FieldAccess access) {
+			this.access = access;
+		}
+
+		boolean getBoolean(Object o) { return access.getBoolean(o); }
+		byte getByte(Object o) { return access.getByte(o); }
+		char getChar(Object o) { return access.getChar(o); }
+		short getShort(Object o) { return access.getShort(o); }
+		int getInt(Object o) { return access.getInt(o); }
+		long getLong(Object o) { return access.getLong(o); }
+		float getFloat(Object o) { return access.getFloat(o); }
+		double getDouble(Object o) { return access.getDouble(o); }
+		Object getObject(Object o) { return access.getObject(o); }
+
+		void setBoolean(Object o, boolean v) { access.setBoolean(o, v); }
+		void setByte(Object o, byte v) { access.setByte(o, v); }
+		void setChar(Object o, char v) { access.setChar(o, v); }
+		void setShort(Object o, short v) { access.setShort(o, v); }
+		void setInt(Object o, int v) { access.setInt(o, v); }
+		void setLong(Object o, long v) { access.setLong(o, v); }
+		void setFloat(Object o, float v) { access.setFloat(o, v); }
+		void setDouble(Object o, double v) { access.setDouble(o, v); }
+		void setObject(Object o, Object v) { access.setObject(o, v); }
+	}
+
+
+	/**
+	 * Accessor backed by the typed methods of {@code java.lang.reflect.Field}.
+	 */
+	static final class ReflectiveAccessor extends FieldAccessor {
+		private final Field field; // The (accessible) field.
+
+
+		/**
+		 * Creates a reflective accessor for the passed field.
+		 *
+		 * @param f The field to be accessed.
+		 */
+		ReflectiveAccessor(Field f) {
+			field = f;
+		}
+
+		boolean getBoolean(Object o) throws Exception {
+			return field.getBoolean(o);
+		}
+		byte getByte(Object o) throws Exception { return field.getByte(o); }
+		char getChar(Object o) throws Exception { return field.getChar(o); }
+		short getShort(Object o) throws Exception { return field.getShort(o); }
+		int getInt(Object o) throws Exception { return field.getInt(o); }
+		long getLong(Object o) throws Exception { return field.getLong(o); }
+		float getFloat(Object o) throws Exception { return field.getFloat(o); }
+		double getDouble(Object o) throws Exception {
+			return field.getDouble(o);
+		}
+		Object getObject(Object o) throws Exception { return field.get(o); }
+
+		void setBoolean(Object o, boolean v) throws Exception {
+			field.setBoolean(o, v);
+		}
+		void setByte(Object o, byte v) throws Exception {
+			field.setByte(o, v);
+		}
+		void setChar(Object o, char v) throws Exception {
+			field.setChar(o, v);
+		}
+		void setShort(Object o, short v) throws Exception {
+			field.setShort(o, v);
+		}
+		void setInt(Object o, int v) throws Exception { field.setInt(o, v); }
+		void setLong(Object o, long v) throws Exception {
+			field.setLong(o, v);
+		}
+		void setFloat(Object o, float v) throws Exception {
+			field.setFloat(o, v);
+		}
+		void setDouble(Object o, double v) throws Exception {
+			field.setDouble(o, v);
+		}
+		void setObject(Object o, Object v) throws Exception {
+			field.set(o, v);
+		}
+	}
+}
@@ -0,0 +1,54 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FieldDescriptor.java
+// ======================================================
+
+import java.lang.reflect.Field;
+
+
+/**
+ * Cached metadata for a single field of a class described by a
+ * {@code ClassDescriptor}. Instances are immutable and shared between threads.
+ */
+class FieldDescriptor {
+	final Field field;				// The reflected field.
+	final String name;				// The field's simple name.
+	final String declaringClass;	// Name of the class declaring the field.
+	final Class<?> type;			// The declared type of the field.
+	final boolean isPrimitive;		// Whether the field is of primitive type.
+	final char typeCode;			// The type code of the field's type.
+	final int index;				// Position of the field in its descriptor.
+	final FieldAccessor accessor;	// Typed reader/writer for the field.
+
+
+	/**
+	 * Captures the metadata of the passed field and makes it accessible.
+	 *
+	 * @param field The field to be described.
+	 * @param index The position of the field within its class descriptor.
+	 */
+	FieldDescriptor(Field field, int index) {
+		this.field = field;
+		this.name = field.getName();
+		this.declaringClass = field.getDeclaringClass().getName();
+		this.type = field.getType();
+		this.isPrimitive = type.isPrimitive();
+		this.typeCode = ClassDescriptor.typeCode(type);
+		this.index = index;
+		// Classes in closed modules are left inaccessible; reading them fails
+		// with the usual IllegalAccessException when the field is used.
+		field.trySetAccessible();
+		this.accessor = FieldAccessor.of(field);
+	}
+
+
+	/**
+	 * Returns the key used to identify the field within its class: the field's
+	 * name followed by the name of its declaring class.
+	 *
+	 * @return The lookup key of the field.
+	 */
+	String key() {
+		return name + declaringClass;
+	}
+}
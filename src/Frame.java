@@ -0,0 +1,177 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// Frame.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+
+/**
+ * A message exchanged by Sender and Receiver, as read from a connection.
+ * Every frame starts with a header (in network byte order):
+ * <pre>
+ * frame  := codec flags length [checksum] payload
+ * codec  := byte	(END, JSON, XML or BINARY)
+ * flags  := byte	(COMPRESSED and CHECKSUM bits)
+ * length := int	(the number of bytes of the payload)
+ * </pre>
+ * where the checksum is the CRC-32 (as an int) of the payload as sent, and
+ * the payload is the serialized object, compressed with {@code Deflater} if
+ * flagged so. The Sender ends its messages with an END frame of length 0.
+ * Payloads are at most {@code MAX_LENGTH} bytes, so that a corrupt header
+ * cannot make the Receiver allocate gigabytes for a single frame.
+ */
+final class Frame {
+	// Size of the header, without its checksum.
+	static final int HEADER = 6;
+	// Size of the checksum following the header if flagged.
+	static final int CHECKSUM_SIZE = 4;
+	// The largest payload (once compressed) a frame may hold.
+	static final int MAX_LENGTH = 64 << 20;
+
+	// Codecs: the end of the messages, and the encodings of the objects.
+	static final int END = 0;
+	static final int JSON = 1;
+	static final int XML = 2;
+	static final int BINARY = 3;
+	// The names of the encodings of the codecs, as in the command line.
+	private static final String[] MODES = { null, "json", "xml", "binary" };
+
+	// Flags: the payload is compressed, or followed by its checksum.
+	static final int COMPRESSED = 1;
+	static final int CHECKSUM = 2;
+
+	final int codec;	// The encoding of the object.
+	final int flags;	// The flags of the frame.
+	final int checksum;	// The checksum sent (if flagged).
+	final ByteBuffer buffer;	// The payload, from 0 to its limit.
+
+
+	/**
+	 * Creates a frame as read.
+	 *
+	 * @param codec The encoding of the object.
+	 * @param flags The flags of the frame.
+	 * @param checksum The checksum sent, or 0 if there is none.
+	 * @param buffer The payload, from 0 to the buffer's limit.
+	 */
+	Frame(int codec, int flags, int checksum, ByteBuffer buffer) {
+		this.codec = codec;
+		this.flags = flags;
+		this.checksum = checksum;
+		this.buffer = buffer;
+	}
+
+
+	/**
+	 * Returns the codec of an encoding.
+	 *
+	 * @param mode One of "json", "xml" or "binary".
+	 * @return The codec of the encoding.
+	 * @throws IllegalArgumentException If the encoding is unknown.
+	 */
+	static int codec(String mode) {
+		for (int codec = JSON; codec < MODES.length; codec ++)
+			if (MODES[codec].equals(mode)) return codec;
+		throw new IllegalArgumentException("Unknown encoding: " + mode);
+	}
+
+
+	/**
+	 * Returns the encoding of a codec.
+	 *
+	 * @param codec A codec other than END.
+	 * @return One of "json", "xml" or "binary", or null if the codec is
+	 * unknown.
+	 */
+	static String mode(int codec) {
+		return codec > END && codec < MODES.length ? MODES[codec] : null;
+	}
+
+
+	/**
+	 * Returns the size of the header of a frame.
+	 *
+	 * @param flags The flags of the frame.
+	 * @return The number of bytes preceding the payload.
+	 */
+	static int headerSize(int flags) {
+		return (flags & CHECKSUM) != 0 ? HEADER + CHECKSUM_SIZE : HEADER;
+	}
+
+
+	/**
+	 * Returns the number of bytes the frame took on the connection.
+	 *
+	 * @return The size of the header and payload.
+	 */
+	int size() {
+		return headerSize(flags) + buffer.limit();
+	}
+
+
+	/**
+	 * Checks the payload against the checksum sent, if any.
+	 *
+	 * @throws IOException If the payload does not match the checksum.
+	 */
+	void verify() throws IOException {
+		if ((flags & CHECKSUM) == 0) return;
+		CRC32 crc = new CRC32();
+		crc.update(buffer.duplicate().position(0));
+		if ((int) crc.getValue() != checksum)
+			throw new IOException("Frame does not match its checksum");
+	}
+
+
+	/**
+	 * Returns a stream over the payload of the frame, as sent (so still
+	 * compressed if flagged so).
+	 *
+	 * @return A new stream, reading the buffer of the frame.
+	 */
+	InputStream open() {
+		return new BufferInputStream(buffer.duplicate().position(0));
+	}
+
+
+	/**
+	 * Stream reading the remaining bytes of a buffer (which may be direct).
+	 */
+	private static final class BufferInputStream extends InputStream {
+		private final ByteBuffer buffer;
+
+		BufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) return 0;
+			if (!buffer.hasRemaining()) return -1;
+			len = Math.min(len, buffer.remaining());
+			buffer.get(b, off, len);
+			return len;
+		}
+
+		@Override
+		public long skip(long n) {
+			int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+			buffer.position(buffer.position() + skipped);
+			return skipped;
+		}
+
+		@Override
+		public int available() {
+			return buffer.remaining();
+		}
+	}
+}
@@ -0,0 +1,141 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FrameCompressor.java
+// ======================================================
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Compression stage of the frames exchanged by Sender and Receiver, using
+ * {@code Deflater}. Messages smaller than the threshold, or that do not get
+ * any smaller, are sent as they are; the frame's COMPRESSED flag tells the
+ * Receiver which is which, whatever its own threshold. The {@code Deflater},
+ * {@code Inflater} and the (direct) buffer of the compressed message are
+ * reused from one frame to the next and only released by {@code close}.
+ * Decompressed messages are no larger than the payload of a frame, so that a
+ * small frame cannot inflate to gigabytes.
+ */
+class FrameCompressor implements AutoCloseable {
+	// Messages smaller than this are not compressed unless told otherwise.
+	static final int DEFAULT_THRESHOLD = 1024;
+
+	private final int threshold;	// The size from which to compress.
+	private final int maxInflated;	// The largest message decompressed.
+	private final Deflater deflater = new Deflater();
+	private final Inflater inflater = new Inflater();
+	// Reusable buffer holding the last compressed message.
+	private ByteBuffer compressed = ByteBuffer.allocateDirect(8192);
+
+
+	/**
+	 * Creates a compression stage for the frames of one connection.
+	 *
+	 * @param threshold The size (in bytes) from which messages are compressed,
+	 * or {@code Integer.MAX_VALUE} to never compress them.
+	 */
+	FrameCompressor(int threshold) {
+		this(threshold, Frame.MAX_LENGTH);
+	}
+
+
+	/**
+	 * Creates a compression stage for the frames of one connection, which
+	 * decompresses messages of at most the passed size.
+	 *
+	 * @param threshold The size (in bytes) from which messages are compressed,
+	 * or {@code Integer.MAX_VALUE} to never compress them.
+	 * @param maxInflated The largest size (in bytes) of a decompressed
+	 * message.
+	 */
+	FrameCompressor(int threshold, int maxInflated) {
+		this.threshold = threshold;
+		this.maxInflated = maxInflated;
+	}
+
+
+	/**
+	 * Compresses a message if it is at least as large as the threshold and
+	 * compressing it saves space.
+	 *
+	 * @param message The message, from its position to its limit (which are
+	 * left unchanged).
+	 * @return A buffer holding the compressed message from 0 to its limit,
+	 * valid until the next call, or null if the message is to be sent as is.
+	 */
+	ByteBuffer deflate(ByteBuffer message) {
+		int size = message.remaining();
+		if (size < threshold) return null;
+		deflater.reset();
+		deflater.setInput(message.duplicate());
+		deflater.finish();
+		compressed.clear();
+		while (!deflater.finished()) {
+			// Give up as soon as the result is no smaller.
+			if (compressed.position() >= size) return null;
+			if (!compressed.hasRemaining()) {
+				ByteBuffer larger = ByteBuffer.allocateDirect(
+					2 * compressed.capacity());
+				larger.put(compressed.flip());
+				compressed = larger;
+			}
+			deflater.deflate(compressed);
+		}
+		if (compressed.position() >= size) return null;
+		return compressed.flip();
+	}
+
+
+	/**
+	 * Returns a stream decompressing a message as it is read.
+	 *
+	 * @param in The compressed message.
+	 * @return A stream of the original message, which fails with an
+	 * {@code IOException} once it has produced more than the largest size
+	 * allowed.
+	 */
+	InputStream inflate(InputStream in) {
+		inflater.reset();
+		InputStream inflated = new InflaterInputStream(in, inflater, 8192);
+		return new FilterInputStream(inflated) {
+			private long produced = 0;	// The number of bytes inflated.
+
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) count(1);
+				return b;
+			}
+
+			@Override
+			public int read(byte[] b, int off, int len) throws IOException {
+				int n = super.read(b, off, len);
+				if (n > 0) count(n);
+				return n;
+			}
+
+			private void count(int n) throws IOException {
+				produced += n;
+				if (produced > maxInflated)
+					throw new IOException("Message inflates to more than "
+						+ maxInflated + " bytes");
+			}
+		};
+	}
+
+
+	/**
+	 * Releases the native resources of the compressor and decompressor.
+	 */
+	@Override
+	public void close() {
+		deflater.end();
+		inflater.end();
+	}
+}
@@ -0,0 +1,139 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FrameReader.java
+// ======================================================
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayDeque;
+
+
+/**
+ * Reader of the frames (see {@code Frame}) of a connection, straight from its
+ * (blocking) channel. Each frame is read whole into a direct buffer taken from
+ * a pool, so waiting for a frame parks the thread in the channel's read rather
+ * than polling the socket, and reading one neither allocates (once the pool
+ * holds buffers large enough) nor copies the payload on its way in. Buffers go
+ * back to the pool when the frames using them are released.
+ */
+class FrameReader {
+	// Size of the buffers first allocated.
+	private static final int MIN_CAPACITY = 8192;
+	// The number of released buffers kept for the next frames by default.
+	static final int POOL_SIZE = 4;
+
+	private final ReadableByteChannel channel;	// The connection.
+	private final int poolSize;	// The number of buffers kept.
+	private final ByteBuffer header = ByteBuffer.allocateDirect(
+		Frame.HEADER + Frame.CHECKSUM_SIZE);
+	// The buffers available for the next frames.
+	private final ArrayDeque<ByteBuffer> pool = new ArrayDeque<ByteBuffer>();
+
+
+	/**
+	 * Creates a reader of the frames of the passed channel.
+	 *
+	 * @param channel A channel in blocking mode.
+	 */
+	FrameReader(ReadableByteChannel channel) {
+		this(channel, POOL_SIZE);
+	}
+
+
+	/**
+	 * Creates a reader of the frames of the passed channel, whose pool keeps
+	 * enough buffers for the frames that may be in use at once.
+	 *
+	 * @param channel A channel in blocking mode.
+	 * @param poolSize The number of released buffers to keep.
+	 */
+	FrameReader(ReadableByteChannel channel, int poolSize) {
+		this.channel = channel;
+		this.poolSize = poolSize;
+	}
+
+
+	/**
+	 * Waits for the next frame and reads it.
+	 *
+	 * @return The frame, or null if the sender signalled the end of its
+	 * messages (with an END frame) or closed the connection between two
+	 * frames.
+	 * @throws EOFException If the connection is closed before a whole frame
+	 * is read.
+	 * @throws IOException If the channel cannot be read, or the header is not
+	 * that of a frame (or announces more than {@code Frame.MAX_LENGTH}
+	 * bytes).
+	 */
+	Frame next() throws IOException {
+		header.clear().limit(Frame.HEADER);
+		if (channel.read(header) < 0) return null;
+		fill(header);
+		int codec = header.get(0) & 0xff;
+		int flags = header.get(1) & 0xff;
+		int length = header.getInt(2);
+		if (codec == Frame.END) return null;
+		if (Frame.mode(codec) == null || length < 0
+		|| length > Frame.MAX_LENGTH)
+			throw new IOException("Not a frame (codec " + codec
+				+ ", length " + length + ")");
+		int checksum = 0;
+		if ((flags & Frame.CHECKSUM) != 0) {
+			header.limit(Frame.HEADER + Frame.CHECKSUM_SIZE);
+			fill(header);
+			checksum = header.getInt(Frame.HEADER);
+		}
+
+		ByteBuffer buffer = acquire(length);
+		fill(buffer);
+		buffer.flip();
+		return new Frame(codec, flags, checksum, buffer);
+	}
+
+
+	/**
+	 * Returns the buffer of a frame that is no longer used to the pool.
+	 *
+	 * @param frame A frame returned by {@code next}.
+	 */
+	void release(Frame frame) {
+		synchronized (pool) {
+			if (pool.size() < poolSize) pool.push(frame.buffer);
+		}
+	}
+
+
+	/**
+	 * Takes a buffer of the pool (or allocates one) to hold a payload.
+	 *
+	 * @param size The size of the payload.
+	 * @return A buffer whose limit is the size of the payload.
+	 */
+	private ByteBuffer acquire(int size) {
+		ByteBuffer buffer;
+		synchronized (pool) {
+			buffer = pool.poll();
+		}
+		if (buffer == null || buffer.capacity() < size)
+			buffer = ByteBuffer.allocateDirect(Math.max(size, Math.max(
+				MIN_CAPACITY, buffer == null ? 0 : buffer.capacity() * 2)));
+		buffer.clear().limit(size);
+		return buffer;
+	}
+
+
+	/**
+	 * Reads from the channel until the passed buffer is full.
+	 *
+	 * @param buffer The buffer to fill up to its limit.
+	 * @throws EOFException If the connection is closed first.
+	 * @throws IOException If the channel cannot be read.
+	 */
+	private void fill(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining())
+			if (channel.read(buffer) < 0)
+				throw new EOFException("Connection closed within a frame");
+	}
+}
@@ -0,0 +1,195 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FrameWriter.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.zip.CRC32;
+
+
+/**
+ * Writer of the frames (see {@code Frame}) of a connection, straight to its
+ * channel. Objects are serialized into a direct buffer, reused (and grown as
+ * needed) from one message to the next, which is written to the channel as
+ * is or after being compressed into another: the bytes of a message are not
+ * copied on their way out.
+ */
+class FrameWriter implements AutoCloseable {
+	private final WritableByteChannel channel;	// The connection.
+	private final int codec;	// The encoding of the messages.
+	private final FrameCompressor compressor;	// Compresses large messages.
+	private final CRC32 crc;	// Computes checksums, or null for none.
+	private final ByteBuffer header = ByteBuffer.allocateDirect(
+		Frame.HEADER + Frame.CHECKSUM_SIZE);
+	private final MessageStream message = new MessageStream();
+	private int sent = 0;	// The size of the last payload sent.
+
+
+	/**
+	 * Stream writing a message into a direct buffer, which it grows as needed.
+	 */
+	private static final class MessageStream extends OutputStream {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(8192);
+
+		/**
+		 * Makes room for the passed number of bytes.
+		 */
+		private void reserve(int n) {
+			if (buffer.remaining() >= n) return;
+			ByteBuffer larger = ByteBuffer.allocateDirect(Math.max(
+				2 * buffer.capacity(), buffer.position() + n));
+			larger.put(buffer.flip());
+			buffer = larger;
+		}
+
+		@Override
+		public void write(int b) {
+			reserve(1);
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			reserve(len);
+			buffer.put(b, off, len);
+		}
+	}
+
+
+	/**
+	 * Creates a writer of frames.
+	 *
+	 * @param channel The channel to write to (in blocking mode).
+	 * @param codec The encoding of the messages, as in {@code Frame}.
+	 * @param compressor The compression stage of the messages.
+	 * @param checksum Whether to send the checksum of each payload.
+	 */
+	FrameWriter(WritableByteChannel channel, int codec,
+	FrameCompressor compressor, boolean checksum) {
+		this.channel = channel;
+		this.codec = codec;
+		this.compressor = compressor;
+		this.crc = checksum ? new CRC32() : null;
+	}
+
+
+	/**
+	 * Starts a new message, discarding whatever was written but not sent.
+	 *
+	 * @return The stream to serialize the message to.
+	 */
+	OutputStream message() {
+		message.buffer.clear();
+		return message;
+	}
+
+
+	/**
+	 * Returns the message written so far.
+	 *
+	 * @return A read-only view of the message, valid until the next one is
+	 * started.
+	 */
+	ByteBuffer written() {
+		return message.buffer.duplicate().flip().asReadOnlyBuffer();
+	}
+
+
+	/**
+	 * Sends the message written as a frame, compressed if the compression
+	 * stage finds it worthwhile.
+	 *
+	 * @return The number of bytes of the frame (header included).
+	 * @throws IOException If the frame cannot be written, or its payload is
+	 * larger than {@code Frame.MAX_LENGTH} bytes.
+	 */
+	int send() throws IOException {
+		ByteBuffer payload = message.buffer.flip();
+		int flags = 0;
+		ByteBuffer deflated = compressor.deflate(payload);
+		if (deflated != null) {
+			payload = deflated;
+			flags |= Frame.COMPRESSED;
+		}
+		if (payload.remaining() > Frame.MAX_LENGTH) {
+			message.buffer.position(message.buffer.limit())
+				.limit(message.buffer.capacity());
+			throw new IOException("Message too large for a frame ("
+				+ payload.remaining() + " bytes)");
+		}
+		header.clear();
+		header.put((byte) codec);
+		if (crc != null) flags |= Frame.CHECKSUM;
+		header.put((byte) flags);
+		header.putInt(payload.remaining());
+		if (crc != null) {
+			crc.reset();
+			crc.update(payload.duplicate());
+			header.putInt((int) crc.getValue());
+		}
+		header.flip();
+		sent = payload.remaining();
+		int size = header.remaining() + sent;
+		write(header, payload);
+		// Back to writing, so that written() still returns the message.
+		message.buffer.position(message.buffer.limit())
+			.limit(message.buffer.capacity());
+		return size;
+	}
+
+
+	/**
+	 * Returns the size of the last payload sent.
+	 *
+	 * @return The number of bytes of the payload, once compressed.
+	 */
+	int sentPayload() {
+		return sent;
+	}
+
+
+	/**
+	 * Sends the END frame, telling the Receiver no more messages follow.
+	 *
+	 * @throws IOException If the frame cannot be written.
+	 */
+	void end() throws IOException {
+		header.clear();
+		header.put((byte) Frame.END).put((byte) 0).putInt(0).flip();
+		write(header, ByteBuffer.allocate(0));
+	}
+
+
+	/**
+	 * Writes the header and payload of a frame, gathering them into a single
+	 * write if the channel allows it.
+	 *
+	 * @param header The header.
+	 * @param payload The payload.
+	 * @throws IOException If the channel cannot be written.
+	 */
+	private void write(ByteBuffer header, ByteBuffer payload)
+	throws IOException {
+		if (channel instanceof GatheringByteChannel) {
+			ByteBuffer[] both = { header, payload };
+			while (payload.hasRemaining() || header.hasRemaining())
+				((GatheringByteChannel) channel).write(both);
+			return;
+		}
+		while (header.hasRemaining()) channel.write(header);
+		while (payload.hasRemaining()) channel.write(payload);
+	}
+
+
+	/**
+	 * Releases the compression stage (but not the channel).
+	 */
+	@Override
+	public void close() {
+		compressor.close();
+	}
+}
@@ -0,0 +1,418 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// GeneratedAccessor.java
+// ======================================================
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
+
+
+/**
+ * Base of the field accessors generated at run time. The accessor of a field
+ * is a hidden class defined as a nestmate of the field's declaring class, so
+ * its getter and setter are a plain {@code getfield} and {@code putfield} of
+ * the field (even a private one) that the JIT compiles like hand-written
+ * code. The class is public (and its methods are) as the generated
+ * subclasses live in the package of the field's declaring class.
+ * <p>
+ * A generated accessor only implements the getter and setter of its field's
+ * type; the others throw an {@code IllegalArgumentException}, as a
+ * {@code Field} does.
+ */
+public abstract class GeneratedAccessor extends FieldAccessor {
+	// Suffix of the name of the generated classes.
+	private static final String SUFFIX = "$$Accessor";
+
+	Field field;	// The accessed field (for error messages).
+
+
+	protected GeneratedAccessor() {}
+
+
+	/**
+	 * Generates and instantiates an accessor for the passed field.
+	 *
+	 * @param f The (non-static) field to be accessed.
+	 * @return The new accessor, or null if none can be generated: if the
+	 * field is final (it can then only be set by a constructor), or if its
+	 * declaring class is not open to us or cannot see this class.
+	 */
+	static FieldAccessor create(Field f) {
+		Class<?> owner = f.getDeclaringClass();
+		if (Modifier.isFinal(f.getModifiers()) || owner.isHidden()
+		|| !isVisible(f.getType(), owner))
+			return null;
+		try {
+			MethodHandles.Lookup lookup = MethodHandles
+				.privateLookupIn(owner, MethodHandles.lookup())
+				.defineHiddenClass(generate(f), true,
+					MethodHandles.Lookup.ClassOption.NESTMATE);
+			GeneratedAccessor accessor = (GeneratedAccessor) lookup
+				.findConstructor(lookup.lookupClass(),
+					MethodType.methodType(void.class))
+				.invoke();
+			accessor.field = f;
+			return accessor;
+		} catch (Throwable e) {
+			// Lookups fail with IllegalAccessExceptions, and definitions with
+			// LinkageErrors (as when the owner's loader cannot see this class).
+			if (e instanceof Error && !(e instanceof LinkageError))
+				throw (Error) e;
+			return null;
+		}
+	}
+
+
+	/**
+	 * Returns whether the passed type may be named by code in the package of
+	 * the passed class (so a generated setter may cast values to it).
+	 *
+	 * @param type The type of a field.
+	 * @param owner The class declaring the field.
+	 * @return Whether the type is visible from the class's package.
+	 */
+	private static boolean isVisible(Class<?> type, Class<?> owner) {
+		while (type.isArray())
+			type = type.getComponentType();
+		return type.isPrimitive() || Modifier.isPublic(type.getModifiers())
+			|| type.getClassLoader() == owner.getClassLoader()
+			&& type.getPackageName().equals(owner.getPackageName());
+	}
+
+
+	/**
+	 * Generates the class file of the accessor of the passed field: a final
+	 * subclass of this class with a no-argument constructor and the getter
+	 * and setter of the field's type.
+	 *
+	 * @param f The field to be accessed.
+	 * @return The bytes of the class file.
+	 * @throws IOException Never (the class is written to memory).
+	 */
+	static byte[] generate(Field f) throws IOException {
+		String owner = internalName(f.getDeclaringClass());
+		Class<?> type = f.getType();
+		char code = ClassDescriptor.typeCode(type);
+		String kind = typeName(code);
+		String descriptor = code == 'L' ? descriptor(type) : "" + code;
+		// The values of longs and doubles take two stack slots.
+		int size = code == 'J' || code == 'D' ? 2 : 1;
+
+		ClassFile cf = new ClassFile(owner + SUFFIX, "GeneratedAccessor");
+		int fieldRef = cf.fieldRef(owner, f.getName(), descriptor);
+		int ownerClass = cf.classRef(owner);
+
+		// this.super();
+		ByteArrayOutputStream init = new ByteArrayOutputStream();
+		init.write(ALOAD_0);
+		init.write(INVOKESPECIAL);
+		writeShort(init, cf.methodRef("GeneratedAccessor", "<init>", "()V"));
+		init.write(RETURN);
+		cf.addMethod("<init>", "()V", 1, 1, init.toByteArray());
+
+		// return ((Owner) o).field;
+		ByteArrayOutputStream get = new ByteArrayOutputStream();
+		get.write(ALOAD_1);
+		get.write(CHECKCAST);
+		writeShort(get, ownerClass);
+		get.write(GETFIELD);
+		writeShort(get, fieldRef);
+		get.write(returnOpcode(code));
+		cf.addMethod("get" + kind, "(Ljava/lang/Object;)" + erased(code),
+			size, 2, get.toByteArray());
+
+		// ((Owner) o).field = (Type) v;
+		ByteArrayOutputStream set = new ByteArrayOutputStream();
+		set.write(ALOAD_1);
+		set.write(CHECKCAST);
+		writeShort(set, ownerClass);
+		set.write(loadOpcode(code));
+		if (code == 'L') {
+			set.write(CHECKCAST);
+			writeShort(set, cf.classRef(internalName(type)));
+		}
+		set.write(PUTFIELD);
+		writeShort(set, fieldRef);
+		set.write(RETURN);
+		cf.addMethod("set" + kind, "(Ljava/lang/Object;" + erased(code) + ")V",
+			1 + size, 2 + size, set.toByteArray());
+
+		return cf.toByteArray();
+	}
+
+
+	// Opcodes of the generated methods.
+	private static final int ALOAD_0 = 0x2a, ALOAD_1 = 0x2b;
+	private static final int ILOAD_2 = 0x1c, LLOAD_2 = 0x20, FLOAD_2 = 0x24,
+		DLOAD_2 = 0x28, ALOAD_2 = 0x2c;
+	private static final int IRETURN = 0xac, LRETURN = 0xad, FRETURN = 0xae,
+		DRETURN = 0xaf, ARETURN = 0xb0, RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4, PUTFIELD = 0xb5,
+		INVOKESPECIAL = 0xb7, CHECKCAST = 0xc0;
+
+
+	private static int loadOpcode(char code) {
+		switch (code) {
+			case 'J': return LLOAD_2;
+			case 'F': return FLOAD_2;
+			case 'D': return DLOAD_2;
+			case 'L': return ALOAD_2;
+			default: return ILOAD_2;
+		}
+	}
+
+	private static int returnOpcode(char code) {
+		switch (code) {
+			case 'J': return LRETURN;
+			case 'F': return FRETURN;
+			case 'D': return DRETURN;
+			case 'L': return ARETURN;
+			default: return IRETURN;
+		}
+	}
+
+
+	/**
+	 * Returns the name of the typed getter and setter (after "get" or "set")
+	 * of a type code.
+	 *
+	 * @param code The type code of a field.
+	 * @return The name of the field's type, as in {@code getInt}.
+	 */
+	private static String typeName(char code) {
+		switch (code) {
+			case 'Z': return "Boolean";
+			case 'B': return "Byte";
+			case 'C': return "Char";
+			case 'S': return "Short";
+			case 'I': return "Int";
+			case 'J': return "Long";
+			case 'F': return "Float";
+			case 'D': return "Double";
+			default: return "Object";
+		}
+	}
+
+
+	/**
+	 * Returns the descriptor of the values of a type code in the typed
+	 * getters and setters, where references are erased to {@code Object}.
+	 *
+	 * @param code The type code of a field.
+	 * @return The descriptor of the field's values.
+	 */
+	private static String erased(char code) {
+		return code == 'L' ? "Ljava/lang/Object;" : "" + code;
+	}
+
+
+	/**
+	 * Returns the name of a class (or array class) in class file constants.
+	 *
+	 * @param c A class.
+	 * @return The class's name with slashes separating its packages.
+	 */
+	private static String internalName(Class<?> c) {
+		return c.getName().replace('.', '/');
+	}
+
+	private static String descriptor(Class<?> c) {
+		return c.isArray() ? internalName(c) : "L" + internalName(c) + ";";
+	}
+
+	private static void writeShort(ByteArrayOutputStream out, int v) {
+		out.write(v >>> 8);
+		out.write(v);
+	}
+
+
+	/**
+	 * Writer of a minimal class file: a final class of methods with no
+	 * branches (so without stack maps), fields or attributes.
+	 */
+	private static final class ClassFile {
+		// The constant pool, and the index of each constant in it.
+		private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+		private final HashMap<String, Integer> constants
+			= new HashMap<String, Integer>();
+		private int poolSize = 1;	// Constants are numbered from 1.
+		// The methods written so far.
+		private final ByteArrayOutputStream methods
+			= new ByteArrayOutputStream();
+		private int methodCount = 0;
+		private final int thisClass, superClass, code;
+
+
+		/**
+		 * Starts the class file of a class.
+		 *
+		 * @param name The internal name of the class.
+		 * @param superName The internal name of its superclass.
+		 */
+		ClassFile(String name, String superName) {
+			thisClass = classRef(name);
+			superClass = classRef(superName);
+			code = utf8("Code");
+		}
+
+
+		/**
+		 * Adds a public method to the class.
+		 *
+		 * @param name The name of the method.
+		 * @param descriptor The descriptor of the method.
+		 * @param maxStack The largest size of the operand stack.
+		 * @param maxLocals The number of local variable slots.
+		 * @param bytecode The instructions of the method.
+		 */
+		void addMethod(String name, String descriptor, int maxStack,
+		int maxLocals, byte[] bytecode) {
+			int nameIndex = utf8(name), descriptorIndex = utf8(descriptor);
+			DataOutputStream out = new DataOutputStream(methods);
+			try {
+				out.writeShort(Modifier.PUBLIC);
+				out.writeShort(nameIndex);
+				out.writeShort(descriptorIndex);
+				out.writeShort(1);		// The Code attribute:
+				out.writeShort(code);
+				out.writeInt(12 + bytecode.length);
+				out.writeShort(maxStack);
+				out.writeShort(maxLocals);
+				out.writeInt(bytecode.length);
+				out.write(bytecode);
+				out.writeShort(0);		// No exception handlers.
+				out.writeShort(0);		// No attributes.
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			methodCount ++;
+		}
+
+
+		/**
+		 * Returns the bytes of the completed class file.
+		 *
+		 * @return The class file.
+		 * @throws IOException Never (the class is written to memory).
+		 */
+		byte[] toByteArray() throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xcafebabe);
+			out.writeShort(0);		// Version 61.0 (Java 17). Methods
+			out.writeShort(61);		// without branches need no stack maps.
+			out.writeShort(poolSize);
+			pool.writeTo(out);
+			out.writeShort(Modifier.FINAL | 0x20);	// ACC_SUPER
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0);		// No interfaces.
+			out.writeShort(0);		// No fields.
+			out.writeShort(methodCount);
+			methods.writeTo(out);
+			out.writeShort(0);		// No attributes.
+			return bytes.toByteArray();
+		}
+
+
+		int classRef(String name) {
+			return constant("C" + name, 7, utf8(name), -1);
+		}
+
+		int fieldRef(String owner, String name, String descriptor) {
+			return constant("F" + owner + "." + name + ":" + descriptor, 9,
+				classRef(owner), nameAndType(name, descriptor));
+		}
+
+		int methodRef(String owner, String name, String descriptor) {
+			return constant("M" + owner + "." + name + ":" + descriptor, 10,
+				classRef(owner), nameAndType(name, descriptor));
+		}
+
+		private int nameAndType(String name, String descriptor) {
+			return constant("N" + name + ":" + descriptor, 12,
+				utf8(name), utf8(descriptor));
+		}
+
+
+		/**
+		 * Returns the index of a text constant, adding it if missing.
+		 *
+		 * @param text The text.
+		 * @return The index of the constant.
+		 */
+		private int utf8(String text) {
+			Integer index = constants.get("U" + text);
+			if (index != null) return index;
+			try {
+				pool.write(1);
+				new DataOutputStream(pool).writeUTF(text);
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+			constants.put("U" + text, poolSize);
+			return poolSize ++;
+		}
+
+
+		/**
+		 * Returns the index of a constant made of one or two references to
+		 * other constants, adding it if missing.
+		 *
+		 * @param key The key identifying the constant.
+		 * @param tag The tag of the constant's kind.
+		 * @param first The first constant referred to.
+		 * @param second The second constant referred to (-1 if none).
+		 * @return The index of the constant.
+		 */
+		private int constant(String key, int tag, int first, int second) {
+			Integer index = constants.get(key);
+			if (index != null) return index;
+			pool.write(tag);
+			writeShort(pool, first);
+			if (second >= 0) writeShort(pool, second);
+			constants.put(key, poolSize);
+			return poolSize ++;
+		}
+	}
+
+
+	/**
+	 * Returns the exception thrown when a field is accessed as another type.
+	 *
+	 * @param kind The type the field was accessed as.
+	 * @return An exception to be thrown.
+	 */
+	private IllegalArgumentException mismatch(String kind) {
+		return new IllegalArgumentException(String.format(
+			"Cannot access %s field %s.%s as %s", field.getType().getName(),
+			field.getDeclaringClass().getName(), field.getName(), kind));
+	}
+
+
+	public boolean getBoolean(Object o) { throw mismatch("boolean"); }
+	public byte getByte(Object o) { throw mismatch("byte"); }
+	public char getChar(Object o) { throw mismatch("char"); }
+	public short getShort(Object o) { throw mismatch("short"); }
+	public int getInt(Object o) { throw mismatch("int"); }
+	public long getLong(Object o) { throw mismatch("long"); }
+	public float getFloat(Object o) { throw mismatch("float"); }
+	public double getDouble(Object o) { throw mismatch("double"); }
+	public Object getObject(Object o) { throw mismatch("Object"); }
+
+	public void setBoolean(Object o, boolean v) { throw mismatch("boolean"); }
+	public void setByte(Object o, byte v) { throw mismatch("byte"); }
+	public void setChar(Object o, char v) { throw mismatch("char"); }
+	public void setShort(Object o, short v) { throw mismatch("short"); }
+	public void setInt(Object o, int v) { throw mismatch("int"); }
+	public void setLong(Object o, long v) { throw mismatch("long"); }
+	public void setFloat(Object o, float v) { throw mismatch("float"); }
+	public void setDouble(Object o, double v) { throw mismatch("double"); }
+	public void setObject(Object o, Object v) { throw mismatch("Object"); }
+}
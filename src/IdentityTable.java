@@ -0,0 +1,123 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// IdentityTable.java
+// ======================================================
+
+import java.util.Arrays;
+
+
+/**
+ * Open-addressing hash table keyed by object identity that hands out dense,
+ * sequential integer IDs (0, 1, 2, ...) in the order objects are added. Unlike
+ * {@code hashCode()}, identity hashing never walks an object's contents and two
+ * distinct objects are never merged.
+ */
+class IdentityTable {
+	// Initial number of slots (must be a power of two).
+	private static final int INITIAL_CAPACITY = 64;
+
+	private Object[] keys;	// The objects in each slot (null if empty).
+	private int[] ids;		// The ID of the object in each slot.
+	private int size;		// The number of objects in the table.
+
+
+	/**
+	 * Creates an empty table.
+	 */
+	IdentityTable() {
+		keys = new Object[INITIAL_CAPACITY];
+		ids = new int[INITIAL_CAPACITY];
+	}
+
+
+	/**
+	 * Returns the ID of the passed object.
+	 *
+	 * @param o The object to look up.
+	 * @return The object's ID or -1 if it is not in the table.
+	 */
+	int get(Object o) {
+		int mask = keys.length - 1;
+		for (int i = slot(o, mask); ; i = (i + 1) & mask) {
+			Object key = keys[i];
+			if (key == o) return ids[i];
+			if (key == null) return -1;
+		}
+	}
+
+
+	/**
+	 * Returns the ID of the passed object, adding it to the table first if it
+	 * is not present. A newly added object always receives the ID equal to the
+	 * table's size before the call, so callers can detect additions with
+	 * {@code assign(o) == size}.
+	 *
+	 * @param o The (non-null) object to look up or add.
+	 * @return The object's ID.
+	 */
+	int assign(Object o) {
+		int mask = keys.length - 1;
+		int i = slot(o, mask);
+		for (; keys[i] != null; i = (i + 1) & mask)
+			if (keys[i] == o) return ids[i];
+
+		// Not present: claim the empty slot, growing past half occupancy.
+		keys[i] = o;
+		ids[i] = size;
+		if (++ size * 2 > keys.length) grow();
+		return size - 1;
+	}
+
+
+	/**
+	 * Returns the number of objects in the table.
+	 *
+	 * @return The number of objects (and thus the next ID to be assigned).
+	 */
+	int size() {
+		return size;
+	}
+
+
+	/**
+	 * Removes every object from the table; IDs restart from 0.
+	 */
+	void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+
+	/**
+	 * Returns the home slot of an object.
+	 *
+	 * @param o The object to be placed.
+	 * @param mask The table size minus one.
+	 * @return The first slot to probe for the object.
+	 */
+	private static int slot(Object o, int mask) {
+		// Spread the identity hash so sequential hashes don't cluster.
+		int h = System.identityHashCode(o) * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+
+	/**
+	 * Doubles the capacity of the table, reinserting every object.
+	 */
+	private void grow() {
+		Object[] oldKeys = keys;
+		int[] oldIds = ids;
+		keys = new Object[oldKeys.length * 2];
+		ids = new int[oldKeys.length * 2];
+		int mask = keys.length - 1;
+
+		for (int j = 0; j < oldKeys.length; j ++) {
+			if (oldKeys[j] == null) continue;
+			int i = slot(oldKeys[j], mask);
+			while (keys[i] != null) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			ids[i] = oldIds[j];
+		}
+	}
+}
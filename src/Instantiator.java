@@ -0,0 +1,252 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// Instantiator.java
+// ======================================================
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+
+import serial.GeneratedSerializer;
+
+
+/**
+ * Creates the empty instances of a class that deserialized objects are read
+ * into. Classes annotated {@code serial.Serializable} are instantiated by the
+ * serializer generated for them at compile time. For other classes, the
+ * constructor is looked up once per class and invoked through an
+ * exact {@code MethodHandle} where possible, with plain reflection as the
+ * fallback. Classes without a no-argument constructor are only supported if
+ * the {@code serialize.serializationConstructors} system property is
+ * {@code true}: they are then allocated the way {@code ObjectInputStream}
+ * does, without running any of their own constructors.
+ */
+abstract class Instantiator {
+	// Whether classes lacking a no-argument constructor may be instantiated.
+	private static final boolean serializationConstructors
+		= Boolean.getBoolean("serialize.serializationConstructors");
+
+	// The instantiator of each class, created on first use.
+	private static final ClassValue<Instantiator> cache
+		= new ClassValue<Instantiator>() {
+			@Override
+			protected Instantiator computeValue(Class<?> c) {
+				return create(c, serializationConstructors);
+			}
+		};
+
+
+	/**
+	 * Returns the (shared) instantiator of the passed class.
+	 *
+	 * @param c The class to be instantiated.
+	 * @return The instantiator of the class.
+	 */
+	static Instantiator of(Class<?> c) {
+		return cache.get(c);
+	}
+
+
+	/**
+	 * Returns a new, empty instance of the class.
+	 *
+	 * @return The new instance.
+	 * @throws Exception If the class cannot be instantiated.
+	 */
+	abstract Object newInstance() throws Exception;
+
+
+	/**
+	 * Creates an instantiator of the passed class. Classes that cannot be
+	 * instantiated get an instantiator that fails with the reason.
+	 *
+	 * @param c The class to be instantiated.
+	 * @param useSerialization Whether a class lacking a no-argument
+	 * constructor may be instantiated through a serialization constructor.
+	 * @return The new instantiator.
+	 */
+	static Instantiator create(Class<?> c, boolean useSerialization) {
+		try {
+			if (c.isPrimitive() || c.isArray() || c.isInterface()
+			|| Modifier.isAbstract(c.getModifiers()))
+				throw new InstantiationException(c.getName());
+			MethodHandle wrapper = wrapperConstructor(c);
+			if (wrapper != null) return new HandleInstantiator(wrapper);
+			GeneratedSerializer serializer = GeneratedSerializer.of(c);
+			if (serializer != null) return new CompiledInstantiator(serializer);
+
+			Constructor<?> ctor;
+			try {
+				ctor = c.getDeclaredConstructor();
+			} catch (NoSuchMethodException e) {
+				if (!useSerialization) throw e;
+				return new ReflectiveInstantiator(serializationConstructor(c));
+			}
+			try {
+				return new HandleInstantiator(MethodHandles
+					.privateLookupIn(c, MethodHandles.lookup())
+					.unreflectConstructor(ctor));
+			} catch (IllegalAccessException | RuntimeException e) {
+				// The class's module isn't open to us; use reflection.
+				ctor.trySetAccessible();
+				return new ReflectiveInstantiator(ctor);
+			}
+		} catch (Exception e) {
+			return new FailedInstantiator(c, e);
+		}
+	}
+
+
+	/**
+	 * Returns a handle creating zero-valued instances of a primitive wrapper
+	 * class. Wrappers have no no-argument constructor, and the shared boxes
+	 * of {@code valueOf} must not be used as their fields are then set.
+	 *
+	 * @param c A class.
+	 * @return A {@code ()Object} handle, or null if the class is not a
+	 * primitive wrapper.
+	 * @throws ReflectiveOperationException If the wrapper's constructor cannot
+	 * be found.
+	 */
+	private static MethodHandle wrapperConstructor(Class<?> c)
+	throws ReflectiveOperationException {
+		Object zero;
+		if (c == Boolean.class)			zero = false;
+		else if (c == Byte.class)		zero = (byte) 0;
+		else if (c == Character.class)	zero = (char) 0;
+		else if (c == Short.class)		zero = (short) 0;
+		else if (c == Integer.class)	zero = 0;
+		else if (c == Long.class)		zero = 0L;
+		else if (c == Float.class)		zero = 0.0f;
+		else if (c == Double.class)		zero = 0.0;
+		else return null;
+
+		Class<?> primitive = MethodType.methodType(c).unwrap().returnType();
+		MethodHandle ctor = MethodHandles.publicLookup().findConstructor(
+			c, MethodType.methodType(void.class, primitive));
+		return MethodHandles.insertArguments(ctor, 0, zero);
+	}
+
+
+	/**
+	 * Returns a constructor that allocates an instance of the passed class
+	 * and only runs the no-argument constructor of {@code Object}. The JDK's
+	 * {@code sun.reflect.ReflectionFactory} (of the jdk.unsupported module) is
+	 * looked up reflectively so its absence fails at run time only.
+	 *
+	 * @param c The class to be instantiated.
+	 * @return The serialization constructor of the class.
+	 * @throws ReflectiveOperationException If the JDK offers no serialization
+	 * constructors.
+	 */
+	private static Constructor<?> serializationConstructor(Class<?> c)
+	throws ReflectiveOperationException {
+		Class<?> factoryClass = Class.forName("sun.reflect.ReflectionFactory");
+		Object factory = factoryClass.getMethod("getReflectionFactory")
+			.invoke(null);
+		Method create = factoryClass.getMethod("newConstructorForSerialization",
+			Class.class, Constructor.class);
+		return (Constructor<?>) create.invoke(
+			factory, c, Object.class.getDeclaredConstructor());
+	}
+
+
+	/**
+	 * Instantiator invoking a constructor through an exact method handle.
+	 */
+	static final class HandleInstantiator extends Instantiator {
+		private final MethodHandle ctor;	// Exact {@code ()Object} handle.
+
+
+		/**
+		 * Creates an instantiator invoking the passed constructor handle.
+		 *
+		 * @param ctor A handle taking no arguments and returning an instance.
+		 */
+		HandleInstantiator(MethodHandle ctor) {
+			this.ctor = ctor.asType(MethodType.methodType(Object.class));
+		}
+
+		Object newInstance() throws Exception {
+			try {
+				return (Object) ctor.invokeExact();
+			} catch (Throwable e) {
+				if (e instanceof Error) throw (Error) e;
+				throw e instanceof Exception ? (Exception) e : new Exception(e);
+			}
+		}
+	}
+
+
+	/**
+	 * Instantiator delegating to the serializer generated at compile time for
+	 * a {@code serial.Serializable} class.
+	 */
+	static final class CompiledInstantiator extends Instantiator {
+		private final GeneratedSerializer serializer;	// The generated code.
+
+
+		/**
+		 * Creates an instantiator delegating to a generated serializer.
+		 *
+		 * @param serializer The serializer generated for the class.
+		 */
+		CompiledInstantiator(GeneratedSerializer serializer) {
+			this.serializer = serializer;
+		}
+
+		Object newInstance() {
+			return serializer.newInstance();
+		}
+	}
+
+
+	/**
+	 * Instantiator invoking a constructor reflectively.
+	 */
+	static final class ReflectiveInstantiator extends Instantiator {
+		private final Constructor<?> ctor;	// The no-argument constructor.
+
+
+		/**
+		 * Creates an instantiator invoking the passed constructor.
+		 *
+		 * @param ctor A constructor taking no arguments.
+		 */
+		ReflectiveInstantiator(Constructor<?> ctor) {
+			this.ctor = ctor;
+		}
+
+		Object newInstance() throws Exception {
+			return ctor.newInstance();
+		}
+	}
+
+
+	/**
+	 * Instantiator of a class that cannot be instantiated.
+	 */
+	static final class FailedInstantiator extends Instantiator {
+		private final Class<?> c;			// The class.
+		private final Exception cause;		// Why it cannot be instantiated.
+
+
+		/**
+		 * Creates an instantiator failing for the passed reason.
+		 *
+		 * @param c The class that cannot be instantiated.
+		 * @param cause The reason the class cannot be instantiated.
+		 */
+		FailedInstantiator(Class<?> c, Exception cause) {
+			this.c = c;
+			this.cause = cause;
+		}
+
+		Object newInstance() throws Exception {
+			throw new Exception("Cannot instantiate " + c.getName(), cause);
+		}
+	}
+}
@@ -0,0 +1,524 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// JSONPullParser.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.Reader;
+
+
+/**
+ * Token-level streaming JSON reader. The caller pulls values one at a time in
+ * document order, so no intermediate tree is built and only a small window of
+ * the input is buffered. Names and other frequently repeated strings (such as
+ * class names) can be read as symbols, which are deduplicated so that each
+ * distinct symbol is allocated only once per parser.
+ */
+class JSONPullParser {
+	// Kinds of token that may be next in the document.
+	static final int BEGIN_OBJECT = 1, END_OBJECT = 2, BEGIN_ARRAY = 3,
+		END_ARRAY = 4, NAME = 5, STRING = 6, NUMBER = 7, LITERAL = 8,
+		END_DOCUMENT = 9;
+	// No token has been peeked yet.
+	private static final int NONE = 0;
+
+	// Parsing states of each open container (and the document itself).
+	private static final int EMPTY_ARRAY = 1, NONEMPTY_ARRAY = 2,
+		EMPTY_OBJECT = 3, DANGLING_NAME = 4, NONEMPTY_OBJECT = 5,
+		EMPTY_DOCUMENT = 6, NONEMPTY_DOCUMENT = 7;
+	// Maximum number of distinct symbols kept by a parser.
+	private static final int MAX_SYMBOLS = 1024;
+
+	private final Reader in;			// The source of the JSON text.
+	private final char[] buf = new char[8192]; // Window of the input.
+	private int pos = 0;				// Next unread position in buf.
+	private int limit = 0;				// End of valid data in buf.
+
+	private int[] stack = new int[32];	// States of the open containers.
+	private int depth = 1;				// Number of entries in stack.
+	private int peeked = NONE;			// The kind of the next token.
+
+	char[] scratch = new char[64];		// Text of the last value read.
+	int scratchLen = 0;					// Length of the text in scratch.
+	// Open-addressing table of symbols (power-of-two sized).
+	private String[] symbols = new String[256];
+	private int symbolCount = 0;		// Number of symbols in the table.
+
+
+	/**
+	 * Creates a parser reading from the passed {@code Reader}.
+	 *
+	 * @param in The source of the JSON text.
+	 */
+	JSONPullParser(Reader in) {
+		this.in = in;
+		stack[0] = EMPTY_DOCUMENT;
+	}
+
+
+	/**
+	 * Returns the kind of the next token without consuming it.
+	 *
+	 * @return One of the token kind constants of this class.
+	 * @throws IOException If the input is malformed or cannot be read.
+	 */
+	int peek() throws IOException {
+		if (peeked != NONE) return peeked;
+
+		int c;
+		switch (stack[depth - 1]) {
+			case EMPTY_ARRAY:
+				stack[depth - 1] = NONEMPTY_ARRAY;
+				if ((c = nextNonWhitespace()) == ']')
+					return peeked = END_ARRAY;
+				unread(c);
+				break;
+			case NONEMPTY_ARRAY:
+				if ((c = nextNonWhitespace()) == ']')
+					return peeked = END_ARRAY;
+				if (c != ',') throw syntaxError("Expected ',' or ']'");
+				break;
+			case EMPTY_OBJECT:
+			case NONEMPTY_OBJECT:
+				c = nextNonWhitespace();
+				if (c == '}') return peeked = END_OBJECT;
+				if (stack[depth - 1] == NONEMPTY_OBJECT) {
+					if (c != ',') throw syntaxError("Expected ',' or '}'");
+					c = nextNonWhitespace();
+				}
+				if (c != '"') throw syntaxError("Expected a name");
+				stack[depth - 1] = DANGLING_NAME;
+				return peeked = NAME;
+			case DANGLING_NAME:
+				if (nextNonWhitespace() != ':')
+					throw syntaxError("Expected ':'");
+				stack[depth - 1] = NONEMPTY_OBJECT;
+				break;
+			case EMPTY_DOCUMENT:
+				stack[depth - 1] = NONEMPTY_DOCUMENT;
+				break;
+			default: // NONEMPTY_DOCUMENT
+				if (nextNonWhitespace() != -1)
+					throw syntaxError("Expected the end of the document");
+				return peeked = END_DOCUMENT;
+		}
+
+		// Otherwise a value is expected.
+		c = nextNonWhitespace();
+		switch (c) {
+			case '{': return peeked = BEGIN_OBJECT;
+			case '[': return peeked = BEGIN_ARRAY;
+			case '"': return peeked = STRING;
+			case 't': case 'f': case 'n':
+				pos --;
+				return peeked = LITERAL;
+			default:
+				if (c == '-' || (c >= '0' && c <= '9')) {
+					pos --;
+					return peeked = NUMBER;
+				}
+				throw syntaxError("Expected a value");
+		}
+	}
+
+
+	/**
+	 * Returns true if the current object or array has another member.
+	 *
+	 * @return Whether a value (or name) follows in the current container.
+	 * @throws IOException If the input is malformed or cannot be read.
+	 */
+	boolean hasNext() throws IOException {
+		int p = peek();
+		return p != END_OBJECT && p != END_ARRAY && p != END_DOCUMENT;
+	}
+
+
+	/**
+	 * Consumes the opening brace of an object.
+	 *
+	 * @throws IOException If the next token is not the start of an object.
+	 */
+	void beginObject() throws IOException {
+		expect(BEGIN_OBJECT, "an object");
+		push(EMPTY_OBJECT);
+	}
+
+
+	/**
+	 * Consumes the closing brace of the current object.
+	 *
+	 * @throws IOException If the next token is not the end of an object.
+	 */
+	void endObject() throws IOException {
+		expect(END_OBJECT, "the end of an object");
+		depth --;
+	}
+
+
+	/**
+	 * Consumes the opening bracket of an array.
+	 *
+	 * @throws IOException If the next token is not the start of an array.
+	 */
+	void beginArray() throws IOException {
+		expect(BEGIN_ARRAY, "an array");
+		push(EMPTY_ARRAY);
+	}
+
+
+	/**
+	 * Consumes the closing bracket of the current array.
+	 *
+	 * @throws IOException If the next token is not the end of an array.
+	 */
+	void endArray() throws IOException {
+		expect(END_ARRAY, "the end of an array");
+		depth --;
+	}
+
+
+	/**
+	 * Consumes the name of the next member of the current object.
+	 *
+	 * @return The member's name (as a deduplicated symbol).
+	 * @throws IOException If the next token is not a name.
+	 */
+	String nextName() throws IOException {
+		expect(NAME, "a name");
+		readString();
+		return symbol();
+	}
+
+
+	/**
+	 * Consumes a string, number or literal value and returns its text.
+	 *
+	 * @return The text of the value.
+	 * @throws IOException If the next token is not a scalar value.
+	 */
+	String nextString() throws IOException {
+		nextScalar();
+		return new String(scratch, 0, scratchLen);
+	}
+
+
+	/**
+	 * Consumes a scalar value and returns its text as a deduplicated symbol.
+	 * Intended for values that are repeated throughout a document.
+	 *
+	 * @return The text of the value.
+	 * @throws IOException If the next token is not a scalar value.
+	 */
+	String nextSymbol() throws IOException {
+		nextScalar();
+		return symbol();
+	}
+
+
+	/**
+	 * Consumes a number (or a string holding a number) as an {@code int}.
+	 *
+	 * @return The value of the number.
+	 * @throws IOException If the next token is not a scalar value.
+	 * @throws NumberFormatException If the value is not an {@code int}.
+	 */
+	int nextInt() throws IOException {
+		nextScalar();
+		return PrimitiveParser.parseInt(scratch, 0, scratchLen);
+	}
+
+
+	/**
+	 * Consumes a reference to an object: its ID, or null.
+	 *
+	 * @return The ID of the referenced object, or -1 for a null reference.
+	 * @throws IOException If the next token is not a scalar value.
+	 * @throws NumberFormatException If the value is not an ID or null.
+	 */
+	int nextReference() throws IOException {
+		nextScalar();
+		if (PrimitiveParser.isNull(scratch, 0, scratchLen)) return -1;
+		return PrimitiveParser.parseInt(scratch, 0, scratchLen);
+	}
+
+
+	/**
+	 * Consumes and discards the next value, including any nested values.
+	 *
+	 * @throws IOException If the input is malformed or cannot be read.
+	 */
+	void skipValue() throws IOException {
+		int nesting = 0;
+		do {
+			switch (peek()) {
+				case BEGIN_OBJECT: beginObject(); nesting ++; break;
+				case BEGIN_ARRAY: beginArray(); nesting ++; break;
+				case END_OBJECT: endObject(); nesting --; break;
+				case END_ARRAY: endArray(); nesting --; break;
+				case NAME: nextName(); break;
+				default: nextScalar();
+			}
+		} while (nesting > 0);
+	}
+
+
+	/**
+	 * Consumes a string, number or literal value, leaving its text in the
+	 * first {@code scratchLen} characters of {@code scratch} (until the next
+	 * value is read) rather than creating a {@code String}.
+	 *
+	 * @throws IOException If the next token is not a scalar value.
+	 */
+	void nextScalar() throws IOException {
+		int p = peek();
+		peeked = NONE;
+		if (p == STRING) {
+			readString();
+			return;
+		}
+		if (p != NUMBER && p != LITERAL)
+			throw syntaxError("Expected a string, number or literal");
+
+		// Read a bare word up to the next delimiter.
+		scratchLen = 0;
+		for (int c; (c = read()) != -1; ) {
+			if (c == ',' || c == '}' || c == ']' || c == ':'
+				|| Character.isWhitespace(c)) {
+				unread(c);
+				break;
+			}
+			append((char) c);
+		}
+	}
+
+
+	/**
+	 * Reads the remainder of a quoted string (the opening quote has been
+	 * consumed) into scratch, resolving escapes.
+	 *
+	 * @throws IOException If the string is malformed or cannot be read.
+	 */
+	private void readString() throws IOException {
+		peeked = NONE;
+		scratchLen = 0;
+		while (true) {
+			// Copy runs of unescaped characters straight from the buffer.
+			int start = pos;
+			while (pos < limit && buf[pos] != '"' && buf[pos] != '\\')
+				pos ++;
+			appendRun(start, pos - start);
+			if (pos == limit) {
+				if (!fill()) throw syntaxError("Unterminated string");
+				continue;
+			}
+
+			if (buf[pos ++] == '"') return;
+			int c = read(); // The escaped character.
+			switch (c) {
+				case 'n': append('\n'); break;
+				case 'r': append('\r'); break;
+				case 't': append('\t'); break;
+				case 'b': append('\b'); break;
+				case 'f': append('\f'); break;
+				case 'u':
+					int code = 0;
+					for (int i = 0; i < 4; i ++) {
+						int d = Character.digit(read(), 16);
+						if (d < 0) throw syntaxError("Invalid \\u escape");
+						code = code * 16 + d;
+					}
+					append((char) code);
+					break;
+				case -1: throw syntaxError("Unterminated string");
+				default: append((char) c); // Covers \", \\ and \/.
+			}
+		}
+	}
+
+
+	/**
+	 * Returns the text in scratch as a symbol, reusing an equal symbol if one
+	 * has already been returned by this parser.
+	 *
+	 * @return The deduplicated text of scratch.
+	 */
+	private String symbol() {
+		int h = 0;
+		for (int i = 0; i < scratchLen; i ++)
+			h = 31 * h + scratch[i];
+		int mask = symbols.length - 1;
+
+		int i = (h ^ (h >>> 16)) & mask;
+		for (String s; (s = symbols[i]) != null; i = (i + 1) & mask)
+			if (s.hashCode() == h && matches(s)) return s;
+
+		String s = new String(scratch, 0, scratchLen);
+		if (symbolCount < MAX_SYMBOLS) { // Otherwise, don't retain it.
+			symbols[i] = s;
+			if (++ symbolCount * 2 > symbols.length) growSymbols();
+		}
+		return s;
+	}
+
+
+	/**
+	 * Returns true if the passed string equals the text in scratch.
+	 *
+	 * @param s The string to compare against.
+	 * @return Whether the string has the same characters as scratch.
+	 */
+	private boolean matches(String s) {
+		if (s.length() != scratchLen) return false;
+		for (int i = 0; i < scratchLen; i ++)
+			if (s.charAt(i) != scratch[i]) return false;
+		return true;
+	}
+
+
+	/**
+	 * Doubles the size of the symbol table.
+	 */
+	private void growSymbols() {
+		String[] old = symbols;
+		symbols = new String[old.length * 2];
+		int mask = symbols.length - 1;
+		for (String s : old) {
+			if (s == null) continue;
+			int h = s.hashCode();
+			int i = (h ^ (h >>> 16)) & mask;
+			while (symbols[i] != null) i = (i + 1) & mask;
+			symbols[i] = s;
+		}
+	}
+
+
+	/**
+	 * Consumes the peeked token, checking that it is of the expected kind.
+	 *
+	 * @param kind The expected token kind.
+	 * @param description A description of the expected token for errors.
+	 * @throws IOException If the next token is of a different kind.
+	 */
+	private void expect(int kind, String description) throws IOException {
+		if (peek() != kind) throw syntaxError("Expected " + description);
+		peeked = NONE;
+	}
+
+
+	/**
+	 * Pushes the state of a newly opened container.
+	 *
+	 * @param state The initial state of the container.
+	 */
+	private void push(int state) {
+		if (depth == stack.length) {
+			int[] grown = new int[stack.length * 2];
+			System.arraycopy(stack, 0, grown, 0, depth);
+			stack = grown;
+		}
+		stack[depth ++] = state;
+	}
+
+
+	/**
+	 * Appends a character to scratch.
+	 *
+	 * @param c The character to be appended.
+	 */
+	private void append(char c) {
+		if (scratchLen == scratch.length) growScratch(scratchLen + 1);
+		scratch[scratchLen ++] = c;
+	}
+
+
+	/**
+	 * Appends a run of characters from the buffer to scratch.
+	 *
+	 * @param start The start of the run in the buffer.
+	 * @param count The number of characters in the run.
+	 */
+	private void appendRun(int start, int count) {
+		if (scratchLen + count > scratch.length)
+			growScratch(scratchLen + count);
+		System.arraycopy(buf, start, scratch, scratchLen, count);
+		scratchLen += count;
+	}
+
+
+	/**
+	 * Grows scratch to hold at least the passed number of characters.
+	 *
+	 * @param needed The minimum capacity required.
+	 */
+	private void growScratch(int needed) {
+		char[] grown = new char[Math.max(needed, scratch.length * 2)];
+		System.arraycopy(scratch, 0, grown, 0, scratchLen);
+		scratch = grown;
+	}
+
+
+	/**
+	 * Returns the next character that is not whitespace.
+	 *
+	 * @return The character or -1 at the end of the input.
+	 * @throws IOException If the input cannot be read.
+	 */
+	private int nextNonWhitespace() throws IOException {
+		int c;
+		do {
+			c = read();
+		} while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+		return c;
+	}
+
+
+	/**
+	 * Returns the next character of the input.
+	 *
+	 * @return The character or -1 at the end of the input.
+	 * @throws IOException If the input cannot be read.
+	 */
+	private int read() throws IOException {
+		if (pos == limit && !fill()) return -1;
+		return buf[pos ++];
+	}
+
+
+	/**
+	 * Steps back over the character last returned by {@code read()}.
+	 *
+	 * @param c The character that was read (-1 at the end of the input).
+	 */
+	private void unread(int c) {
+		if (c != -1) pos --;
+	}
+
+
+	/**
+	 * Refills the buffer from the input.
+	 *
+	 * @return False if the end of the input has been reached.
+	 * @throws IOException If the input cannot be read.
+	 */
+	private boolean fill() throws IOException {
+		pos = 0;
+		limit = 0;
+		int n;
+		while ((n = in.read(buf, 0, buf.length)) == 0);
+		if (n < 0) return false;
+		limit = n;
+		return true;
+	}
+
+
+	/**
+	 * Returns an exception describing malformed input.
+	 *
+	 * @param message A description of the problem.
+	 * @return An exception to be thrown.
+	 */
+	private IOException syntaxError(String message) {
+		return new IOException("Malformed JSON: " + message);
+	}
+}
@@ -3,21 +3,34 @@
 // JSONSerialize.java
 // ======================================================
 
-import org.json.*;
-
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
 import java.util.LinkedList;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
 
 /**
  * Class for Java object serialization and deserialization to and from the JSON
- * format.
+ * format. Both directions are streamed: objects are written out as the object
+ * graph is walked, and read back token by token, without ever building a
+ * document tree.
  */
 class JSONSerialize extends Serialize {
+	// Spaces of indentation per nesting level of the serialized JSON.
+	protected static final int INDENT = 4;
+
+
 	/**
 	 * Serializes the passed object and returns it as a JSON encoded
 	 * {@code string}.
@@ -27,116 +40,221 @@ class JSONSerialize extends Serialize {
 	 * @throws Exception If the object cannot be serialized.
 	 */
 	public String serializeObject(Object source) throws Exception {
-		// Stores the hash code values for objects arelady serialized.
-		TreeSet<Integer> seen = new TreeSet<Integer>();
+		StringWriter out = new StringWriter();
+		serializeObject(source, out);
+		return out.toString();
+	}
+
+
+	/**
+	 * Serializes the passed object as UTF-8 encoded JSON to the passed stream.
+	 * The stream is flushed but not closed.
+	 * 
+	 * @param source The object to be serialized.
+	 * @param out The stream to write the serialization to.
+	 * @throws Exception If the object cannot be serialized or written.
+	 */
+	public void serializeObject(Object source, OutputStream out)
+	throws Exception {
+		serializeObject(source, new BufferedWriter(
+			new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+
+	/**
+	 * Serializes the passed object as JSON to the passed {@code Writer}. The
+	 * writer is flushed but not closed.
+	 * 
+	 * @param source The object to be serialized.
+	 * @param out The writer to write the serialization to.
+	 * @throws Exception If the object cannot be serialized or written.
+	 */
+	public void serializeObject(Object source, Writer out) throws Exception {
+		// Assigns sequential IDs to objects by identity as they are found.
+		IdentityTable ids = new IdentityTable();
 		// Stores objects encountered and yet to be serialized.
 		LinkedList<Object> todo = new LinkedList<Object>();
-		// A JSON array to store all serialized objects and its root object.
-		JSONArray objArray = new JSONArray();
-		JSONObject json = new JSONObject();
-		json.put("objects", objArray);
-		// Initialize the stack with the root object.
-		todo.push(source);
+		// Open the JSON array that stores all serialized objects.
+		JSONStreamWriter json = new JSONStreamWriter(out, INDENT);
+		json.beginObject().name("objects").beginArray();
+		// The classes defined so far (if objects refer to them by index).
+		ClassDictionary classes = useDictionary ? new ClassDictionary() : null;
+		// Initialize the stack with the root object (given ID 0).
+		referenceId(source, ids, todo);
 
 		// Serialize all objects 'recursively".
+		// Each object is pushed only once: when it is first given an ID.
 		while (todo.size() > 0) {
 			Object todoObj = todo.pop(); // Grab the next object to do.
-			int objHash = todoObj.hashCode(); // Grab the object's ID.
-			if (seen.contains(objHash)) // If already seen encoded, skip it.
-				continue;
-			// Otherwise, encode the object and add it to the XML structure.
-			seen.add(objHash);
-			objArray.put(encodeObject(todoObj, todo));
+			encodeObject(todoObj, json, classes, ids, todo);
 		}
 		
-		// Output the JSON string.
-		return json.toString(4);
+		// Close the JSON document.
+		json.endArray().endObject();
+		json.flush();
 	}
 
 
 	/**
-	 * Serializes objects as JSON objects.
+	 * Serializes objects as JSON objects. The class, ID, type (and length of
+	 * arrays) are always written before the object's fields or entries.
+	 * Packed primitive arrays hold a base64 "packed" value instead of entries,
+	 * and leaves (strings, boxed primitives, big numbers and enums) a single
+	 * "value". Collections are written as an array of their contents.
+	 * With a dictionary, objects hold the index of their class ("class_ref")
+	 * and a "values" array in the order of the class's definition, which is
+	 * written before the class's first object.
 	 * 
 	 * @param source The object to be serialized.
+	 * @param json The JSON emitter to write the object to.
+	 * @param classes The classes defined so far, or {@code null} if objects
+	 * name their class and fields.
+	 * @param ids The IDs of the objects encountered so far.
 	 * @param todo A stack containing references to objects that need to be
 	 * serialized.
-	 * @return The JSON object containing the serialization of {@code source}.
 	 * @throws Exception If there is an issue accessing the values of the object
 	 * being serialized.
 	 */
-	protected static JSONObject encodeObject(
-	Object source, LinkedList<Object> todo)	throws Exception {
-		// The class of the object being serialized.
-		Class<?> c = source.getClass();
-		// The JSON object to represent the object being serialized.
-		JSONObject jsonObj = new JSONObject();
-		// A JSON array to store field or array values.
-		JSONArray jsonEntries = new JSONArray();
+	protected void encodeObject(Object source, JSONStreamWriter json,
+	ClassDictionary classes, IdentityTable ids, LinkedList<Object> todo)
+	throws Exception {
+		// The class of the object being serialized and its cached descriptor.
+		Class<?> c = serializedClass(source);
+		ClassDescriptor desc = ClassDescriptor.of(c);
 
 		// Store the basic parameters of the object.
-		jsonObj
-			.put("class", c.getName())
-			.put("id", source.hashCode())
-			.put("type", c.isArray() ? "array" : "object")
-			.put(c.isArray() ? "entries" : "fields", jsonEntries);
+		if (classes == null) {
+			json.beginObject()
+				.name("class").value(c.getName())
+				.name("id").value(ids.get(source))
+				.name("type").value(c.isArray() ? "array"
+					: desc.isLeaf ? "leaf"
+					: desc.collection != null ? "collection" : "object");
+		} else {
+			// Refer to the class by index, defining it on first use.
+			int index = classes.indexOf(c);
+			if (index < 0) index = encodeDefinition(desc, json, classes);
+			json.beginObject()
+				.name("class_ref").value(index)
+				.name("id").value(ids.get(source));
+		}
 
-		if (c.isArray()) {
+		// Store strings, boxed primitives and such as a single value.
+		if (desc.isLeaf) {
+			json.name("value").value(encodeLeaf(source)).endObject();
+			return;
+		}
+
+		if (!desc.byFields) {
+			// Collections are stored as the array of their contents.
+			Object array = desc.collection == null
+				? source : desc.collection.contents(source);
 			// Grab and store the length of the array.
-			int arrayLen = Array.getLength(source);
-			jsonObj.put("length", arrayLen);
-			// Grab the array's component type.
-			Class<?> componentType = source.getClass().getComponentType();
-			// Store the value of each array element:
+			int arrayLen = Array.getLength(array);
+			json.name("length").value(arrayLen);
+			// Grab the array's component type code.
+			char code = desc.componentCode;
+			// Store primitive arrays as a single run of bytes if requested.
+			if (code != 'L' && packArrays) {
+				json.name("packed").value(Base64.getEncoder()
+					.encodeToString(packArray(array, code)));
+				json.endObject();
+				return;
+			}
+			// Store the value of each array element (positionally if the
+			// class is defined in the dictionary):
+			if (classes != null) {
+				json.name("values").beginArray();
+				for (int i = 0; i < arrayLen; i ++)
+					json.value(code != 'L' ? encodeElement(array, code, i)
+						: referenceText(((Object[]) array)[i], ids, todo));
+				json.endArray().endObject();
+				return;
+			}
+			json.name("entries").beginArray();
 			for (int i = 0; i < arrayLen; i ++) {
-				JSONObject valObj = new JSONObject();
-				Object value = Array.get(source, i);
-				encodeValue(value, valObj, componentType.isPrimitive());
-				jsonEntries.put(valObj);
-				// "Recurse" over non-primitive array entries.
-				if (!componentType.isPrimitive() && value != null)
-					todo.push(value);
+				json.beginObject();
+				if (code != 'L')
+					json.name("value").value(encodeElement(array, code, i));
+				else {
+					Object value = ((Object[]) array)[i];
+					encodeReference(value, json, ids, todo);
+				}
+				json.endObject();
 			}
 
+		} else if (classes != null) { // Encode fields in definition order:
+			json.name("values").beginArray();
+			for (FieldDescriptor f : desc.fields)
+				json.value(f.isPrimitive ? encodePrimitive(f, source)
+					: referenceText(f.accessor.getObject(source), ids, todo));
+
 		} else { // Encode fields:
-			// Obtain a set of all fields (declared and inherited).
-			TreeMap<String, Field> fields = ReflectionHelper.getAllFields(c);
-			for (Field f : fields.values()) {
-				// Ignore static fields. 	
-				if (Modifier.isStatic(f.getModifiers())) continue;
+			// Grab the cached non-static fields (declared and inherited).
+			json.name("fields").beginArray();
+			for (FieldDescriptor f : desc.fields) {
 				// Create the JSON object for the field. Store its parameters.
-				JSONObject fObj = new JSONObject();
-				fObj.put("name", f.getName())
-					.put("declaring_class", f.getDeclaringClass().getName());
-				f.setAccessible(true);
-				Object value = f.get(source);
-				encodeValue(value, fObj, f.getType().isPrimitive());
-				jsonEntries.put(fObj);
-				// "Recurse" over non-primitive array entries.
-				if (!f.getType().isPrimitive() && value != null)
-					todo.push(value);
+				json.beginObject()
+					.name("name").value(f.name)
+					.name("declaring_class").value(f.declaringClass);
+				if (f.isPrimitive)
+					json.name("value").value(encodePrimitive(f, source));
+				else {
+					Object value = f.accessor.getObject(source);
+					encodeReference(value, json, ids, todo);
+				}
+				json.endObject();
 			}
 		}
 
-		return jsonObj;
+		json.endArray().endObject();
 	}
 
 
 	/**
-	 * Encodes a passed object as a value for JSON serialization.
+	 * Encodes a reference to the passed object for JSON serialization.
+	 * Referenced objects not yet encountered are queued for serialization.
 	 * 
-	 * @param value The object to be encoded.
-	 * @param target The JSON object in which to store the object.
-	 * @param isPrimitive Indicates if the object to encode is of a primitive
-	 * type.
+	 * @param value The referenced object (possibly {@code null}).
+	 * @param json The JSON emitter, positioned inside the referring object.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @throws IOException If the reference cannot be written.
 	 */
-	protected static void encodeValue(
-	Object value, JSONObject target, boolean isPrimitive) {
-		if (isPrimitive)
-			target.put("value", value.toString());
-		else if (value == null)
-			target.put("reference", "null");
-		else
-			target.put("reference", Integer.toString(value.hashCode()));
+	protected static void encodeReference(Object value, JSONStreamWriter json,
+	IdentityTable ids, LinkedList<Object> todo) throws IOException {
+		json.name("reference").value(referenceText(value, ids, todo));
+	}
+
+
+	/**
+	 * Defines a class in the dictionary, writing its definition as an entry
+	 * of the "objects" array: its index ("define"), name and ordered fields.
+	 * 
+	 * @param desc The descriptor of the class to be defined.
+	 * @param json The JSON emitter, positioned inside the "objects" array.
+	 * @param classes The classes defined so far.
+	 * @return The index of the class.
+	 * @throws IOException If the definition cannot be written.
+	 */
+	protected static int encodeDefinition(ClassDescriptor desc,
+	JSONStreamWriter json, ClassDictionary classes) throws IOException {
+		int index = classes.add(new ClassDictionary.Entry(desc));
+		json.beginObject()
+			.name("define").value(index)
+			.name("class").value(desc.name);
+		if (desc.byFields) {
+			json.name("fields").beginArray();
+			for (FieldDescriptor f : desc.fields)
+				json.beginObject()
+					.name("name").value(f.name)
+					.name("declaring_class").value(f.declaringClass)
+					.endObject();
+			json.endArray();
+		}
+		json.endObject();
+		return index;
 	}
 
 
@@ -148,103 +266,348 @@ class JSONSerialize extends Serialize {
 	 * @throws Exception If the string cannot be deserialized.
 	 */
 	public Object deserializeObject(String source) throws Exception {
-		// Maps the hash codes of objects to their new instances.
-		TreeMap<Integer, Object> objects = new TreeMap<Integer, Object>();
-		// Create a JSON object from the passed JSON encoded string.
-		JSONObject json = new JSONObject(source);
-		// Grab a list of all objects to be decoded.
-		JSONArray objArray = json.getJSONArray("objects");
-		// Grab the hash code of the base object (as it is decoded first).
-		int baseId = objArray.getJSONObject(0).getInt("id");
-
-		// Create an instance for each object to be deserialized.
-		for (int i = 0; i < objArray.length(); i ++) {
-			JSONObject jsonObj = objArray.getJSONObject(i);
-			int id = jsonObj.getInt("id");
-			Class<?> c = Class.forName(jsonObj.getString("class"));
-			Object o = null;
-			if (c.isArray())
-				o = Array.newInstance(c.getComponentType(), jsonObj.getInt("length"));
-			else
-				o = instantiateObject(c);
-			
-			objects.put(id, o);
+		return deserializeObject(new StringReader(source));
+	}
+
+
+	/**
+	 * Deserializes the object stored as UTF-8 encoded JSON in the passed
+	 * stream.
+	 * 
+	 * @param source A stream of JSON to be deserialized.
+	 * @return The object expressed by the JSON.
+	 * @throws Exception If the stream cannot be read or deserialized.
+	 */
+	public Object deserializeObject(InputStream source) throws Exception {
+		return deserializeObject(
+			new InputStreamReader(source, StandardCharsets.UTF_8));
+	}
+
+
+	/**
+	 * Deserializes the object stored as JSON in the passed {@code Reader}. The
+	 * document is pulled token by token: each object is instantiated as soon
+	 * as its header is read and its fields are set as they are parsed.
+	 * 
+	 * @param source A reader of the JSON to be deserialized.
+	 * @return The object expressed by the JSON.
+	 * @throws Exception If the JSON cannot be read or deserialized.
+	 */
+	public Object deserializeObject(Reader source) throws Exception {
+		JSONPullParser in = new JSONPullParser(source);
+		// Tracks the new instances and the references between them.
+		DecodeContext ctx = new DecodeContext(classResolver, inputLimit);
+
+		// Decode every object of the "objects" array.
+		in.beginObject();
+		while (in.hasNext()) {
+			if (in.nextName().equals("objects")) {
+				in.beginArray();
+				while (in.hasNext())
+					decodeObject(in, ctx);
+				in.endArray();
+			} else
+				in.skipValue();
 		}
-		
-		//Decode the objects in reverse order (to build up dependency trees).
-		for (int i = objArray.length() - 1; i >= 0; i --)
-			decodeObject(objArray.getJSONObject(i), objects);
-		
-		return objects.get(baseId);
+		in.endObject();
+
+		// Link the objects together now that they all exist.
+		return ctx.resolve();
 	}
 
 
 	/**
-	 * Deserializes JSON objects and returns the encoded objects within.
+	 * Deserializes the next JSON object of the parser into a new instance, or
+	 * adds it to the dictionary if it is a class definition.
 	 * 
-	 * @param jsonObj The JSON object encoding the serialized object.
-	 * @param objects A map of hash codes to the instances that will store the
-	 * deserialized objects.
+	 * @param in The parser, positioned at the start of a serialized object.
+	 * @param ctx The state of the current deserialization.
 	 * @throws Exception If there is an issue instantiating the object
-	 * reflectively.
+	 * reflectively or the JSON is malformed.
 	 */
-	protected static void decodeObject(
-	JSONObject jsonObj, TreeMap<Integer, Object> objects) throws Exception {
-		// Grab the Class for the object to be decoded.
-		Class<?> c = Class.forName(jsonObj.getString("class"));
-		// Destination for the object and a JSON array for fields/array values.
-		Object out = objects.get(jsonObj.getInt("id"));
-		JSONArray entries = null;
-
-		// Deserialize object:
-		if (jsonObj.getString("type").compareTo("object") == 0) {
-			// Grab the of Fields and the JSON array of fields.
-			TreeMap<String, Field> fields = ReflectionHelper.getAllFields(c);
-			entries = jsonObj.getJSONArray("fields");
-
-			// Grab and set values for each field:
-			for (int i = 0; i < entries.length(); i ++) {
-				// Grab the JSON object for the field and grab parameters.
-				JSONObject fieldObj = entries.getJSONObject(i);
-				String fieldName = fieldObj.getString("name");
-				String declaringCLas = fieldObj.getString("declaring_class");
-
-				// Set the value of the field:
-				Field f = fields.get(fieldName + declaringCLas);
-				f.setAccessible(true);
-				if (fieldObj.has("value"))
-					f.set(out, extractPrimitive(
-						f.getType(), fieldObj.getString("value")));
+	protected static void decodeObject(JSONPullParser in, DecodeContext ctx)
+	throws Exception {
+		// The header of the object (which precedes its fields or entries).
+		String className = null;
+		ClassDictionary.Entry entry = null; // The class, if defined by index.
+		int id = -1;
+		int length = -1;
 
-				else {
-					String ref = fieldObj.getString("reference");
-					if (ref.compareTo("null") == 0)
-						f.set(out, null);
-					else
-						f.set(out, objects.get(Integer.valueOf(ref)));
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "define": decodeDefinition(in, in.nextInt(), ctx); break;
+				case "class": className = in.nextSymbol(); break;
+				case "class_ref": entry = ctx.classes.get(in.nextInt()); break;
+				case "id": id = in.nextInt(); break;
+				case "length": length = in.nextInt(); break;
+				case "fields": {
+					// Deserialize object:
+					ClassDescriptor desc = headerClass(className, entry, id, ctx);
+					Object out = createInstance(desc.type, 0);
+					ctx.register(id, out);
+					decodeFields(in, desc, out, ctx);
+					break;
+				}
+				case "entries": {
+					// Deserialize arrays:
+					ClassDescriptor desc = headerClass(className, entry, id, ctx);
+					Object out = registerArray(desc, id, length, ctx);
+					decodeEntries(in, desc, out, ctx);
+					break;
+				}
+				case "packed": {
+					// Deserialize packed primitive arrays:
+					ClassDescriptor desc = headerClass(className, entry, id, ctx);
+					ctx.checkLength(length);
+					Object out = createInstance(desc.type, length);
+					ctx.register(id, out);
+					unpackArray(Base64.getDecoder().decode(in.nextString()),
+						out, desc.componentCode);
+					break;
+				}
+				case "values": {
+					// Deserialize the positional values of a defined class:
+					if (entry == null)
+						throw new Exception("Values of an object without a "
+							+ "class_ref");
+					ClassDescriptor desc = headerClass(className, entry, id, ctx);
+					Object out;
+					if (!desc.byFields)
+						out = registerArray(desc, id, length, ctx);
+					else {
+						out = createInstance(desc.type, 0);
+						ctx.register(id, out);
+					}
+					decodeValues(in, entry, out, ctx);
+					break;
 				}
+				case "value": {
+					// Deserialize leaves:
+					ClassDescriptor desc
+						= headerClass(className, entry, id, ctx);
+					ctx.register(id, decodeLeaf(desc, in.nextString()));
+					break;
+				}
+				default: in.skipValue(); // The "type" is implied.
 			}
+		}
+		in.endObject();
+	}
 
-		// Deserialize arrays:
-		} else {
-			// Grab the array entries.
-			entries = jsonObj.getJSONArray("entries");
 
-			// Set the value of each element of the array.
-			for (int i = 0; i < jsonObj.getInt("length"); i ++) {
-				JSONObject entryObj = entries.getJSONObject(i);
-				if (c.getComponentType().isPrimitive())
-					Array.set(out, i, extractPrimitive(
-						c.getComponentType(), entryObj.getString("value")));
+	/**
+	 * Returns the descriptor of the class given in an object's header, either
+	 * by name or by its index in the dictionary.
+	 * 
+	 * @param className The name of the class (or null).
+	 * @param entry The dictionary entry of the class (or null).
+	 * @param id The ID of the object (negative if missing from the header).
+	 * @param ctx The state of the current deserialization.
+	 * @return The descriptor of the object's class.
+	 * @throws Exception If the header is incomplete or the class is unknown or
+	 * not allowed.
+	 */
+	protected static ClassDescriptor headerClass(String className,
+	ClassDictionary.Entry entry, int id, DecodeContext ctx) throws Exception {
+		if (entry != null && id >= 0) return entry.desc;
+		return ClassDescriptor.of(ctx.classOf(className, id));
+	}
 
-				else {
-					String ref = entryObj.getString("reference");
-					if (ref.compareTo("null") == 0)
-						Array.set(out, i, null);
-					else
-						Array.set(out, i, objects.get(Integer.valueOf(ref)));
+
+	/**
+	 * Reads the remainder of a class definition and adds it to the
+	 * dictionary. Definitions must be numbered in the order they appear.
+	 * 
+	 * @param in The parser, positioned after the index of the definition.
+	 * @param index The index of the definition.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If the class or one of its fields is unknown or the
+	 * JSON is malformed.
+	 */
+	protected static void decodeDefinition(JSONPullParser in, int index,
+	DecodeContext ctx) throws Exception {
+		if (index != ctx.classes.size())
+			throw new Exception("Class definition out of order: " + index);
+		ClassDescriptor desc = null;
+		ArrayList<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "class":
+					desc = ClassDescriptor.of(ctx.classOf(in.nextSymbol(), index));
+					break;
+				case "fields":
+					if (desc == null)
+						throw new Exception("A class's name must precede its "
+							+ "fields.");
+					in.beginArray();
+					while (in.hasNext()) {
+						String fieldName = null, declaringClass = null;
+						in.beginObject();
+						while (in.hasNext()) {
+							String name = in.nextName();
+							if (name.equals("name"))
+								fieldName = in.nextSymbol();
+							else if (name.equals("declaring_class"))
+								declaringClass = in.nextSymbol();
+							else
+								in.skipValue();
+						}
+						in.endObject();
+						fields.add(desc.requireField(fieldName, declaringClass));
+					}
+					in.endArray();
+					break;
+				default: in.skipValue();
+			}
+		}
+
+		if (desc == null)
+			throw new Exception("Class definition without a class: " + index);
+		ctx.classes.add(new ClassDictionary.Entry(
+			desc, fields.toArray(new FieldDescriptor[0])));
+	}
+
+
+	/**
+	 * Deserializes the JSON array of an object's positional values (or an
+	 * array's elements) into the object.
+	 * 
+	 * @param in The parser, positioned at the start of the values.
+	 * @param entry The dictionary entry of the object's class.
+	 * @param out The object or array being set.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If a value cannot be set or the JSON is malformed.
+	 */
+	protected static void decodeValues(JSONPullParser in,
+	ClassDictionary.Entry entry, Object out, DecodeContext ctx)
+	throws Exception {
+		ClassDescriptor desc = entry.desc;
+		// The number of values the object holds.
+		int count = desc.byFields ? entry.fields.length : Array.getLength(out);
+
+		in.beginArray();
+		for (int i = 0; in.hasNext(); i ++) {
+			if (i == count)
+				throw new Exception(String.format("%s has over %d values",
+					desc.name, count));
+			// Parse the value straight from the parser's buffer.
+			in.nextScalar();
+			char[] text = in.scratch;
+			int len = in.scratchLen;
+			if (!desc.byFields) { // Set the array element:
+				if (desc.componentCode != 'L')
+					decodeElement(out, desc.componentCode, i, text, 0, len);
+				else if (!PrimitiveParser.isNull(text, 0, len))
+					ctx.setElement((Object[]) out, i,
+						PrimitiveParser.parseInt(text, 0, len));
+			} else { // Set the field:
+				FieldDescriptor f = entry.fields[i];
+				if (f.isPrimitive)
+					decodePrimitive(f, out, text, 0, len);
+				else if (PrimitiveParser.isNull(text, 0, len))
+					f.accessor.setObject(out, null);
+				else
+					ctx.setReference(
+						out, f, PrimitiveParser.parseInt(text, 0, len));
+			}
+		}
+		in.endArray();
+	}
+
+
+	/**
+	 * Deserializes the JSON array of an object's fields into the object.
+	 * 
+	 * @param in The parser, positioned at the start of the fields.
+	 * @param desc The descriptor of the object's class.
+	 * @param out The object whose fields are set.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If a field cannot be set or the JSON is malformed.
+	 */
+	protected static void decodeFields(JSONPullParser in, ClassDescriptor desc,
+	Object out, DecodeContext ctx) throws Exception {
+		in.beginArray();
+		while (in.hasNext()) {
+			// Grab the parameters of the field. A primitive value is set as
+			// it is read if the field's name precedes it (as it is written).
+			String fieldName = null, declaringClass = null, value = null;
+			boolean decoded = false;
+			int ref = -2; // The referenced ID (-1 if null, -2 if missing).
+			in.beginObject();
+			while (in.hasNext()) {
+				switch (in.nextName()) {
+					case "name": fieldName = in.nextSymbol(); break;
+					case "declaring_class":
+						declaringClass = in.nextSymbol(); break;
+					case "value":
+						if (fieldName == null || declaringClass == null) {
+							value = in.nextString();
+							break;
+						}
+						in.nextScalar();
+						decodePrimitive(
+							desc.requireField(fieldName, declaringClass),
+							out, in.scratch, 0, in.scratchLen);
+						decoded = true;
+						break;
+					case "reference": ref = in.nextReference(); break;
+					default: in.skipValue();
 				}
 			}
+			in.endObject();
+			if (decoded) continue;
+
+			// Set the value of the field:
+			FieldDescriptor f = desc.requireField(fieldName, declaringClass);
+			if (value != null)
+				decodePrimitive(
+					f, out, value.toCharArray(), 0, value.length());
+			else if (ref == -2)
+				throw new Exception("Missing value of field " + fieldName);
+			else if (ref == -1)
+				f.accessor.setObject(out, null);
+			else
+				ctx.setReference(out, f, ref);
+		}
+		in.endArray();
+	}
+
+
+	/**
+	 * Deserializes the JSON array of an array's entries into the array.
+	 * 
+	 * @param in The parser, positioned at the start of the entries.
+	 * @param desc The descriptor of the array's class.
+	 * @param out The array whose elements are set.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If an element cannot be set or the JSON is malformed.
+	 */
+	protected static void decodeEntries(JSONPullParser in, ClassDescriptor desc,
+	Object out, DecodeContext ctx) throws Exception {
+		// Grab the array's length and component type code.
+		int arrayLen = Array.getLength(out);
+		char code = desc.componentCode;
+
+		in.beginArray();
+		for (int i = 0; in.hasNext(); i ++) {
+			if (i == arrayLen)
+				throw new Exception("Array has over " + arrayLen + " entries");
+			in.beginObject();
+			while (in.hasNext()) {
+				String name = in.nextName();
+				if (code != 'L' && name.equals("value")) {
+					in.nextScalar();
+					decodeElement(out, code, i, in.scratch, 0, in.scratchLen);
+				} else if (code == 'L' && name.equals("reference")) {
+					int ref = in.nextReference();
+					if (ref >= 0) ctx.setElement((Object[]) out, i, ref);
+				} else
+					in.skipValue();
+			}
+			in.endObject();
 		}
+		in.endArray();
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,230 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// JSONStreamWriter.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.Writer;
+
+
+/**
+ * Minimal streaming JSON emitter. Values are written to the underlying
+ * {@code Writer} as soon as they are passed in, so the memory used does not
+ * depend on the size of the document. The caller is responsible for producing
+ * a well-formed sequence of calls (names only inside objects, and so on).
+ */
+class JSONStreamWriter {
+	private final Writer out;	// Destination of the JSON text.
+	private final int indent;	// Spaces per nesting level (0 for compact).
+	// Whether the container at each nesting level has no entries yet.
+	private boolean[] empty = new boolean[16];
+	private int depth = 0;		// The current nesting level.
+	// Whether the next value directly follows a name (and so needs no comma).
+	private boolean afterName = false;
+
+
+	/**
+	 * Creates an emitter writing to the passed {@code Writer}.
+	 *
+	 * @param out The destination of the JSON text.
+	 * @param indent The number of spaces to indent each nesting level by, or 0
+	 * to write the document on a single line.
+	 */
+	JSONStreamWriter(Writer out, int indent) {
+		this.out = out;
+		this.indent = indent;
+	}
+
+
+	/**
+	 * Opens a JSON object.
+	 *
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter beginObject() throws IOException {
+		return open('{');
+	}
+
+
+	/**
+	 * Closes the innermost JSON object.
+	 *
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter endObject() throws IOException {
+		return close('}');
+	}
+
+
+	/**
+	 * Opens a JSON array.
+	 *
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter beginArray() throws IOException {
+		return open('[');
+	}
+
+
+	/**
+	 * Closes the innermost JSON array.
+	 *
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter endArray() throws IOException {
+		return close(']');
+	}
+
+
+	/**
+	 * Writes the name of the next member of the current object.
+	 *
+	 * @param name The member's name.
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter name(String name) throws IOException {
+		separate();
+		quote(name);
+		out.write(indent > 0 ? ": " : ":");
+		afterName = true;
+		return this;
+	}
+
+
+	/**
+	 * Writes a string value.
+	 *
+	 * @param value The string to be written (quoted and escaped).
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter value(String value) throws IOException {
+		separate();
+		quote(value);
+		return this;
+	}
+
+
+	/**
+	 * Writes a numeric value.
+	 *
+	 * @param value The integer to be written.
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	JSONStreamWriter value(long value) throws IOException {
+		separate();
+		out.write(Long.toString(value));
+		return this;
+	}
+
+
+	/**
+	 * Flushes the underlying {@code Writer}.
+	 *
+	 * @throws IOException If the text cannot be written.
+	 */
+	void flush() throws IOException {
+		out.flush();
+	}
+
+
+	/**
+	 * Writes the separator (and indentation) preceding a new value or name.
+	 *
+	 * @throws IOException If the text cannot be written.
+	 */
+	private void separate() throws IOException {
+		if (afterName) { // Values directly follow their names.
+			afterName = false;
+			return;
+		}
+		if (depth == 0) return; // The document's top-level value.
+		if (!empty[depth]) out.write(',');
+		empty[depth] = false;
+		newLine(depth);
+	}
+
+
+	/**
+	 * Opens a container with the passed bracket.
+	 *
+	 * @param bracket The opening bracket of the container.
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	private JSONStreamWriter open(char bracket) throws IOException {
+		separate();
+		out.write(bracket);
+		if (++ depth == empty.length) {
+			boolean[] grown = new boolean[empty.length * 2];
+			System.arraycopy(empty, 0, grown, 0, empty.length);
+			empty = grown;
+		}
+		empty[depth] = true;
+		return this;
+	}
+
+
+	/**
+	 * Closes the innermost container with the passed bracket.
+	 *
+	 * @param bracket The closing bracket of the container.
+	 * @return This writer.
+	 * @throws IOException If the text cannot be written.
+	 */
+	private JSONStreamWriter close(char bracket) throws IOException {
+		if (!empty[depth--]) newLine(depth);
+		out.write(bracket);
+		return this;
+	}
+
+
+	/**
+	 * Starts a new line indented to the passed level (if indenting).
+	 *
+	 * @param level The nesting level of the new line.
+	 * @throws IOException If the text cannot be written.
+	 */
+	private void newLine(int level) throws IOException {
+		if (indent == 0) return;
+		out.write('\n');
+		for (int i = level * indent; i > 0; i --)
+			out.write(' ');
+	}
+
+
+	/**
+	 * Writes a quoted, escaped JSON string.
+	 *
+	 * @param s The string to be written.
+	 * @throws IOException If the text cannot be written.
+	 */
+	private void quote(String s) throws IOException {
+		out.write('"');
+		int start = 0; // Start of the run of characters needing no escape.
+		for (int i = 0; i < s.length(); i ++) {
+			char c = s.charAt(i);
+			if (c >= 0x20 && c != '"' && c != '\\') continue;
+			out.write(s, start, i - start);
+			start = i + 1;
+			switch (c) {
+				case '"':	out.write("\\\""); break;
+				case '\\':	out.write("\\\\"); break;
+				case '\n':	out.write("\\n"); break;
+				case '\r':	out.write("\\r"); break;
+				case '\t':	out.write("\\t"); break;
+				case '\b':	out.write("\\b"); break;
+				case '\f':	out.write("\\f"); break;
+				default:	out.write(String.format("\\u%04x", (int) c));
+			}
+		}
+		out.write(s, start, s.length() - start);
+		out.write('"');
+	}
+}
@@ -0,0 +1,118 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// LoadGenerator.java
+// ======================================================
+
+import java.util.ArrayList;
+import java.util.Random;
+import samples.*;
+
+
+/**
+ * Source of sample objects of a given size, created programmatically (with
+ * random values) rather than by the user, to drive the Sender without a
+ * terminal. Each call returns a new object graph, unless changes are asked
+ * for: the same {@code ArrayListContainer} is then returned every time, with
+ * a few of its elements replaced since the previous call, as the objects of
+ * a session would be.
+ */
+class LoadGenerator {
+	// The names of the samples that can be generated.
+	static final String SAMPLES = "simple, cyclic, primitive, objects or list";
+
+	private final String sample;	// The name of the sample generated.
+	private final int size;	// The number of elements of each object.
+	private final int changes;	// Elements replaced per call, or -1.
+	private final Random random;
+	// The list of the container returned every time (if changes are made).
+	private ArrayList<Simple> kept = null;
+	private ArrayListContainer container = null;
+
+
+	/**
+	 * Creates a generator of sample objects.
+	 *
+	 * @param sample The name of the sample, as listed by {@code SAMPLES}.
+	 * @param size The number of elements of the lists, arrays and cycles.
+	 * @param changes The number of elements to replace from one call to the
+	 * next in a single list, or -1 to create a new object on every call.
+	 * @param seed The seed of the random values.
+	 * @throws IllegalArgumentException If the sample is unknown, the size is
+	 * negative or changes are asked for another sample than "list".
+	 */
+	LoadGenerator(String sample, int size, int changes, long seed) {
+		switch (sample) {
+			case "simple": case "cyclic": case "primitive": case "objects":
+			case "list":
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown sample \""
+					+ sample + "\" (use " + SAMPLES + ").");
+		}
+		if (size < 0)
+			throw new IllegalArgumentException("Negative size: " + size);
+		if (changes >= 0 && !sample.equals("list"))
+			throw new IllegalArgumentException(
+				"Changes only apply to the list sample.");
+		this.sample = sample;
+		this.size = size;
+		this.changes = changes;
+		this.random = new Random(seed);
+	}
+
+
+	/**
+	 * Returns the next object to send.
+	 *
+	 * @return A new sample object, or the same list with some elements
+	 * replaced.
+	 */
+	Object next() {
+		if (changes >= 0) {
+			if (container == null) {
+				kept = simples();
+				container = new ArrayListContainer(kept);
+			} else if (size > 0) {
+				for (int i = 0; i < changes; i ++)
+					kept.set(random.nextInt(size), simple());
+			}
+			return container;
+		}
+
+		switch (sample) {
+			case "simple": return simple();
+			case "cyclic": return new Cyclic(integers());
+			case "primitive": return new PrimitiveArray(integers());
+			case "objects": return new ObjectArray(simples());
+			default: return new ArrayListContainer(simples());
+		}
+	}
+
+
+	/**
+	 * Returns a {@code Simple} with random values.
+	 */
+	private Simple simple() {
+		return new Simple(random.nextInt(), random.nextBoolean());
+	}
+
+
+	/**
+	 * Returns a list of random {@code Simple}s of the generator's size.
+	 */
+	private ArrayList<Simple> simples() {
+		ArrayList<Simple> list = new ArrayList<Simple>(size);
+		for (int i = 0; i < size; i ++) list.add(simple());
+		return list;
+	}
+
+
+	/**
+	 * Returns a list of random integers of the generator's size.
+	 */
+	private ArrayList<Integer> integers() {
+		ArrayList<Integer> list = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i ++) list.add(random.nextInt());
+		return list;
+	}
+}
@@ -0,0 +1,270 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// PrimitiveParser.java
+// ======================================================
+
+/**
+ * Parses primitive values from a run of characters in a buffer, so decoders
+ * can read values straight from their input without creating a
+ * {@code String} (or a wrapper) per value. Values are read the way the
+ * {@code parse} methods of the wrapper classes read the text written by their
+ * {@code toString} methods, and malformed values raise the same
+ * {@code NumberFormatException}s.
+ */
+final class PrimitiveParser {
+	// Powers of ten that are exactly representable as doubles and floats.
+	private static final double[] DOUBLE_POWERS = new double[23];
+	private static final float[] FLOAT_POWERS = new float[11];
+	static {
+		DOUBLE_POWERS[0] = 1;
+		for (int i = 1; i < DOUBLE_POWERS.length; i ++)
+			DOUBLE_POWERS[i] = DOUBLE_POWERS[i - 1] * 10;
+		FLOAT_POWERS[0] = 1;
+		for (int i = 1; i < FLOAT_POWERS.length; i ++)
+			FLOAT_POWERS[i] = FLOAT_POWERS[i - 1] * 10;
+	}
+
+
+	private PrimitiveParser() {}
+
+
+	/**
+	 * Returns whether the passed text is "null" (a null reference).
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return Whether the text is "null".
+	 */
+	static boolean isNull(char[] s, int off, int len) {
+		return len == 4 && s[off] == 'n' && s[off + 1] == 'u'
+			&& s[off + 2] == 'l' && s[off + 3] == 'l';
+	}
+
+
+	/**
+	 * Parses a boolean as {@code Boolean.parseBoolean} does: "true" in any
+	 * case is true and anything else false.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return The value of the text.
+	 */
+	static boolean parseBoolean(char[] s, int off, int len) {
+		if (len != 4) return false;
+		String expected = "true";
+		for (int i = 0; i < 4; i ++)
+			if (Character.toLowerCase(s[off + i]) != expected.charAt(i))
+				return false;
+		return true;
+	}
+
+
+	/**
+	 * Parses a character: the first character of the text.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return The value of the text.
+	 * @throws NumberFormatException If the text is empty.
+	 */
+	static char parseChar(char[] s, int off, int len) {
+		if (len == 0) throw new NumberFormatException("Missing character");
+		return s[off];
+	}
+
+
+	static byte parseByte(char[] s, int off, int len) {
+		int v = parseInt(s, off, len);
+		if (v < Byte.MIN_VALUE || v > Byte.MAX_VALUE) throw error(s, off, len);
+		return (byte) v;
+	}
+
+	static short parseShort(char[] s, int off, int len) {
+		int v = parseInt(s, off, len);
+		if (v < Short.MIN_VALUE || v > Short.MAX_VALUE)
+			throw error(s, off, len);
+		return (short) v;
+	}
+
+	static int parseInt(char[] s, int off, int len) {
+		long v = parseLong(s, off, len);
+		if (v < Integer.MIN_VALUE || v > Integer.MAX_VALUE)
+			throw error(s, off, len);
+		return (int) v;
+	}
+
+
+	/**
+	 * Parses a decimal integer with an optional sign, as
+	 * {@code Long.parseLong} does.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return The value of the text.
+	 * @throws NumberFormatException If the text is not a {@code long}.
+	 */
+	static long parseLong(char[] s, int off, int len) {
+		int i = off, end = off + len;
+		boolean negative = false;
+		if (len > 0 && (s[i] == '-' || s[i] == '+'))
+			negative = s[i ++] == '-';
+		if (i == end) throw error(s, off, len);
+
+		// Accumulate negatively, as the negative range is the larger one.
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long result = 0;
+		for (; i < end; i ++) {
+			int d = s[i] - '0';
+			if (d < 0 || d > 9 || result < limit / 10) throw error(s, off, len);
+			result *= 10;
+			if (result < limit + d) throw error(s, off, len);
+			result -= d;
+		}
+		return negative ? result : -result;
+	}
+
+
+	/**
+	 * Parses a float as {@code Float.parseFloat} does. Plain decimals of up
+	 * to 7 significant digits (all the text {@code Float.toString} writes for
+	 * most values) are converted exactly by a single floating-point operation;
+	 * other text is handed to {@code Float.parseFloat}.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return The value of the text.
+	 * @throws NumberFormatException If the text is not a float.
+	 */
+	static float parseFloat(char[] s, int off, int len) {
+		long digits = scanDecimal(s, off, len);
+		if (digits != NOT_SIMPLE) {
+			long mantissa = mantissa(digits);
+			int exponent = exponent(digits);
+			if (mantissa < (1 << 24) && Math.abs(exponent) <= 10) {
+				float v = exponent >= 0
+					? (float) mantissa * FLOAT_POWERS[exponent]
+					: (float) mantissa / FLOAT_POWERS[-exponent];
+				return s[off] == '-' ? -v : v;
+			}
+		}
+		return Float.parseFloat(new String(s, off, len));
+	}
+
+
+	/**
+	 * Parses a double as {@code Double.parseDouble} does. Plain decimals of up
+	 * to 15 significant digits are converted exactly by a single
+	 * floating-point operation; other text is handed to
+	 * {@code Double.parseDouble}.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return The value of the text.
+	 * @throws NumberFormatException If the text is not a double.
+	 */
+	static double parseDouble(char[] s, int off, int len) {
+		long digits = scanDecimal(s, off, len);
+		if (digits != NOT_SIMPLE) {
+			long mantissa = mantissa(digits);
+			int exponent = exponent(digits);
+			if (mantissa < (1L << 53) && Math.abs(exponent) <= 22) {
+				double v = exponent >= 0
+					? (double) mantissa * DOUBLE_POWERS[exponent]
+					: (double) mantissa / DOUBLE_POWERS[-exponent];
+				return s[off] == '-' ? -v : v;
+			}
+		}
+		return Double.parseDouble(new String(s, off, len));
+	}
+
+
+	// Result of scanDecimal for text it does not handle.
+	private static final long NOT_SIMPLE = -1;
+
+
+	/**
+	 * Scans a plain decimal: an optional '-', digits with an optional
+	 * fraction and an optional exponent (as in "-12.5E-3"). The decimal's
+	 * significant digits and exponent are returned packed into a long, as
+	 * {@code mantissa * 10^exponent} with the mantissa in the low 54 bits and
+	 * the exponent (biased by 512) in the high bits.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return The packed mantissa and exponent, or {@code NOT_SIMPLE} if the
+	 * text is not a plain decimal of at most 16 significant digits.
+	 */
+	private static long scanDecimal(char[] s, int off, int len) {
+		int i = off, end = off + len;
+		if (i < end && s[i] == '-') i ++;
+		long mantissa = 0;
+		int significant = 0, exponent = 0, digits = 0;
+
+		// The integer part, then the fraction.
+		for (boolean fraction = false; i < end; i ++) {
+			char c = s[i];
+			if (c == '.' && !fraction) {
+				fraction = true;
+				continue;
+			}
+			if (c < '0' || c > '9') break;
+			digits ++;
+			// Leading zeros aren't significant.
+			if (mantissa == 0 && c == '0') {
+				if (fraction) exponent --;
+				continue;
+			}
+			if (++ significant > 16) return NOT_SIMPLE;
+			mantissa = mantissa * 10 + (c - '0');
+			if (fraction) exponent --;
+		}
+		if (digits == 0) return NOT_SIMPLE;
+
+		// The exponent.
+		if (i < end && (s[i] == 'e' || s[i] == 'E')) {
+			boolean negative = false;
+			if (++ i < end && (s[i] == '-' || s[i] == '+'))
+				negative = s[i ++] == '-';
+			if (i == end || end - i > 3) return NOT_SIMPLE;
+			int e = 0;
+			for (; i < end; i ++) {
+				if (s[i] < '0' || s[i] > '9') return NOT_SIMPLE;
+				e = e * 10 + (s[i] - '0');
+			}
+			exponent += negative ? -e : e;
+		}
+		if (i != end) return NOT_SIMPLE;
+		if (mantissa == 0) exponent = 0;
+		if (exponent < -511 || exponent > 511) return NOT_SIMPLE;
+		return ((long) (exponent + 512) << 54) | mantissa;
+	}
+
+	private static long mantissa(long digits) {
+		return digits & ((1L << 54) - 1);
+	}
+
+	private static int exponent(long digits) {
+		return (int) (digits >>> 54) - 512;
+	}
+
+
+	/**
+	 * Returns the exception reporting malformed text.
+	 *
+	 * @param s The buffer holding the text.
+	 * @param off The index of the first character of the text.
+	 * @param len The length of the text.
+	 * @return An exception to be thrown.
+	 */
+	private static NumberFormatException error(char[] s, int off, int len) {
+		return new NumberFormatException(
+			"For input string: \"" + new String(s, off, len) + "\"");
+	}
+}
@@ -0,0 +1,270 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// ReceivePipeline.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Staged receipt of the objects sent over one connection: the calling thread
+ * reads the frames, a pool of workers deserializes them, and an output thread
+ * prints the objects in the order they were sent. The stages hand frames over
+ * through bounded queues, so a slow stage holds back the ones before it
+ * rather than letting frames pile up, but a slow visualization no longer
+ * keeps the connection from being read (until the queues fill up).
+ * <p>
+ * Each worker has a decompressor of its own, and a deserializer for each
+ * encoding the frames it handles name, so one connection may mix encodings.
+ * Messages of a binary session depend on the previous ones, so sessions are
+ * deserialized by a single worker.
+ * <p>
+ * A frame that fails to be deserialized or printed, even with an
+ * {@code Error} (such as a graph too deep to visualize), is reported and
+ * skipped. Should a stage stop nonetheless, the reader gives up on the
+ * connection and the other stages are interrupted, so that the Receiver
+ * never waits on a stage that is gone.
+ */
+class ReceivePipeline {
+	// Marks the end of the frames in the queues.
+	private static final Job END = new Job(null);
+	// How long to wait on a full queue before checking its stage is alive.
+	private static final long LIVENESS_MS = 100;
+
+	private final CommandLine cmd;	// Configures the deserializers.
+	private final int workers;	// The number of deserializing threads.
+	private final boolean quiet;	// Whether to skip printing the objects.
+	// Frames waiting for a worker, and objects waiting to be printed (in the
+	// order they were sent).
+	private final BlockingQueue<Job> toDeserialize;
+	private final BlockingQueue<Job> toOutput;
+	// The depth of each queue as the reader adds to it.
+	private final Depth deserializeDepth = new Depth();
+	private final Depth outputDepth = new Depth();
+
+
+	/**
+	 * A frame on its way through the pipeline, and the object it holds once
+	 * deserialized.
+	 */
+	private static final class Job {
+		final Frame frame;
+		final CompletableFuture<Object> object
+			= new CompletableFuture<Object>();
+
+		Job(Frame frame) {
+			this.frame = frame;
+		}
+	}
+
+
+	/**
+	 * Statistics of the depth of a queue, sampled each time it grows. Only
+	 * updated by the reading thread.
+	 */
+	private static final class Depth {
+		private long samples = 0;
+		private long total = 0;
+		private int max = 0;
+
+		void sample(int depth) {
+			samples ++;
+			total += depth;
+			max = Math.max(max, depth);
+		}
+
+		@Override
+		public String toString() {
+			return String.format("mean %.1f, max %d",
+				samples == 0 ? 0.0 : total / (double) samples, max);
+		}
+	}
+
+
+	/**
+	 * Creates the pipeline of a connection.
+	 *
+	 * @param cmd The arguments, configuring the deserializers.
+	 * @param workers The number of deserializing threads (1 in a session).
+	 * @param depth The capacity of each queue.
+	 * @param quiet Whether to skip printing the objects.
+	 */
+	ReceivePipeline(CommandLine cmd, int workers, int depth, boolean quiet) {
+		this.cmd = cmd;
+		this.workers = cmd.hasFlag("session") ? 1 : workers;
+		this.quiet = quiet;
+		toDeserialize = new ArrayBlockingQueue<Job>(depth);
+		toOutput = new ArrayBlockingQueue<Job>(depth);
+	}
+
+
+	/**
+	 * Reads the frames of a connection until the Sender closes it, while the
+	 * other stages deserialize and print them, and returns once all of them
+	 * are printed.
+	 *
+	 * @param reader The frames of the connection.
+	 * @param name The name of the connection in the output (possibly "").
+	 * @param counters Count the frames read.
+	 * @throws IOException If the connection fails (once the frames read
+	 * before are printed), or a stage stopped.
+	 */
+	void run(FrameReader reader, String name, Throughput... counters)
+	throws IOException {
+		Thread[] deserializers = new Thread[workers];
+		for (int i = 0; i < workers; i ++) {
+			deserializers[i] = new Thread(() -> deserialize(reader),
+				"Deserializer " + (i + 1) + name);
+		}
+		Thread output = new Thread(() -> output(name), "Output" + name);
+		for (Thread t : deserializers) t.start();
+		output.start();
+
+		try {
+			for (Frame frame; (frame = reader.next()) != null; ) {
+				for (Throughput t : counters) t.record(frame.size());
+				Job job = new Job(frame);
+				// Reserve the object's place in the output first.
+				if (!handOver(toOutput, job, output)
+				|| !handOver(toDeserialize, job, deserializers))
+					throw new IOException("A stage of the pipeline stopped");
+				outputDepth.sample(toOutput.size());
+				deserializeDepth.sample(toDeserialize.size());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while reading");
+		} finally {
+			// Let the other stages finish what was read, then stop, unless
+			// one of them is gone.
+			try {
+				boolean ended = true;
+				for (int i = 0; i < workers; i ++)
+					ended &= handOver(toDeserialize, END, deserializers);
+				ended &= handOver(toOutput, END, output);
+				if (!ended) {
+					for (Thread t : deserializers) t.interrupt();
+					output.interrupt();
+				}
+				for (Thread t : deserializers) t.join();
+				output.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	/**
+	 * Adds a job to the queue of a stage, waiting for room as long as a
+	 * thread of the stage is alive to make some.
+	 *
+	 * @param queue The queue of the stage.
+	 * @param job The job.
+	 * @param stage The threads of the stage.
+	 * @return Whether the job was added, rather than every thread of the
+	 * stage having stopped.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private static boolean handOver(BlockingQueue<Job> queue, Job job,
+	Thread... stage) throws InterruptedException {
+		while (!queue.offer(job, LIVENESS_MS, TimeUnit.MILLISECONDS)) {
+			boolean alive = false;
+			for (Thread t : stage) alive |= t.isAlive();
+			if (!alive) return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns the statistics of the depths of the queues.
+	 *
+	 * @return A line describing the depth of each queue.
+	 */
+	String depths() {
+		return "deserialize queue " + deserializeDepth
+			+ "; output queue " + outputDepth;
+	}
+
+
+	/**
+	 * Deserializes frames (on a worker thread) until the end of the frames,
+	 * returning their buffers to the reader. Every frame taken is completed,
+	 * with its object or whatever was thrown instead.
+	 *
+	 * @param reader The reader the frames come from.
+	 */
+	private void deserialize(FrameReader reader) {
+		// The deserializer of each codec (created on first use).
+		Serialize[] serializers = new Serialize[Frame.BINARY + 1];
+		try (FrameCompressor frames = cmd.createCompressor()) {
+			for (Job job; (job = toDeserialize.take()) != END; ) {
+				Frame frame = job.frame;
+				try {
+					frame.verify();
+					if (serializers[frame.codec] == null)
+						serializers[frame.codec]
+							= cmd.createSerializer(Frame.mode(frame.codec));
+					Serialize serial = serializers[frame.codec];
+					// Deserialize from the frame's buffer, decompressed if
+					// need be, no larger than its payload.
+					InputStream payload = frame.open();
+					serial.setInputLimit(frame.buffer.limit());
+					if ((frame.flags & Frame.COMPRESSED) != 0) {
+						payload = frames.inflate(payload);
+						serial.setInputLimit(Frame.MAX_LENGTH);
+					}
+					job.object.complete(serial.deserializeObject(payload));
+				} catch (Throwable e) {
+					job.object.completeExceptionally(e);
+				} finally {
+					reader.release(job.frame);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	/**
+	 * Prints the objects (on the output thread) in the order they were sent,
+	 * as soon as each is deserialized, until the end of the frames.
+	 *
+	 * @param name The name of the connection in the output (possibly "").
+	 */
+	private void output(String name) {
+		try {
+			for (Job job; (job = toOutput.take()) != END; ) {
+				Object payloadObj = null;
+				try {
+					payloadObj = job.object.get();
+				} catch (ExecutionException e) {
+					System.out.println(
+						"Failed to deserialize object" + name + "!");
+					continue;
+				}
+				if (quiet) continue;
+
+				try {
+					// One call, so the output of connections does not mix.
+					System.out.println("New Object Received" + name + ":\n"
+						+ Visualizer.visualize(payloadObj));
+				} catch (Throwable e) {
+					// Such as a graph too deep for the visualizer.
+					System.err.println("Failed to visualize object!");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
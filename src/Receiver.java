@@ -3,77 +3,163 @@
 // Receiver.java
 // ======================================================
 
-import java.io.DataInputStream;
 import java.io.IOException;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
  * Command-line program that prints deserialized objects that were created by
  * the user. To be used in conjunction with Sender.java (a program to create and
  * send the serialized objects).
+ * <p>
+ * With the "server" flag, the Receiver keeps accepting connections and serves
+ * them concurrently, each with its own (de)serializer: on a virtual thread
+ * each if the JDK has them, or else on a pool of threads ("threads=" followed
+ * by its size, which also forces the pool). It reports the throughput of each
+ * connection as it closes, and of all of them every few seconds ("report="
+ * followed by the period). The "quiet" flag skips printing the objects.
+ * <p>
+ * Each connection is read, deserialized and printed by the stages of a
+ * {@code ReceivePipeline}: "workers=" sets the number of threads that
+ * deserialize (one per core by default, or one per connection for a server)
+ * and "depth=" the number of frames each stage may queue up.
  */
 public class Receiver {
+	// Threads serving connections when virtual threads are not available.
+	static final int DEFAULT_THREADS
+		= 4 * Runtime.getRuntime().availableProcessors();
+	// Seconds between the reports of the throughput of a server.
+	static final int DEFAULT_REPORT = 5;
+	// Frames each stage of a connection's pipeline may queue up.
+	static final int DEFAULT_DEPTH = 16;
+
+
 	public static void main(String args[]) throws IOException {
-		Serialize serial = null; // Stores the object (de)serializer.
-		// Check if the user specified that XML encoding should be used.
-		if (args.length > 0 && args[0].toLowerCase().compareTo("xml") == 0)
-			serial = new XMLSerialize();
-		else
-			serial = new JSONSerialize();
+		// Check which encoding (and options) the user specified.
+		CommandLine cmd = new CommandLine(args);
+		String mode = cmd.mode();
+		boolean server = cmd.hasFlag("server");
+		int report = DEFAULT_REPORT;
+		int workers = 1, depth = DEFAULT_DEPTH; // Configure the pipelines.
+		ExecutorService executor = null; // Serves the connections.
+		try {
+			// Fail now rather than on the first connection.
+			cmd.createSerializer();
+			cmd.createCompressor().close();
+			report = Integer.parseInt(
+				cmd.option("report", Integer.toString(DEFAULT_REPORT)));
+			int cores = Runtime.getRuntime().availableProcessors();
+			workers = Integer.parseInt(cmd.option("workers",
+				Integer.toString(server ? 1 : cores)));
+			depth = Integer.parseInt(
+				cmd.option("depth", Integer.toString(DEFAULT_DEPTH)));
+			if (workers < 1 || depth < 1)
+				throw new IllegalArgumentException(
+					"The workers and depth must be positive.");
+			if (server) executor = createExecutor(cmd);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
 
-		System.out.printf("Receiver Mode: %s\n",
-			serial.getClass() == JSONSerialize.class ? "JSON" : "XML"
-		);
-		
-		Socket sok = null; // Socket for the connection to Sender.
+		System.out.printf("Receiver Mode: %s\n", mode.toUpperCase());
+
+		ServerSocketChannel srv = null; // Accepts connections from Senders.
 		System.out.print("Waiting for connection... ");
 
 		// Create a server socket and wait for a connection from the Sender.
 		try {
-			ServerSocket srv = new ServerSocket(25678);
-			sok = srv.accept();
-			srv.close();
-		} catch (UnknownHostException e1) {
+			srv = ServerSocketChannel.open();
+			srv.bind(new InetSocketAddress(25678));
+		} catch (IOException e1) {
 			System.err.println("Unable to open socket, exiting.");
 			System.exit(1);
 		}
 
-		System.out.println("Connected!");
-		// Get the socket's input stream.
-		DataInputStream inStream = new DataInputStream(sok.getInputStream());
+		if (!server) {
+			SocketChannel sok = srv.accept();
+			srv.close();
+			System.out.println("Connected!");
+			receive(sok, "", cmd, workers, depth, new Throughput());
+			System.out.println("Sender closed. Exiting.");
+			return;
+		}
 
-		// Continuously deserialize and inspect objects.
-		while (true) {
-			// Wait for the message length to be sent in.
-			while(sok.getInputStream().available() < 4);
-			
-			// Output the object.
-			Object payloadObj = null;
-			int payloadSize = inStream.readInt();
-			if (payloadSize == 0) // Stop if the sender has closed.
-				break;
-			System.out.println("New Object Received:");
-			String payload 
-				= new String(sok.getInputStream().readNBytes(payloadSize));
-				
-			try {
-				payloadObj = serial.deserializeObject(payload);
-			} catch (Exception e) {
-				System.out.println("Failed to deserialize object!");
-				continue;
-			}
+		// Serve connections until the process is stopped.
+		ExecutorService pool = executor;
+		int threads = workers, queued = depth;
+		Throughput total = new Throughput();
+		total.printEvery("All connections", report);
+		System.out.println("Serving.");
+		for (int id = 1; ; id ++) {
+			SocketChannel sok = srv.accept();
+			String name = " (connection " + id + ")";
+			System.out.println("Connected" + name + ".");
+			pool.execute(() -> {
+				try {
+					receive(sok, name, cmd, threads, queued, total);
+					System.out.println("Sender closed" + name + ".");
+				} catch (Exception e) {
+					System.err.println("Connection failed" + name + ": " + e);
+				}
+			});
+		}
+	}
 
+
+	/**
+	 * Creates the executor serving the connections of a server: one virtual
+	 * thread per connection if available, or else a fixed pool of threads
+	 * (of which connections beyond the pool's size wait for a free thread).
+	 *
+	 * @param cmd The arguments, whose "threads" option forces a pool.
+	 * @return The new executor.
+	 */
+	static ExecutorService createExecutor(CommandLine cmd) {
+		String threads = cmd.option("threads", null);
+		if (threads == null) {
 			try {
-				System.out.println(Visualizer.visualize(payloadObj));
-			} catch (Exception e) {
-				System.err.println("Failed to visualize object!");
+				// Virtual threads (JDK 21 and later), looked up reflectively.
+				return (ExecutorService) Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			} catch (ReflectiveOperationException e) {
+				// Not available: use a pool instead.
 			}
 		}
+		return Executors.newFixedThreadPool(threads == null
+			? DEFAULT_THREADS : Integer.parseInt(threads));
+	}
 
-		System.out.println("Sender closed. Exiting.");
-		sok.close();
+
+	/**
+	 * Deserializes and prints the objects sent over a connection until the
+	 * Sender closes it, then reports the throughput of the connection and
+	 * the depths of the queues of its pipeline.
+	 *
+	 * @param sok The connection, which is closed on return.
+	 * @param name The name of the connection in the output (possibly "").
+	 * @param cmd The arguments, configuring the (de)serializers.
+	 * @param workers The number of threads deserializing the objects.
+	 * @param depth The capacity of the queues between the stages.
+	 * @param total Counts the messages of every connection.
+	 * @throws IOException If the connection fails.
+	 */
+	static void receive(SocketChannel sok, String name, CommandLine cmd,
+	int workers, int depth, Throughput total) throws IOException {
+		Throughput throughput = new Throughput();
+		ReceivePipeline pipeline = new ReceivePipeline(
+			cmd, workers, depth, cmd.hasFlag("quiet"));
+		// Read whole frames from the (blocking) channel, which sleeps until
+		// data arrives, with a buffer for each frame that may be in use.
+		try (SocketChannel channel = sok) {
+			FrameReader reader = new FrameReader(channel, depth + workers + 1);
+			pipeline.run(reader, name, throughput, total);
+		}
+		System.out.println("Received" + name + ": " + throughput.summary());
+		System.out.println("Queues" + name + ": " + pipeline.depths());
 	}
-}
\ No newline at end of file
+}
@@ -4,75 +4,103 @@
 // ======================================================
 
 import java.io.BufferedReader;
-import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.InetAddress;
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 
 /**
  * Command-line program that enables the user to create simple demo objects to
  * undergo serialization and deserialization. To be used in conjunction with
  * Receiver.java (which must be run before this program).
+ * <p>
+ * With the "generate=" option (followed by the name of a sample), the Sender
+ * runs without user interaction: it sends generated objects, without
+ * previewing them, and reports the throughput achieved.
  */
 public class Sender {
+	// Seconds a generating Sender runs for unless told otherwise.
+	static final int DEFAULT_DURATION = 10;
+	// Elements of the generated objects unless told otherwise.
+	static final int DEFAULT_SIZE = 100;
+	// Seconds between the reports of the throughput of a generating Sender.
+	static final int DEFAULT_REPORT = 1;
+
+
 	/**
 	 * 
 	 * @param args
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
-		Serialize serial = null; // Stores the object (de)serializer.
-		// Check if the user specified that XML encoding should be used.
-		if (args.length > 0 && args[0].toLowerCase().compareTo("xml") == 0)
-			serial = new XMLSerialize();
-		else
-			serial = new JSONSerialize();
+		// Check which encoding (and options) the user specified.
+		CommandLine cmd = new CommandLine(args);
+		String mode = cmd.mode();
+		Serialize serial = null; // The object (de)serializer.
+		try {
+			serial = cmd.createSerializer();
+			// Fail now rather than once connected.
+			cmd.createCompressor().close();
+			if (cmd.option("generate", null) != null) {
+				generate(cmd);
+				return;
+			}
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(1);
+		}
 
-		System.out.printf("Sender Mode: %s\n",
-			serial.getClass() == JSONSerialize.class ? "JSON" : "XML"
-		);
+		System.out.printf("Sender Mode: %s\n", mode.toUpperCase());
 
 		// Create a reader for user input.
 		BufferedReader reader
 			= new BufferedReader(new InputStreamReader(System.in));
 		String input = ""; // The user's command-line input.
 		Object payloadObj = null; // The user created object to be sent.
-		Socket sok = null; // The socket to connect to the Receiver.
+		SocketChannel sok = null; // The connection to the Receiver.
 		
 		// Create the socket and connect to the receiver.
 		try { 
-			sok = new Socket(InetAddress.getByName(null), 25678);
-		} catch (UnknownHostException e1) {
+			sok = connect();
+		} catch (IOException e1) {
 			System.err.println("Unable to open socket, exiting.");
 			System.exit(1);
 		}
 
-		// Get the socket's output stream.
-		DataOutputStream outStream = new DataOutputStream(sok.getOutputStream());
+		// Frames the messages, each serialized into its reusable buffer.
+		FrameWriter frames = cmd.createFrameWriter(sok);
 
 		// Continuously have the user create objects and send them to Receiver.
 		while (true) {
 			// Get the user to create an object.
 			payloadObj = ObjectCreator.create();
-			String payload;
 			// Serialize the object.
 			try {
-				payload = serial.serializeObject(payloadObj);
+				serial.serializeObject(payloadObj, frames.message());
 			} catch (Exception e) {
 				System.out.println("Failed to serialize object!");
 				continue;
 			}
 
-			// Preview and send the object.
-			System.out.println("\nJSON Serialized Object Preview:");
-			System.out.println(payload);
-			outStream.writeInt(payload.length());
-			sok.getOutputStream().write(payload.getBytes());
-			sok.getOutputStream().flush();
-			System.out.println("Object sent!");
+			// Preview and send the object (binary payloads are not printable).
+			ByteBuffer payload = frames.written();
+			System.out.printf("\n%s Serialized Object Preview (%d bytes):\n",
+				mode.toUpperCase(), payload.remaining());
+			if (!(serial instanceof BinarySerialize))
+				System.out.println(serial.getCharset().decode(payload));
+			frames.send();
+			if (frames.sentPayload() < frames.written().remaining())
+				System.out.printf("Object sent! (compressed to %d bytes)\n",
+					frames.sentPayload());
+			else
+				System.out.println("Object sent!");
 
 			boolean finished = false;
 
@@ -95,7 +123,121 @@ public class Sender {
 		}
 
 		// Close the receiver and the socket.
-		outStream.writeInt(0);
+		frames.end();
 		sok.close();
+		frames.close();
+	}
+
+
+	/**
+	 * Opens a connection to the Receiver (on this host).
+	 *
+	 * @return The connection, in blocking mode.
+	 * @throws IOException If the Receiver cannot be reached.
+	 */
+	static SocketChannel connect() throws IOException {
+		SocketChannel sok = SocketChannel.open(
+			new InetSocketAddress(InetAddress.getLoopbackAddress(), 25678));
+		// Frames are written whole, so send them without delay.
+		sok.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		return sok;
+	}
+
+
+	/**
+	 * Sends generated objects of the sample named by the "generate" option,
+	 * with "size=" elements each, over "connections=" connections at once,
+	 * for "duration=" seconds or until each connection sent "count=" objects
+	 * (whichever comes first), at "rate=" objects per second in all or as
+	 * fast as possible. The throughput is reported every "report=" seconds
+	 * and once all is sent.
+	 *
+	 * @param cmd The arguments.
+	 * @throws IllegalArgumentException If an option is invalid.
+	 * @throws IOException If the Receiver cannot be reached.
+	 */
+	static void generate(CommandLine cmd) throws IOException {
+		String sample = cmd.option("generate", null).toLowerCase();
+		int size = Integer.parseInt(
+			cmd.option("size", Integer.toString(DEFAULT_SIZE)));
+		int changes = Integer.parseInt(cmd.option("changes", "-1"));
+		int connections = Integer.parseInt(cmd.option("connections", "1"));
+		String count = cmd.option("count", null);
+		long perConnection = count == null
+			? Long.MAX_VALUE : Long.parseLong(count);
+		// Run for the default duration, unless only a count was given.
+		String duration = cmd.option("duration",
+			count == null ? Integer.toString(DEFAULT_DURATION) : null);
+		long deadline = duration == null ? Long.MAX_VALUE : System.nanoTime()
+			+ TimeUnit.SECONDS.toNanos(Long.parseLong(duration));
+		double rate = Double.parseDouble(cmd.option("rate", "0"));
+		int report = Integer.parseInt(
+			cmd.option("report", Integer.toString(DEFAULT_REPORT)));
+		if (connections < 1)
+			throw new IllegalArgumentException("Need at least one connection.");
+		// Check the sample and size before connecting.
+		new LoadGenerator(sample, size, changes, 0);
+
+		System.out.printf("Sender Mode: %s, generating %s (%d elements)\n",
+			cmd.mode().toUpperCase(), sample, size);
+		Throughput total = new Throughput();
+		ScheduledExecutorService reporter = total.printEvery("Sent", report);
+		Thread[] threads = new Thread[connections];
+		for (int i = 0; i < connections; i ++) {
+			LoadGenerator objects = new LoadGenerator(sample, size, changes, i);
+			threads[i] = new Thread(() -> {
+				try {
+					load(cmd, objects, perConnection, deadline,
+						rate / connections, total);
+				} catch (Exception e) {
+					System.err.println("Failed to send: " + e);
+				}
+			}, "Sender " + (i + 1));
+			threads[i].start();
+		}
+		for (Thread t : threads) {
+			try {
+				t.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		reporter.shutdown();
+		System.out.println("Sent in all: " + total.summary());
+	}
+
+
+	/**
+	 * Sends generated objects over a new connection to the Receiver, then
+	 * closes it.
+	 *
+	 * @param cmd The arguments, configuring the serializer.
+	 * @param objects The objects to send.
+	 * @param count The number of objects to send at most.
+	 * @param deadline The {@code System.nanoTime} after which to stop.
+	 * @param rate The objects to send per second, or 0 for no limit.
+	 * @param total Counts the messages sent (over every connection).
+	 * @throws Exception If an object cannot be serialized or sent.
+	 */
+	static void load(CommandLine cmd, LoadGenerator objects, long count,
+	long deadline, double rate, Throughput total) throws Exception {
+		// A serializer of the connection's own (as sessions are stateful).
+		Serialize serial = cmd.createSerializer();
+		try (SocketChannel sok = connect();
+		FrameWriter frames = cmd.createFrameWriter(sok)) {
+			long start = System.nanoTime();
+			for (long i = 0; i < count && System.nanoTime() < deadline; i ++) {
+				if (rate > 0) {
+					// Wait for the time this object is due.
+					long due = start + (long) (i * 1e9 / rate);
+					for (long wait; (wait = due - System.nanoTime()) > 0; )
+						LockSupport.parkNanos(wait);
+				}
+				serial.serializeObject(objects.next(), frames.message());
+				total.record(frames.send());
+			}
+			frames.end();
+		}
 	}
 }
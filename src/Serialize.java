@@ -3,12 +3,63 @@
 // Serialize.java
 // ======================================================
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedList;
+
 
 /**
- * Class for Java object serialization and deserialization to and
- * {@code String}.
+ * Class for Java object serialization and deserialization to and from byte
+ * streams (and {@code String}s). Once configured, an instance keeps no state
+ * from one call to the next (except within a binary session), so threads may
+ * share it as long as its settings no longer change.
  */
 public abstract class Serialize {
+	// Whether primitive arrays are written as a single packed value.
+	protected boolean packArrays = false;
+	// Whether classes are defined once per message and objects refer to them
+	// by index, with positional field values.
+	protected boolean useDictionary = false;
+	// Resolves (and restricts) the classes named by serialized documents.
+	protected ClassResolver classResolver = new ClassResolver();
+	// The size of the largest document deserialized.
+	protected int inputLimit = Integer.MAX_VALUE;
+
+
+	/**
+	 * Serializes the passed object to the passed stream. The stream is
+	 * flushed but not closed.
+	 * 
+	 * @param source The object to be serialized.
+	 * @param out The stream to write the serialization to.
+	 * @throws Exception If the object cannot be serialized or written.
+	 */
+	public abstract void serializeObject(Object source, OutputStream out)
+	throws Exception;
+
+
+	/**
+	 * Deserializes the object stored in the passed stream. The stream is read
+	 * up to the end of the serialization (or further, as the reading may be
+	 * buffered), so it should hold a single serialization.
+	 * 
+	 * @param source A stream to be deserialized.
+	 * @return The object expressed by the stream.
+	 * @throws Exception If the stream cannot be read or deserialized.
+	 */
+	public abstract Object deserializeObject(InputStream source)
+	throws Exception;
+
+
 	/**
 	 * Serializes the passed object and returns it as an encoded {@code String}.
 	 * 
@@ -16,7 +67,11 @@ public abstract class Serialize {
 	 * @return The serialization of the passed object.
 	 * @throws Exception If the object cannot be serialized.
 	 */
-	public abstract String serializeObject(Object source) throws Exception;
+	public String serializeObject(Object source) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		serializeObject(source, out);
+		return out.toString(getCharset());
+	}
 
 
 	/**
@@ -26,56 +81,468 @@ public abstract class Serialize {
 	 * @return The object expressed by the passed string.
 	 * @throws Exception If the string cannot be deserialized.
 	 */
-	public abstract Object deserializeObject(String source) throws Exception;
+	public Object deserializeObject(String source) throws Exception {
+		return deserializeObject(
+			new ByteArrayInputStream(source.getBytes(getCharset())));
+	}
 
 
 	/**
-	 * Parses the passed string value as the specified primitive type.
+	 * Returns the charset that converts the {@code String} produced by
+	 * {@code serializeObject} to and from the bytes sent over the wire.
 	 * 
-	 * @param type The primitive type to be used to interpret the value.
-	 * @param value The value to be parsed.
-	 * @return An object of the type specified and of valued passed.
-	 * @throws Exception If the passed type is not a primitive.
-	 * @throws NumberFormatException If the string cannot be interpreted as the
-	 * expected numeric type.
-	 */
-	protected static Object extractPrimitive(Class<?> type, String value)
+	 * @return The charset of serialized strings (UTF-8 unless overridden).
+	 */
+	public Charset getCharset() {
+		return StandardCharsets.UTF_8;
+	}
+
+
+	/**
+	 * Sets whether arrays of primitives are serialized as a single base64
+	 * encoded run of their raw little-endian bytes, rather than one entry per
+	 * element. Deserialization accepts either form regardless.
+	 * 
+	 * @param packArrays Whether primitive arrays should be packed.
+	 * @return This serializer.
+	 */
+	public Serialize setPackArrays(boolean packArrays) {
+		this.packArrays = packArrays;
+		return this;
+	}
+
+
+	/**
+	 * Sets whether each class is defined once per serialization (its name and
+	 * the ordered names of its fields), with objects referring to their class
+	 * by index and listing their field values in that order. Otherwise every
+	 * object and field carries its own names. Deserialization accepts either
+	 * form regardless.
+	 * 
+	 * @param useDictionary Whether classes should be defined once.
+	 * @return This serializer.
+	 */
+	public Serialize setUseDictionary(boolean useDictionary) {
+		this.useDictionary = useDictionary;
+		return this;
+	}
+
+
+	/**
+	 * Sets the resolver of the classes named by documents being deserialized,
+	 * which decides the classes that may be instantiated. By default, every
+	 * class may be.
+	 * 
+	 * @param classResolver The resolver to be used.
+	 * @return This serializer.
+	 */
+	public Serialize setClassResolver(ClassResolver classResolver) {
+		this.classResolver = classResolver;
+		return this;
+	}
+
+
+	/**
+	 * Sets the size of the largest document to be deserialized, such as the
+	 * size of a message received. The lengths documents declare (of arrays
+	 * and collections, and of strings in binary) are checked against it
+	 * before anything is allocated for them, binary messages going as far as
+	 * checking against the bytes they have left, so a short document cannot
+	 * make the deserializer allocate more than in proportion to this size.
+	 * By default, documents may be of any size.
+	 *
+	 * @param inputLimit The size (in bytes) of the largest document.
+	 * @return This serializer.
+	 */
+	public Serialize setInputLimit(int inputLimit) {
+		this.inputLimit = inputLimit;
+		return this;
+	}
+
+
+	/**
+	 * Returns the ID of an object referenced by an object being serialized.
+	 * Objects referenced for the first time are given the next sequential ID
+	 * and pushed onto the stack of objects yet to be serialized.
+	 *
+	 * @param value The (non-null) referenced object.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @return The ID of the referenced object.
+	 */
+	protected static int referenceId(
+	Object value, IdentityTable ids, LinkedList<Object> todo) {
+		int count = ids.size();
+		int id = ids.assign(value);
+		if (id == count) // First encounter: serialize it later.
+			todo.push(value);
+		return id;
+	}
+
+
+	/**
+	 * Returns the textual form of a reference to the passed object: its ID, or
+	 * "null". Referenced objects not yet encountered are queued for
+	 * serialization.
+	 *
+	 * @param value The referenced object (possibly {@code null}).
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @return The reference as it is written in textual formats.
+	 */
+	protected static String referenceText(
+	Object value, IdentityTable ids, LinkedList<Object> todo) {
+		if (value == null) return "null";
+		return Integer.toString(referenceId(value, ids, todo));
+	}
+
+
+	/**
+	 * Returns the textual value of a primitive field without boxing it.
+	 *
+	 * @param f The descriptor of the primitive field to be read.
+	 * @param source The object whose field is read.
+	 * @return The value of the field as it would be printed by its wrapper.
+	 * @throws Exception If the field is not primitive or cannot be read.
+	 */
+	protected static String encodePrimitive(FieldDescriptor f, Object source)
+	throws Exception {
+		FieldAccessor a = f.accessor;
+		switch (f.typeCode) {
+			case 'Z': return Boolean.toString(a.getBoolean(source));
+			case 'B': return Byte.toString(a.getByte(source));
+			case 'C': return String.valueOf(a.getChar(source));
+			case 'S': return Short.toString(a.getShort(source));
+			case 'I': return Integer.toString(a.getInt(source));
+			case 'J': return Long.toString(a.getLong(source));
+			case 'F': return Float.toString(a.getFloat(source));
+			case 'D': return Double.toString(a.getDouble(source));
+			default: throw new Exception("Invalid primitive type: " + f.type);
+		}
+	}
+
+
+	/**
+	 * Parses the passed text and stores it in a primitive field without
+	 * boxing it (or copying the text out of its buffer).
+	 *
+	 * @param f The descriptor of the primitive field to be written.
+	 * @param target The object whose field is written.
+	 * @param text The buffer holding the value to be parsed.
+	 * @param off The index of the first character of the value.
+	 * @param len The length of the value.
+	 * @throws Exception If the field is not primitive or cannot be written.
+	 * @throws NumberFormatException If the text cannot be interpreted as the
+	 * field's type.
+	 */
+	protected static void decodePrimitive(FieldDescriptor f, Object target,
+	char[] text, int off, int len) throws Exception {
+		FieldAccessor a = f.accessor;
+		switch (f.typeCode) {
+			case 'Z': a.setBoolean(target,
+				PrimitiveParser.parseBoolean(text, off, len)); break;
+			case 'B': a.setByte(target,
+				PrimitiveParser.parseByte(text, off, len)); break;
+			case 'C': a.setChar(target,
+				PrimitiveParser.parseChar(text, off, len)); break;
+			case 'S': a.setShort(target,
+				PrimitiveParser.parseShort(text, off, len)); break;
+			case 'I': a.setInt(target,
+				PrimitiveParser.parseInt(text, off, len)); break;
+			case 'J': a.setLong(target,
+				PrimitiveParser.parseLong(text, off, len)); break;
+			case 'F': a.setFloat(target,
+				PrimitiveParser.parseFloat(text, off, len)); break;
+			case 'D': a.setDouble(target,
+				PrimitiveParser.parseDouble(text, off, len)); break;
+			default: throw new Exception("Invalid primitive type: " + f.type);
+		}
+	}
+
+
+	/**
+	 * Returns the textual value of an element of a primitive array without
+	 * boxing it.
+	 *
+	 * @param array The primitive array to be read.
+	 * @param code The type code of the array's component type.
+	 * @param index The index of the element to be read.
+	 * @return The value of the element as it would be printed by its wrapper.
+	 * @throws Exception If the array is not of a primitive component type.
+	 */
+	protected static String encodeElement(Object array, char code, int index)
+	throws Exception {
+		switch (code) {
+			case 'Z': return Boolean.toString(((boolean[]) array)[index]);
+			case 'B': return Byte.toString(((byte[]) array)[index]);
+			case 'C': return String.valueOf(((char[]) array)[index]);
+			case 'S': return Short.toString(((short[]) array)[index]);
+			case 'I': return Integer.toString(((int[]) array)[index]);
+			case 'J': return Long.toString(((long[]) array)[index]);
+			case 'F': return Float.toString(((float[]) array)[index]);
+			case 'D': return Double.toString(((double[]) array)[index]);
+			default: throw new Exception(
+				"Invalid primitive array: " + array.getClass().getName());
+		}
+	}
+
+
+	/**
+	 * Parses the passed text and stores it in an element of a primitive array
+	 * without boxing it (or copying the text out of its buffer).
+	 *
+	 * @param array The primitive array to be written.
+	 * @param code The type code of the array's component type.
+	 * @param index The index of the element to be written.
+	 * @param text The buffer holding the value to be parsed.
+	 * @param off The index of the first character of the value.
+	 * @param len The length of the value.
+	 * @throws Exception If the array is not of a primitive component type.
+	 * @throws NumberFormatException If the text cannot be interpreted as the
+	 * array's component type.
+	 */
+	protected static void decodeElement(Object array, char code, int index,
+	char[] text, int off, int len) throws Exception {
+		switch (code) {
+			case 'Z': ((boolean[]) array)[index]
+				= PrimitiveParser.parseBoolean(text, off, len); break;
+			case 'B': ((byte[]) array)[index]
+				= PrimitiveParser.parseByte(text, off, len); break;
+			case 'C': ((char[]) array)[index]
+				= PrimitiveParser.parseChar(text, off, len); break;
+			case 'S': ((short[]) array)[index]
+				= PrimitiveParser.parseShort(text, off, len); break;
+			case 'I': ((int[]) array)[index]
+				= PrimitiveParser.parseInt(text, off, len); break;
+			case 'J': ((long[]) array)[index]
+				= PrimitiveParser.parseLong(text, off, len); break;
+			case 'F': ((float[]) array)[index]
+				= PrimitiveParser.parseFloat(text, off, len); break;
+			case 'D': ((double[]) array)[index]
+				= PrimitiveParser.parseDouble(text, off, len); break;
+			default: throw new Exception(
+				"Invalid primitive array: " + array.getClass().getName());
+		}
+	}
+
+
+	/**
+	 * Returns the class an object is serialized as: its own class, or the
+	 * enum class of an enum constant that has a class body of its own.
+	 *
+	 * @param o The (non-null) object to be serialized.
+	 * @return The class named in the object's serialization.
+	 */
+	protected static Class<?> serializedClass(Object o) {
+		return o instanceof Enum
+			? ((Enum<?>) o).getDeclaringClass() : o.getClass();
+	}
+
+
+	/**
+	 * Returns the textual value of a leaf (an object whose class descriptor
+	 * {@code isLeaf}): the name of an enum constant, or else the text printed
+	 * by its {@code toString} method.
+	 *
+	 * @param o The leaf to be encoded.
+	 * @return The value of the leaf.
+	 */
+	protected static String encodeLeaf(Object o) {
+		return o instanceof Enum ? ((Enum<?>) o).name() : o.toString();
+	}
+
+
+	/**
+	 * Returns the leaf of the passed class and textual value (as returned by
+	 * {@code encodeLeaf}).
+	 *
+	 * @param desc The descriptor of the leaf's class.
+	 * @param value The value of the leaf.
+	 * @return The new leaf.
+	 * @throws Exception If the class is not a leaf class or the value is not
+	 * one of its values.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	protected static Object decodeLeaf(ClassDescriptor desc, String value)
+	throws Exception {
+		switch (desc.wrappedCode) {
+			case 'Z': return Boolean.valueOf(value);
+			case 'B': return Byte.valueOf(value);
+			case 'C':
+				if (value.length() != 1)
+					throw new Exception("Invalid character: " + value);
+				return value.charAt(0);
+			case 'S': return Short.valueOf(value);
+			case 'I': return Integer.valueOf(value);
+			case 'J': return Long.valueOf(value);
+			case 'F': return Float.valueOf(value);
+			case 'D': return Double.valueOf(value);
+		}
+		Class<?> c = desc.type;
+		if (c == String.class) return value;
+		if (c == BigInteger.class) return new BigInteger(value);
+		if (c == BigDecimal.class) return new BigDecimal(value);
+		if (c.isEnum()) return Enum.valueOf((Class) c, value);
+		throw new Exception(desc.name + " is not written as a value");
+	}
+
+
+	/**
+	 * Returns the raw little-endian bytes of every element of a primitive
+	 * array (booleans as one byte each), copied in bulk.
+	 * 
+	 * @param array The primitive array to be packed.
+	 * @param code The type code of the array's component type.
+	 * @return The packed bytes of the array.
+	 * @throws Exception If the array is not of a primitive component type.
+	 */
+	protected static byte[] packArray(Object array, char code)
+	throws Exception {
+		int length = Array.getLength(array);
+		if (code == 'B') return ((byte[]) array).clone();
+		if (code == 'Z') {
+			byte[] bytes = new byte[length];
+			for (int i = 0; i < length; i ++)
+				bytes[i] = (byte) (((boolean[]) array)[i] ? 1 : 0);
+			return bytes;
+		}
+
+		ByteBuffer buf = ByteBuffer.allocate(length * elementSize(code))
+			.order(ByteOrder.LITTLE_ENDIAN);
+		switch (code) {
+			case 'C': buf.asCharBuffer().put((char[]) array); break;
+			case 'S': buf.asShortBuffer().put((short[]) array); break;
+			case 'I': buf.asIntBuffer().put((int[]) array); break;
+			case 'J': buf.asLongBuffer().put((long[]) array); break;
+			case 'F': buf.asFloatBuffer().put((float[]) array); break;
+			case 'D': buf.asDoubleBuffer().put((double[]) array); break;
+		}
+		return buf.array();
+	}
+
+
+	/**
+	 * Fills a primitive array from the bytes produced by {@code packArray}.
+	 * 
+	 * @param bytes The packed bytes of the array.
+	 * @param array The primitive array to be filled.
+	 * @param code The type code of the array's component type.
+	 * @throws Exception If the array is not of a primitive component type or
+	 * the number of bytes does not match its length.
+	 */
+	protected static void unpackArray(byte[] bytes, Object array, char code)
+	throws Exception {
+		int length = Array.getLength(array);
+		if (bytes.length != length * elementSize(code))
+			throw new Exception(String.format(
+				"Packed array of %d bytes does not hold %d elements of %s",
+				bytes.length, length, array.getClass().getName()));
+
+		ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+		switch (code) {
+			case 'Z':
+				for (int i = 0; i < length; i ++)
+					((boolean[]) array)[i] = bytes[i] != 0;
+				break;
+			case 'B': buf.get((byte[]) array); break;
+			case 'C': buf.asCharBuffer().get((char[]) array); break;
+			case 'S': buf.asShortBuffer().get((short[]) array); break;
+			case 'I': buf.asIntBuffer().get((int[]) array); break;
+			case 'J': buf.asLongBuffer().get((long[]) array); break;
+			case 'F': buf.asFloatBuffer().get((float[]) array); break;
+			case 'D': buf.asDoubleBuffer().get((double[]) array); break;
+		}
+	}
+
+
+	/**
+	 * Returns the number of bytes a packed element of the passed primitive
+	 * type occupies.
+	 * 
+	 * @param code The type code of a primitive type.
+	 * @return The size of one packed element in bytes.
+	 * @throws Exception If the type code is not of a primitive type.
+	 */
+	private static int elementSize(char code) throws Exception {
+		switch (code) {
+			case 'Z': case 'B': return 1;
+			case 'C': case 'S': return 2;
+			case 'I': case 'F': return 4;
+			case 'J': case 'D': return 8;
+			default: throw new Exception("Invalid primitive type code: " + code);
+		}
+	}
+
+
+	/**
+	 * Creates and registers a new array, or a collection whose contents are
+	 * read as an array. Collections are only filled once the whole graph has
+	 * been read (see {@code DecodeContext.registerCollection}).
+	 *
+	 * @param desc The descriptor of the array or collection class.
+	 * @param id The ID of the new array or collection.
+	 * @param length The number of elements (or values) to be read.
+	 * @param ctx The state of the current deserialization.
+	 * @return The array the elements are to be read into.
+	 * @throws Exception If the array or collection cannot be created, its
+	 * length is larger than the document may be or the ID is invalid.
+	 */
+	protected static Object registerArray(ClassDescriptor desc, int id,
+	int length, DecodeContext ctx) throws Exception {
+		ctx.checkLength(length);
+		if (desc.collection == null) {
+			Object out = createInstance(desc.type, length);
+			ctx.register(id, out);
+			return out;
+		}
+		if (length < 0)
+			throw new Exception("Missing length of collection " + desc.name);
+		Object[] contents = new Object[length];
+		ctx.registerCollection(id, desc.collection,
+			desc.collection.create(length), contents);
+		return contents;
+	}
+
+
+	/**
+	 * Returns an empty instance of the passed class, or a new array if the
+	 * class is an array type.
+	 * 
+	 * @param c The class to be instantiated.
+	 * @param length The length of the new array (if {@code c} is an array).
+	 * @return The new instance or array.
+	 * @throws Exception If the class cannot be instantiated reflectively or
+	 * is a leaf or collection class.
+	 */
+	protected static Object createInstance(Class<?> c, int length)
 	throws Exception {
-		Object newValue = null;
-		if (type == boolean.class)		newValue = Boolean.valueOf(value);
-		else if (type == short.class)	newValue = Short.valueOf(value);
-		else if (type == int.class)		newValue = Integer.valueOf(value);
-		else if (type == long.class)	newValue = Long.valueOf(value);
-		else if (type == float.class)	newValue = Float.valueOf(value);
-		else if (type == double.class)	newValue = Double.valueOf(value);
-		else if (type == byte.class)	newValue = Byte.valueOf(value);
-		else if (type == char.class)	newValue = value.charAt(0);
-		else throw new Exception("Invalid primitive type: " + type.getName());
-		return newValue;
+		// Leaves are created from their values instead (see decodeLeaf), and
+		// collections from their contents (see registerArray).
+		ClassDescriptor desc = ClassDescriptor.of(c);
+		if (desc.isLeaf || desc.collection != null)
+			throw new Exception(c.getName() + " cannot be written by field");
+		if (!c.isArray())
+			return instantiateObject(c);
+		if (length < 0)
+			throw new Exception("Missing length of array " + c.getName());
+		return Array.newInstance(c.getComponentType(), length);
 	}
 
 
 	/**
 	 * Returns an empty instance of the passed {@code Class}. The class must
-	 * define a null (no-argument) constructor.
+	 * define a null (no-argument) constructor, unless serialization
+	 * constructors are enabled (see {@code Instantiator}); primitive wrappers
+	 * are created holding zero. The constructor is looked up once per class.
 	 * 
 	 * @param c A {@code Class} to be instantiated.
 	 * @return An empty instance of the specified {@code Class}.
-	 * @throws Exception If the class cannot be instantiated reflectively.
+	 * @throws Exception If the class cannot be instantiated.
 	 */
 	protected static Object instantiateObject(Class<?> c)
 	throws Exception {
-		// Handle primitive wrappers as they don't have null constructors.
-		if (c == Boolean.class)			return Boolean.valueOf(false);
-		else if (c == Short.class)		return Short.valueOf((short) 0);
-		else if (c == Integer.class)	return Integer.valueOf(0);
-		else if (c == Long.class)		return Long.valueOf(0);
-		else if (c == Float.class)		return Float.valueOf((float) 0.0);
-		else if (c == Double.class)		return Double.valueOf(0.0);
-		else if (c == Byte.class)		return Byte.valueOf((byte) 0);
-		else if (c == Character.class)	return Character.valueOf((char) 0);
-		// Otherwise, rely on the null constructors being present in the class.
-		else
-			return c.getDeclaredConstructor().newInstance();
+		return Instantiator.of(c).newInstance();
 	}
 }
@@ -0,0 +1,111 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// Throughput.java
+// ======================================================
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Counts of the messages (and of their bytes) handled since a start time,
+ * which threads may update concurrently. Reports give the totals and rates
+ * since the start, or the rates since the previous interval report.
+ */
+class Throughput {
+	private final LongAdder objects = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final long start = System.nanoTime();
+	// The time and counts of the last interval report.
+	private long lastTime = start;
+	private long lastObjects = 0;
+	private long lastBytes = 0;
+
+
+	/**
+	 * Counts a message.
+	 *
+	 * @param size The size of the message in bytes.
+	 */
+	void record(long size) {
+		objects.increment();
+		bytes.add(size);
+	}
+
+
+	/**
+	 * Returns the number of messages counted so far.
+	 *
+	 * @return The number of messages.
+	 */
+	long objects() {
+		return objects.sum();
+	}
+
+
+	/**
+	 * Returns the totals and rates since the start.
+	 *
+	 * @return A line such as "10 objects, 1.00 MB in 2.0 s (5 objects/s,
+	 * 0.50 MB/s)".
+	 */
+	String summary() {
+		return format(objects.sum(), bytes.sum(), System.nanoTime() - start);
+	}
+
+
+	/**
+	 * Returns the totals and rates since the previous call (or the start).
+	 *
+	 * @return A line in the format of {@code summary}.
+	 */
+	synchronized String interval() {
+		long now = System.nanoTime();
+		long o = objects.sum(), b = bytes.sum();
+		String line = format(o - lastObjects, b - lastBytes, now - lastTime);
+		lastTime = now;
+		lastObjects = o;
+		lastBytes = b;
+		return line;
+	}
+
+
+	/**
+	 * Prints the interval report periodically, from a daemon thread.
+	 *
+	 * @param label The text preceding each report.
+	 * @param seconds The period of the reports.
+	 * @return The executor printing the reports, to shut down to stop them.
+	 */
+	ScheduledExecutorService printEvery(String label, int seconds) {
+		ScheduledExecutorService reporter
+			= Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread t = new Thread(r, label);
+				t.setDaemon(true);
+				return t;
+			});
+		reporter.scheduleAtFixedRate(
+			() -> System.out.println(label + ": " + interval()),
+			seconds, seconds, TimeUnit.SECONDS);
+		return reporter;
+	}
+
+
+	/**
+	 * Formats counts and their rates over a duration.
+	 *
+	 * @param o The number of messages.
+	 * @param b The number of bytes.
+	 * @param nanos The duration in nanoseconds.
+	 * @return The formatted line.
+	 */
+	private static String format(long o, long b, long nanos) {
+		double seconds = Math.max(nanos, 1) / 1e9;
+		double megabytes = b / 1e6;
+		return String.format("%d objects, %.2f MB in %.1f s "
+			+ "(%.0f objects/s, %.2f MB/s)",
+			o, megabytes, seconds, o / seconds, megabytes / seconds);
+	}
+}
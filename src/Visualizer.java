@@ -4,9 +4,9 @@
 // ======================================================
 
 import java.lang.reflect.Field;
-import java.util.LinkedList;
-import java.util.TreeMap;
-import java.util.Map.Entry;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
 import java.lang.reflect.Array;
 
 
@@ -15,11 +15,6 @@ import java.lang.reflect.Array;
  * a textual representation of the passed object.
  */
 public class Visualizer {
-    // Store the objects that have been output in a path through the object
-    // graph.
-    static protected LinkedList<Object> callStack = new LinkedList<Object>();
-
-
     /**
      * Returns a textual representation of the passed object, displaying its
      * name, hash code, length (if an array), and the values of all fields.
@@ -31,7 +26,10 @@ public class Visualizer {
      */
     public static String visualize(Object obj) throws Exception {
         Class<?> c = obj.getClass();
-        return visualizeClass(c, obj, 0);
+        // The objects output so far, by identity.
+        Set<Object> visited
+            = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+        return visualizeClass(c, obj, 0, visited);
     }
 
 
@@ -41,14 +39,14 @@ public class Visualizer {
      * @param c The class to be inspected.
      * @param obj The instance of the class being inspected.
      * @param depth The reflection recursion depth.
+     * @param visited The objects output so far.
      * @throws Exception If the class cannot be inspected reflectively.
      * @return A string that textually described the passed class.
      */
-    protected static String visualizeClass(Class<?> c, Object obj, int depth)
-    throws Exception {
-        // Prevent infinite recursion along this path.
-        if (callStack.contains(obj)) return "";
-        callStack.push(obj);
+    protected static String visualizeClass(
+    Class<?> c, Object obj, int depth, Set<Object> visited) throws Exception {
+        // Prevent infinite recursion (and output each object only once).
+        if (!visited.add(obj)) return "";
 
         // Set up the string that will store the indentation for this class.
         String indent = "\t".repeat(depth);
@@ -64,19 +62,24 @@ public class Visualizer {
 
         // If the class is an array, output the relevant details.
         if (c.isArray())
-            return out.append(visualizeArray(obj, depth, false)).toString();
+            return out.append(visualizeArray(obj, depth, false, visited))
+                .toString();
+
+        // Collections are shown by their contents, as they are serialized.
+        CollectionHandler collection = ClassDescriptor.of(c).collection;
+        if (collection != null)
+            return out.append(visualizeArray(
+                collection.contents(obj), depth, false, visited)).toString();
 
         // If the class is not an array, output a representation of its fields.
-        TreeMap<String, Field> fields = ReflectionHelper.getAllFields(c);
+        Field[] fields = ClassDescriptor.of(c).allFields;
         out.append(String.format("%1$s Fields:%2$s\n",
             indent,
-            fields.size() == 0 ? " NONE" : ""
+            fields.length == 0 ? " NONE" : ""
         ));
 
         // For each field, output its name, type, and modifiers.
-        for (Entry<String, Field> e : fields.entrySet()) {
-            Field f = e.getValue();
-            f.setAccessible(true);
+        for (Field f : fields) {
             Object value = f.get(obj);
 
             out.append(String.format("%1$s  FIELD:\n"
@@ -95,7 +98,8 @@ public class Visualizer {
 
             // Recurse if necessary.
             if (value != null && !testPrimitive(value.getClass()))
-                out.append(visualizeClass(f.getType(), value, depth + 1));
+                out.append(
+                    visualizeClass(f.getType(), value, depth + 1, visited));
         }
 
         return out.toString();
@@ -110,11 +114,12 @@ public class Visualizer {
      * @param depth The reflection recursion depth.
      * @param isField Indicates whether the array is being printed in the
      * context of a field.
+     * @param visited The objects output so far.
      * @throws Exception If the class cannot be inspected reflectively.
      * @return A string that textually described the passed array.
      */
-    protected static String visualizeArray(
-    Object array, int depth, boolean isField) throws Exception {
+    protected static String visualizeArray(Object array, int depth,
+    boolean isField, Set<Object> visited) throws Exception {
         // Grab the array class, indent string, and array length.
         Class<?> c = array.getClass();
         String indent = "\t".repeat(depth);
@@ -146,7 +151,8 @@ public class Visualizer {
             ));
             // Recurse if the component type is non-primitive.
             if (elem != null && !testPrimitive(elem.getClass()))
-                out.append(visualizeClass(elem.getClass(), elem, depth + 1));
+                out.append(
+                    visualizeClass(elem.getClass(), elem, depth + 1, visited));
         }
 
         return out.toString();
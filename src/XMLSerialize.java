@@ -3,251 +3,597 @@
 // XMLSerialize.java
 // ======================================================
 
-import java.io.ByteArrayInputStream;
+import java.io.BufferedWriter;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.lang.reflect.Array;
-import java.lang.reflect.Field;
-import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.LinkedList;
-import java.util.List;
-import java.util.TreeMap;
-import java.util.TreeSet;
 
-import org.jdom2.Document;
-import org.jdom2.Element;
-import org.jdom2.input.SAXBuilder;
-import org.jdom2.output.Format;
-import org.jdom2.output.XMLOutputter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
 
 
 /**
  * Class for Java object serialization and deserialization to and from the XML
- * format.
+ * format. Both directions are streamed with StAX: elements are written out as
+ * the object graph is walked, and read back event by event, without ever
+ * building a document tree.
  */
 class XMLSerialize extends Serialize {
+	// Shared StAX factories (configured once, then only used to create
+	// readers and writers).
+	private static final XMLOutputFactory OUTPUT_FACTORY
+		= XMLOutputFactory.newInstance();
+	private static final XMLInputFactory INPUT_FACTORY = inputFactory();
+
+
 	/**
 	 * Serializes the passed object and returns it as an XML encoded
 	 * {@code string}.
-	 * 
+	 *
 	 * @param source The object to be serialized.
 	 * @return The XML encoded serialization of the passed object.
 	 * @throws Exception If the object cannot be serialized.
 	 */
 	public String serializeObject(Object source) throws Exception {
-		// Stores the hash code values for objects arelady serialized.
-		TreeSet<Integer> seen = new TreeSet<Integer>();
+		StringWriter out = new StringWriter();
+		serializeObject(source, out);
+		return out.toString();
+	}
+
+
+	/**
+	 * Serializes the passed object as UTF-8 encoded XML to the passed stream.
+	 * The stream is flushed but not closed.
+	 *
+	 * @param source The object to be serialized.
+	 * @param out The stream to write the serialization to.
+	 * @throws Exception If the object cannot be serialized or written.
+	 */
+	public void serializeObject(Object source, OutputStream out)
+	throws Exception {
+		serializeObject(source, new BufferedWriter(
+			new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+	}
+
+
+	/**
+	 * Serializes the passed object as XML to the passed {@code Writer}. The
+	 * writer is flushed but not closed.
+	 *
+	 * @param source The object to be serialized.
+	 * @param out The writer to write the serialization to.
+	 * @throws Exception If the object cannot be serialized or written.
+	 */
+	public void serializeObject(Object source, Writer out) throws Exception {
+		// Assigns sequential IDs to objects by identity as they are found.
+		IdentityTable ids = new IdentityTable();
 		// Stores objects encountered and yet to be serialized.
 		LinkedList<Object> todo = new LinkedList<Object>();
-		// An XML document to store all serialized objects and its root element.
-		Document document = new Document();
-		Element rootElem = new Element("objects");
-		document.setRootElement(rootElem);
-		// Initialize the stack with the root object.
-		todo.push(source);
+		// Open the XML element that stores all serialized objects.
+		XMLStreamWriter xml = OUTPUT_FACTORY.createXMLStreamWriter(out);
+		xml.writeStartDocument("UTF-8", "1.0");
+		newLine(xml, 0);
+		xml.writeStartElement("objects");
+		// The classes defined so far (if objects refer to them by index).
+		ClassDictionary classes = useDictionary ? new ClassDictionary() : null;
+		// Initialize the stack with the root object (given ID 0).
+		referenceId(source, ids, todo);
 
 		// Serialize all objects 'recursively".
+		// Each object is pushed only once: when it is first given an ID.
 		while (todo.size() > 0) {
 			Object todoObj = todo.pop(); // Grab the next object to do.
-			int objHash = todoObj.hashCode(); // Grab the object's ID.
-			if (seen.contains(objHash)) // If already seen encoded, skip it.
-				continue;
-			// Otherwise, encode the object and add it to the XML structure.
-			seen.add(objHash);
-			rootElem.addContent(encodeObject(todoObj, todo));
+			encodeObject(todoObj, xml, classes, ids, todo);
 		}
-		
-		// Output the XML string.
-		XMLOutputter outer = new XMLOutputter();
-		Format fmt = outer.getFormat();
-		fmt.setTextMode(Format.TextMode.TRIM_FULL_WHITE);
-		fmt.setIndent("\t");
-		fmt.setLineSeparator("\n");
-		return outer.outputString(document);
+
+		// Close the XML document.
+		newLine(xml, 0);
+		xml.writeEndElement();
+		xml.writeEndDocument();
+		xml.writeCharacters("\n");
+		xml.flush();
+		out.flush();
 	}
 
 
 	/**
-	 * Serializes objects as XML elements.
-	 * 
+	 * Serializes objects as XML elements. Leaves (strings, boxed primitives,
+	 * big numbers and enums) are "leaf" elements holding their value as text,
+	 * and collections are "collection" elements holding their contents.
+	 * Packed primitive arrays have an "encoding" attribute of "base64" and
+	 * hold their bytes as text.
+	 * <p>
+	 * With a dictionary, objects have the index of their class as a
+	 * "class_ref" attribute and hold unnamed "value" elements in the order of
+	 * the class's definition, which is written before the class's first
+	 * object.
+	 *
 	 * @param source The object to be serialized.
+	 * @param xml The XML writer, positioned inside the "objects" element.
+	 * @param classes The classes defined so far, or {@code null} if objects
+	 * name their class and fields.
+	 * @param ids The IDs of the objects encountered so far.
 	 * @param todo A stack containing references to objects that need to be
 	 * serialized.
-	 * @return The XML element containing the serialization of {@code source}.
 	 * @throws Exception If there is an issue accessing the values of the object
 	 * being serialized.
 	 */
-	protected static Element encodeObject(
-	Object source, LinkedList<Object> todo)	throws Exception {
-		// The class of the object being serialized.
-		Class<?> c = source.getClass();
+	protected void encodeObject(Object source, XMLStreamWriter xml,
+	ClassDictionary classes, IdentityTable ids, LinkedList<Object> todo)
+	throws Exception {
+		// The class of the object being serialized and its cached descriptor.
+		Class<?> c = serializedClass(source);
+		ClassDescriptor desc = ClassDescriptor.of(c);
+		// Define the class before its first object, if using a dictionary.
+		int index = classes == null ? -1 : classes.indexOf(c);
+		if (classes != null && index < 0)
+			index = encodeDefinition(desc, xml, classes);
 		// The XML element to represent the object being serialized.
-		Element xmlObj = new Element(c.isArray() ? "array" : "object");
+		newLine(xml, 1);
+		xml.writeStartElement(c.isArray() ? "array" : desc.isLeaf ? "leaf"
+			: desc.collection != null ? "collection" : "object");
 
 		// Store the basic parameters of the object.
-		xmlObj.setAttribute("class", c.getName());
-		xmlObj.setAttribute("id", Integer.toString(source.hashCode()));
+		if (classes == null)
+			xml.writeAttribute("class", c.getName());
+		else
+			xml.writeAttribute("class_ref", Integer.toString(index));
+		xml.writeAttribute("id", Integer.toString(ids.get(source)));
+
+		// Store strings, boxed primitives and such as a single value. Text
+		// that XML cannot hold is written as its base64 UTF-16 code units.
+		if (desc.isLeaf) {
+			String value = encodeLeaf(source);
+			if (isXMLText(value))
+				writeText(xml, value);
+			else {
+				xml.writeAttribute("encoding", "base64");
+				xml.writeCharacters(Base64.getEncoder().encodeToString(
+					packArray(value.toCharArray(), 'C')));
+			}
+			xml.writeEndElement();
+			return;
+		}
 
-		if (c.isArray()) {
+		boolean empty = true; // Whether the element has no children.
+		if (!desc.byFields) {
+			// Collections are stored as the array of their contents.
+			Object array = desc.collection == null
+				? source : desc.collection.contents(source);
 			// Grab and store the length of the array.
-			int arrayLen = Array.getLength(source);
-			xmlObj.setAttribute("length", Integer.toString(arrayLen));
-			// Grab the array's component type.
-			Class<?> componentType = source.getClass().getComponentType();
+			int arrayLen = Array.getLength(array);
+			xml.writeAttribute("length", Integer.toString(arrayLen));
+			// Grab the array's component type code.
+			char code = desc.componentCode;
+			// Store primitive arrays as a single run of bytes if requested.
+			if (code != 'L' && packArrays) {
+				xml.writeAttribute("encoding", "base64");
+				xml.writeCharacters(Base64.getEncoder()
+					.encodeToString(packArray(array, code)));
+				xml.writeEndElement();
+				return;
+			}
 			// Store the value of each array element:
 			for (int i = 0; i < arrayLen; i ++) {
-				Element xmlVal = new Element("element");
-				Object value = Array.get(source, i);
-				encodeValue(value, xmlVal, componentType.isPrimitive());
-				xmlObj.addContent(xmlVal);
-				// "Recurse" over non-primitive array entries.
-				if (!componentType.isPrimitive() && value != null)
-					todo.push(value);
+				newLine(xml, 2);
+				xml.writeStartElement("element");
+				if (code != 'L')
+					writeText(xml, encodeElement(array, code, i));
+				else {
+					Object value = ((Object[]) array)[i];
+					encodeReference(value, xml, ids, todo);
+				}
+				xml.writeEndElement();
 			}
+			empty = arrayLen == 0;
 
 		} else { // Encode fields:
-			// Obtain a set of all fields (declared and inherited).
-			TreeMap<String, Field> fields = ReflectionHelper.getAllFields(c);
-			for (Field f : fields.values()) {
-				// Ignore static fields.
-				if (Modifier.isStatic(f.getModifiers())) continue;
-				// Create the JSON object for the field. Store its parameters.
-				Element fieldXML = new Element("field");
-				fieldXML.setAttribute("name", f.getName());
-				fieldXML.setAttribute(
-					"declaring_class", f.getDeclaringClass().getName());
-				f.setAccessible(true);
-				Object value = f.get(source);
-				encodeValue(value, fieldXML, f.getType().isPrimitive());
-				xmlObj.addContent(fieldXML);
-				// "Recurse" over non-primitive array entries.
-				if (!f.getType().isPrimitive() && value != null)
-					todo.push(value);
+			// Grab the cached non-static fields (declared and inherited).
+			for (FieldDescriptor f : desc.fields) {
+				// Create the XML element for the field. Store its parameters
+				// (unless they are given by the class's definition).
+				newLine(xml, 2);
+				if (classes != null)
+					xml.writeStartElement("value");
+				else {
+					xml.writeStartElement("field");
+					xml.writeAttribute("name", f.name);
+					xml.writeAttribute("declaring_class", f.declaringClass);
+				}
+				if (f.isPrimitive)
+					writeText(xml, encodePrimitive(f, source));
+				else {
+					Object value = f.accessor.getObject(source);
+					encodeReference(value, xml, ids, todo);
+				}
+				xml.writeEndElement();
+				empty = false;
 			}
 		}
 
-		return xmlObj;
+		if (!empty) newLine(xml, 1);
+		xml.writeEndElement();
 	}
 
 
 	/**
-	 * Encodes a passed object as a value for XML serialization.
-	 * 
-	 * @param value The object to be encoded.
-	 * @param target The XML element in which to store the object.
-	 * @param isPrimitive Indicates if the object to encode is of a primitive
-	 * type.
+	 * Encodes a reference to the passed object for XML serialization.
+	 * Referenced objects not yet encountered are queued for serialization.
+	 *
+	 * @param value The referenced object (possibly {@code null}).
+	 * @param xml The XML writer, positioned inside the referring element.
+	 * @param ids The IDs of the objects encountered so far.
+	 * @param todo A stack containing references to objects that need to be
+	 * serialized.
+	 * @throws XMLStreamException If the reference cannot be written.
 	 */
-	protected static void encodeValue(
-	Object value, Element target, boolean isPrimitive) {
-		if (isPrimitive)
-			target.setText(value.toString());
-		else if (value == null)
-			target.setText("null");
-		else
-			target.setText(Integer.toString(value.hashCode()));
+	protected static void encodeReference(Object value, XMLStreamWriter xml,
+	IdentityTable ids, LinkedList<Object> todo) throws XMLStreamException {
+		xml.writeCharacters(referenceText(value, ids, todo));
+	}
+
+
+	/**
+	 * Defines a class in the dictionary, writing its definition as a "class"
+	 * element holding its index, name and ordered (empty) "field" elements.
+	 *
+	 * @param desc The descriptor of the class to be defined.
+	 * @param xml The XML writer, positioned inside the "objects" element.
+	 * @param classes The classes defined so far.
+	 * @return The index of the class.
+	 * @throws XMLStreamException If the definition cannot be written.
+	 */
+	protected static int encodeDefinition(ClassDescriptor desc,
+	XMLStreamWriter xml, ClassDictionary classes) throws XMLStreamException {
+		int index = classes.add(new ClassDictionary.Entry(desc));
+		newLine(xml, 1);
+		xml.writeStartElement("class");
+		xml.writeAttribute("index", Integer.toString(index));
+		xml.writeAttribute("name", desc.name);
+		// Only the fields of classes written by field matter.
+		FieldDescriptor[] fields
+			= desc.byFields ? desc.fields : new FieldDescriptor[0];
+		for (FieldDescriptor f : fields) {
+			newLine(xml, 2);
+			xml.writeEmptyElement("field");
+			xml.writeAttribute("name", f.name);
+			xml.writeAttribute("declaring_class", f.declaringClass);
+		}
+		if (fields.length > 0) newLine(xml, 1);
+		xml.writeEndElement();
+		return index;
+	}
+
+
+	/**
+	 * Writes the passed text as the content of the current element. Carriage
+	 * returns are written as character references, as XML parsers would
+	 * otherwise normalize them to line feeds.
+	 *
+	 * @param xml The XML writer.
+	 * @param text The text to be written (escaped as needed).
+	 * @throws XMLStreamException If the text cannot be written.
+	 */
+	private static void writeText(XMLStreamWriter xml, String text)
+	throws XMLStreamException {
+		int start = 0; // Start of the run of characters to write as is.
+		for (int i = text.indexOf('\r'); i >= 0; i = text.indexOf('\r', start)) {
+			xml.writeCharacters(text.substring(start, i));
+			xml.writeEntityRef("#13");
+			start = i + 1;
+		}
+		xml.writeCharacters(text.substring(start));
+	}
+
+
+	/**
+	 * Returns whether the passed text only holds characters allowed in XML
+	 * 1.0 documents (which exclude most control characters and unpaired
+	 * surrogates).
+	 *
+	 * @param text The text to be checked.
+	 * @return Whether the text can be written as XML character data.
+	 */
+	private static boolean isXMLText(String text) {
+		for (int i = 0; i < text.length(); i ++) {
+			char c = text.charAt(i);
+			if (c < 0x20 ? c != '\t' && c != '\n' && c != '\r'
+				: c > 0xFFFD) return false;
+			if (Character.isHighSurrogate(c)) {
+				if (i + 1 == text.length()
+				|| !Character.isLowSurrogate(text.charAt(i + 1)))
+					return false;
+				i ++;
+			} else if (Character.isLowSurrogate(c))
+				return false;
+		}
+		return true;
+	}
+
+
+	/**
+	 * Starts a new line of the document indented to the passed level.
+	 *
+	 * @param xml The XML writer.
+	 * @param level The nesting level of the new line.
+	 * @throws XMLStreamException If the whitespace cannot be written.
+	 */
+	private static void newLine(XMLStreamWriter xml, int level)
+	throws XMLStreamException {
+		xml.writeCharacters("\n\t\t".substring(0, level + 1));
 	}
 
 
 	/**
 	 * Deserializes the object stored in the passed XML encoded {@code String}.
-	 * 
+	 *
 	 * @param source An XML encoded string to be deserialized.
 	 * @return The object expressed by the passed XML encoded string.
 	 * @throws Exception If the string cannot be deserialized.
 	 */
 	public Object deserializeObject(String source) throws Exception {
-		// Maps the hash codes of objects to their new instances.
-		TreeMap<Integer, Object> objects = new TreeMap<Integer, Object>();
-		// Create a XML document from the passed XML encoded string.
-		InputStream stream = new ByteArrayInputStream(source.getBytes("UTF-8"));
-		Document document = new SAXBuilder().build(stream);
-		// Grab a list of all objects to be decoded.
-		List<Element> objList = document.getRootElement().getChildren();
-		// Grab the hash code of the base object (as it is decoded first).
-		int baseId = objList.get(0).getAttribute("id").getIntValue();
-		
-		// Create an instance for each object to be deserialized.
-		for (int i = 0; i < objList.size(); i ++) {
-			Element xmlObj = objList.get(i);
-			int id = xmlObj.getAttribute("id").getIntValue();
-			Class<?> c = Class.forName(xmlObj.getAttributeValue("class"));
-			Object o = null;
-			if (c.isArray())
-				o = Array.newInstance(c.getComponentType(),
-					xmlObj.getAttribute("length").getIntValue());
-			else
-				o = instantiateObject(c);
-
-			objects.put(id, o);
-		}
+		return deserializeObject(new StringReader(source));
+	}
+
+
+	/**
+	 * Deserializes the object stored as XML in the passed stream. The
+	 * character encoding is taken from the XML declaration (UTF-8 if absent).
+	 *
+	 * @param source A stream of XML to be deserialized.
+	 * @return The object expressed by the XML.
+	 * @throws Exception If the stream cannot be read or deserialized.
+	 */
+	public Object deserializeObject(InputStream source) throws Exception {
+		return deserializeObject(INPUT_FACTORY.createXMLStreamReader(source));
+	}
 
-		//Decode the objects in reverse order (to build up dependency trees).
-		for (int i = objList.size() - 1; i >= 0; i --)
-			decodeObject(objList.get(i), objects);
-		
-		return objects.get(baseId);
+
+	/**
+	 * Deserializes the object stored as XML in the passed {@code Reader}.
+	 *
+	 * @param source A reader of the XML to be deserialized.
+	 * @return The object expressed by the XML.
+	 * @throws Exception If the XML cannot be read or deserialized.
+	 */
+	public Object deserializeObject(Reader source) throws Exception {
+		return deserializeObject(INPUT_FACTORY.createXMLStreamReader(source));
 	}
 
 
 	/**
-	 * Deserializes XML elements and returns the encoded objects within.
-	 * 
-	 * @param xmlObj The XML element encoding the serialized object.
-	 * @param objects A map of hash codes to the instances that will store the
-	 * deserialized objects.
+	 * Deserializes the object stored as XML in the passed StAX reader. Each
+	 * object is instantiated as soon as its start tag is read and its fields
+	 * are set as they are parsed.
+	 *
+	 * @param in The StAX reader, positioned at the start of the document.
+	 * @return The object expressed by the XML.
+	 * @throws Exception If the XML cannot be read or deserialized.
+	 */
+	protected Object deserializeObject(XMLStreamReader in)
+	throws Exception {
+		// Tracks the new instances and the references between them.
+		DecodeContext ctx = new DecodeContext(classResolver, inputLimit);
+
+		// Decode every child element of the "objects" element.
+		in.nextTag();
+		in.require(XMLStreamConstants.START_ELEMENT, null, "objects");
+		while (in.nextTag() == XMLStreamConstants.START_ELEMENT)
+			decodeObject(in, ctx);
+		in.close();
+
+		// Link the objects together now that they all exist.
+		return ctx.resolve();
+	}
+
+
+	/**
+	 * Deserializes the current XML element of the reader into a new instance,
+	 * or adds it to the dictionary if it is a class definition.
+	 *
+	 * @param in The StAX reader, positioned at the start tag of a serialized
+	 * object. It is left at the matching end tag.
+	 * @param ctx The state of the current deserialization.
 	 * @throws Exception If there is an issue instantiating the object
-	 * reflectively.
+	 * reflectively or the XML is malformed.
 	 */
-	protected static void decodeObject(
-	Element xmlObj, TreeMap<Integer, Object> objects) throws Exception {
-		// Grab the Class for the object to be decoded.
-		Class<?> c = Class.forName(xmlObj.getAttributeValue("class"));
-		// Destination for the object and XML elements for fields/array values.
-		Object out = objects.get(xmlObj.getAttribute("id").getIntValue());
-		List<Element> entries = xmlObj.getChildren();
+	protected static void decodeObject(XMLStreamReader in, DecodeContext ctx)
+	throws Exception {
+		if (in.getLocalName().equals("class")) {
+			decodeDefinition(in, ctx);
+			return;
+		}
+
+		// Grab the Class and ID of the object to be decoded. Classes in the
+		// dictionary also give the order of the object's field values.
+		int id = Integer.parseInt(in.getAttributeValue(null, "id"));
+		String classRef = in.getAttributeValue(null, "class_ref");
+		FieldDescriptor[] order = null;
+		ClassDescriptor desc;
+		if (classRef == null)
+			desc = ClassDescriptor.of(
+				ctx.classOf(in.getAttributeValue(null, "class"), id));
+		else {
+			ClassDictionary.Entry entry
+				= ctx.classes.get(Integer.parseInt(classRef));
+			desc = entry.desc;
+			order = entry.fields;
+		}
+		Class<?> c = desc.type;
+
+		// Deserialize leaves:
+		if (in.getLocalName().equals("leaf")) {
+			String value;
+			if ("base64".equals(in.getAttributeValue(null, "encoding"))) {
+				byte[] bytes = Base64.getDecoder().decode(in.getElementText());
+				char[] chars = new char[bytes.length / 2];
+				unpackArray(bytes, chars, 'C');
+				value = new String(chars);
+			} else
+				value = new String(ctx.text, 0, readText(in, ctx));
+			ctx.register(id, decodeLeaf(desc, value));
+			return;
+		}
 
 		// Deserialize object:
-		if (xmlObj.getName().compareTo("object") == 0) {
-			// Grab the of Fields from the class.
-			TreeMap<String, Field> fields = ReflectionHelper.getAllFields(c);
+		if (in.getLocalName().equals("object")) {
+			Object out = createInstance(c, 0);
+			ctx.register(id, out);
 
 			// Grab and set values for each field:
-			for (int i = 0; i < entries.size(); i ++) {
-				// Grab the XML element for the field and grab parameters.
-				Element fieldObj = entries.get(i);
-				String fieldName = fieldObj.getAttributeValue("name");
-				String declaringCLas
-					= fieldObj.getAttributeValue("declaring_class");
+			for (int i = 0; in.nextTag() == XMLStreamConstants.START_ELEMENT;
+			i ++) {
+				// Grab the field, by position or by its parameters.
+				FieldDescriptor f;
+				if (order == null)
+					f = desc.requireField(in.getAttributeValue(null, "name"),
+						in.getAttributeValue(null, "declaring_class"));
+				else if (i < order.length)
+					f = order[i];
+				else
+					throw new Exception(String.format(
+						"%s has over %d values", desc.name, order.length));
+				int len = readText(in, ctx);
 
 				// Set the value of the field:
-				Field f = fields.get(fieldName + declaringCLas);
-				f.setAccessible(true);
-				String value = fieldObj.getText();
-				if (f.getType().isPrimitive())
-					f.set(out, extractPrimitive(f.getType(), value));
-				else if (value.compareTo("null") == 0)
-					f.set(out, null);
+				if (f.isPrimitive)
+					decodePrimitive(f, out, ctx.text, 0, len);
+				else if (PrimitiveParser.isNull(ctx.text, 0, len))
+					f.accessor.setObject(out, null);
 				else
-					f.set(out, objects.get(Integer.valueOf(value)));
+					ctx.setReference(
+						out, f, PrimitiveParser.parseInt(ctx.text, 0, len));
 			}
 
-		// Deserialize arrays:
+		// Deserialize arrays (and collections):
 		} else {
-			// Grab the length of the array.
-			int arrayLen = xmlObj.getAttribute("length").getIntValue();
+			// Grab the length and component type code of the array.
+			int arrayLen
+				= Integer.parseInt(in.getAttributeValue(null, "length"));
+			char code = desc.componentCode;
+			Object out = registerArray(desc, id, arrayLen, ctx);
+
+			// Unpack primitive arrays stored as a single run of bytes.
+			if ("base64".equals(in.getAttributeValue(null, "encoding"))) {
+				unpackArray(Base64.getDecoder().decode(in.getElementText()),
+					out, code);
+				return;
+			}
 
 			// Set the value of each element of the array.
-			for (int i = 0; i < arrayLen; i ++) {
-				Element entryObj = entries.get(i);
-				String value = entryObj.getText();
-				if (c.getComponentType().isPrimitive())
-					Array.set(
-						out, i, extractPrimitive(c.getComponentType(), value));
-				else if (value.compareTo("null") == 0)
-					Array.set(out, i, null);
-				else
-					Array.set(out, i, objects.get(Integer.valueOf(value)));
+			for (int i = 0; in.nextTag() == XMLStreamConstants.START_ELEMENT;
+			i ++) {
+				if (i == arrayLen)
+					throw new Exception(
+						"Array has over " + arrayLen + " entries");
+				int len = readText(in, ctx);
+				if (code != 'L')
+					decodeElement(out, code, i, ctx.text, 0, len);
+				else if (!PrimitiveParser.isNull(ctx.text, 0, len))
+					ctx.setElement((Object[]) out, i,
+						PrimitiveParser.parseInt(ctx.text, 0, len));
 			}
 		}
 	}
-}
\ No newline at end of file
+
+
+	/**
+	 * Reads a class definition element and adds it to the dictionary.
+	 * Definitions must be numbered in the order they appear.
+	 *
+	 * @param in The StAX reader, positioned at the start tag of the
+	 * definition. It is left at the matching end tag.
+	 * @param ctx The state of the current deserialization.
+	 * @throws Exception If the class or one of its fields is unknown or the
+	 * XML is malformed.
+	 */
+	protected static void decodeDefinition(XMLStreamReader in,
+	DecodeContext ctx) throws Exception {
+		int index = Integer.parseInt(in.getAttributeValue(null, "index"));
+		if (index != ctx.classes.size())
+			throw new Exception("Class definition out of order: " + index);
+		ClassDescriptor desc = ClassDescriptor.of(
+			ctx.classOf(in.getAttributeValue(null, "name"), index));
+
+		// Grab the fields, in the order their values will appear.
+		ArrayList<FieldDescriptor> fields = new ArrayList<FieldDescriptor>();
+		while (in.nextTag() == XMLStreamConstants.START_ELEMENT) {
+			fields.add(desc.requireField(in.getAttributeValue(null, "name"),
+				in.getAttributeValue(null, "declaring_class")));
+			in.getElementText();
+		}
+
+		ctx.classes.add(new ClassDictionary.Entry(
+			desc, fields.toArray(new FieldDescriptor[0])));
+	}
+
+
+	/**
+	 * Reads the text of the current element into the scratch text of the
+	 * context, as {@code getElementText} does but without creating a
+	 * {@code String}.
+	 *
+	 * @param in The StAX reader, positioned at the start tag of a text-only
+	 * element. It is left at the matching end tag.
+	 * @param ctx The state of the current deserialization.
+	 * @return The length of the text, which starts at index 0 of
+	 * {@code ctx.text}.
+	 * @throws XMLStreamException If the element holds other elements or the
+	 * XML is malformed.
+	 */
+	private static int readText(XMLStreamReader in, DecodeContext ctx)
+	throws XMLStreamException {
+		int len = 0;
+		int event;
+		while ((event = in.next()) != XMLStreamConstants.END_ELEMENT) {
+			switch (event) {
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.CDATA:
+				case XMLStreamConstants.SPACE:
+					break;
+				case XMLStreamConstants.COMMENT:
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					continue;
+				default: throw new XMLStreamException(
+					"Expected the text of an element", in.getLocation());
+			}
+			int n = in.getTextLength();
+			if (len + n > ctx.text.length)
+				ctx.text = Arrays.copyOf(
+					ctx.text, Math.max(len + n, ctx.text.length * 2));
+			System.arraycopy(in.getTextCharacters(), in.getTextStart(),
+				ctx.text, len, n);
+			len += n;
+		}
+		return len;
+	}
+
+
+	/**
+	 * Creates the StAX input factory used for deserialization. Serialized
+	 * documents never need a DTD, so DTDs and external entities are disabled.
+	 *
+	 * @return The configured factory.
+	 */
+	private static XMLInputFactory inputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(
+			XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		return factory;
+	}
+}
@@ -7,11 +7,14 @@ package samples;
 
 import java.util.ArrayList;
 
+import serial.Serializable;
+
 
 /**
  * A class containing a Java Collections Framework instance populated with
  * object references.
  */
+@Serializable
 public class ArrayListContainer {
 	// A Java Collections Framework class containing references.
 	ArrayList<Simple> list;
@@ -7,11 +7,14 @@ package samples;
 
 import java.util.List;
 
+import serial.Serializable;
+
 
 /**
  * A class whose fields reference other objects with a cyclic relationship. The
  * stored structure is a cyclic singly linked list.
  */
+@Serializable
 public class Cyclic {
 	// The "first" node in the cyclic list.
 	Node head;
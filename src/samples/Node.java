@@ -5,10 +5,13 @@
 
 package samples;
 
+import serial.Serializable;
+
 
 /**
  * Simple node class for linked lists.
  */
+@Serializable
 public class Node {
 	int value;		// The value stored in this node.
 	Node next;	// The next node in the list.
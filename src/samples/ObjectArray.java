@@ -7,10 +7,13 @@ package samples;
 
 import java.util.List;
 
+import serial.Serializable;
+
 
 /**
  * A class containing an array of references.
  */
+@Serializable
 public class ObjectArray {
 	Simple[] array; // An array of Simple references.
 
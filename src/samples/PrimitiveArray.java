@@ -7,10 +7,13 @@ package samples;
 
 import java.util.List;
 
+import serial.Serializable;
+
 
 /**
  * A class containing an array of primitives.
  */
+@Serializable
 public class PrimitiveArray {
 	int array[]; // An array of integer primitives.
 
@@ -5,10 +5,13 @@
 
 package samples;
 
+import serial.Serializable;
+
 
 /**
  * A simple class with primitive fields.
  */
+@Serializable
 public class Simple {
 	int number;
 	boolean bool;
@@ -0,0 +1,46 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FieldAccess.java
+// ======================================================
+
+package serial;
+
+
+/**
+ * Typed reader and writer of a field of a {@code Serializable} class,
+ * generated at compile time. A generated accessor only implements the getter
+ * and setter of its field's type; the others throw an
+ * {@code IllegalArgumentException}, as a {@code Field} does.
+ */
+public abstract class FieldAccess {
+	public boolean getBoolean(Object o) { throw mismatch("boolean"); }
+	public byte getByte(Object o) { throw mismatch("byte"); }
+	public char getChar(Object o) { throw mismatch("char"); }
+	public short getShort(Object o) { throw mismatch("short"); }
+	public int getInt(Object o) { throw mismatch("int"); }
+	public long getLong(Object o) { throw mismatch("long"); }
+	public float getFloat(Object o) { throw mismatch("float"); }
+	public double getDouble(Object o) { throw mismatch("double"); }
+	public Object getObject(Object o) { throw mismatch("Object"); }
+
+	public void setBoolean(Object o, boolean v) { throw mismatch("boolean"); }
+	public void setByte(Object o, byte v) { throw mismatch("byte"); }
+	public void setChar(Object o, char v) { throw mismatch("char"); }
+	public void setShort(Object o, short v) { throw mismatch("short"); }
+	public void setInt(Object o, int v) { throw mismatch("int"); }
+	public void setLong(Object o, long v) { throw mismatch("long"); }
+	public void setFloat(Object o, float v) { throw mismatch("float"); }
+	public void setDouble(Object o, double v) { throw mismatch("double"); }
+	public void setObject(Object o, Object v) { throw mismatch("Object"); }
+
+
+	/**
+	 * Returns the exception thrown when the field is accessed as another type.
+	 *
+	 * @param kind The type the field was accessed as.
+	 * @return An exception to be thrown.
+	 */
+	private static IllegalArgumentException mismatch(String kind) {
+		return new IllegalArgumentException("Not a field of type " + kind);
+	}
+}
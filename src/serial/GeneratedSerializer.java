@@ -0,0 +1,95 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// GeneratedSerializer.java
+// ======================================================
+
+package serial;
+
+
+/**
+ * Serializer of a {@code Serializable} class, generated at compile time by
+ * {@code SerializableProcessor}: it creates instances of the class and
+ * accesses the fields the class declares without reflection. The serializer
+ * of class {@code p.Outer$Inner} is the class {@code p.Outer_Inner_Serializer}.
+ */
+public abstract class GeneratedSerializer {
+	// Suffix of the names of the generated serializers.
+	static final String SUFFIX = "_Serializer";
+
+	// The serializer of each class (or null), looked up on first use.
+	private static final ClassValue<GeneratedSerializer> cache
+		= new ClassValue<GeneratedSerializer>() {
+			@Override
+			protected GeneratedSerializer computeValue(Class<?> c) {
+				return find(c);
+			}
+		};
+
+
+	/**
+	 * Returns the generated serializer of the passed class.
+	 *
+	 * @param c A class.
+	 * @return The serializer of the class, or null if it is not annotated
+	 * {@code Serializable} or its serializer cannot be loaded.
+	 */
+	public static GeneratedSerializer of(Class<?> c) {
+		return cache.get(c);
+	}
+
+
+	/**
+	 * Loads and instantiates the generated serializer of the passed class.
+	 *
+	 * @param c A class.
+	 * @return The serializer of the class, or null if it has none.
+	 */
+	private static GeneratedSerializer find(Class<?> c) {
+		if (!c.isAnnotationPresent(Serializable.class)) return null;
+		try {
+			return (GeneratedSerializer) Class
+				.forName(serializerName(c.getName()), true, c.getClassLoader())
+				.getConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError
+		| ClassCastException e) {
+			// Compiled without the processor; fall back to reflection.
+			return null;
+		}
+	}
+
+
+	/**
+	 * Returns the name of the serializer generated for a class.
+	 *
+	 * @param className The binary name of the class (as in
+	 * {@code p.Outer$Inner}).
+	 * @return The binary name of the class's serializer.
+	 */
+	public static String serializerName(String className) {
+		int dot = className.lastIndexOf('.');
+		return className.substring(0, dot + 1)
+			+ className.substring(dot + 1).replace('$', '_') + SUFFIX;
+	}
+
+
+	/**
+	 * Returns a new instance of the class, created by its no-argument
+	 * constructor.
+	 *
+	 * @return The new instance.
+	 * @throws UnsupportedOperationException If the class is abstract.
+	 */
+	public Object newInstance() {
+		throw new UnsupportedOperationException("Abstract class");
+	}
+
+
+	/**
+	 * Returns an accessor for a field declared by the class.
+	 *
+	 * @param name The name of the field.
+	 * @return The accessor of the field, or null if the field is unknown or
+	 * is private or final (and so cannot be accessed by generated code).
+	 */
+	public abstract FieldAccess field(String name);
+}
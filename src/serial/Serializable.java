@@ -0,0 +1,27 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// Serializable.java
+// ======================================================
+
+package serial;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+
+/**
+ * Marks a class whose serializer is generated at compile time by
+ * {@code SerializableProcessor}, so its instances are created and its fields
+ * read and written by plain Java code rather than by reflection.
+ * <p>
+ * The class must be a top-level or static nested class that is not private,
+ * and if it is not abstract it needs a no-argument constructor that is not
+ * private. Private and final fields are still accessed reflectively.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Serializable {}
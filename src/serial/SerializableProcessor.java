@@ -0,0 +1,185 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// SerializableProcessor.java
+// ======================================================
+
+package serial;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+
+/**
+ * Annotation processor generating the {@code GeneratedSerializer} of each
+ * class annotated {@code Serializable}. The serializer is a source file in
+ * the package of the class, so it may use the class's constructor and its
+ * fields directly as long as they are not private.
+ * <p>
+ * Run it by compiling this package first, then compiling the annotated
+ * classes with {@code -processorpath} set to the compiled package and
+ * {@code -processor serial.SerializableProcessor}.
+ */
+@SupportedAnnotationTypes("serial.Serializable")
+public class SerializableProcessor extends AbstractProcessor {
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations,
+	RoundEnvironment round) {
+		for (Element e : round.getElementsAnnotatedWith(Serializable.class)) {
+			TypeElement type = (TypeElement) e;
+			String problem = checkClass(type);
+			if (problem != null) {
+				processingEnv.getMessager().printMessage(
+					Diagnostic.Kind.ERROR, "@Serializable " + problem, e);
+				continue;
+			}
+			try {
+				generate(type);
+			} catch (IOException ex) {
+				processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR,
+					"Cannot write the serializer: " + ex.getMessage(), e);
+			}
+		}
+		return true;
+	}
+
+
+	/**
+	 * Returns why a serializer cannot be generated for the passed type.
+	 *
+	 * @param type A type annotated {@code Serializable}.
+	 * @return A description of the problem, or null if there is none.
+	 */
+	private static String checkClass(TypeElement type) {
+		if (type.getKind() != ElementKind.CLASS)
+			return "only applies to classes";
+		if (type.getNestingKind().isNested()
+		&& !type.getModifiers().contains(Modifier.STATIC))
+			return "classes must be top-level or static";
+		for (Element e = type; e instanceof TypeElement;
+		e = e.getEnclosingElement()) {
+			if (e.getModifiers().contains(Modifier.PRIVATE))
+				return "classes must not be private";
+		}
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) return null;
+		for (ExecutableElement c
+		: ElementFilter.constructorsIn(type.getEnclosedElements())) {
+			if (c.getParameters().isEmpty()
+			&& !c.getModifiers().contains(Modifier.PRIVATE))
+				return null;
+		}
+		return "classes need a no-argument constructor that is not private";
+	}
+
+
+	/**
+	 * Writes the source file of the serializer of the passed class.
+	 *
+	 * @param type A class annotated {@code Serializable}.
+	 * @throws IOException If the source file cannot be written.
+	 */
+	private void generate(TypeElement type) throws IOException {
+		PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+		String binaryName
+			= processingEnv.getElementUtils().getBinaryName(type).toString();
+		String name = GeneratedSerializer.serializerName(binaryName);
+		String simpleName = name.substring(name.lastIndexOf('.') + 1);
+		// The (raw) name of the class in source code.
+		String cast = processingEnv.getTypeUtils()
+			.erasure(type.asType()).toString();
+
+		try (PrintWriter out = new PrintWriter(processingEnv.getFiler()
+			.createSourceFile(name, type).openWriter())) {
+			if (!pkg.isUnnamed())
+				out.printf("package %s;%n%n", pkg.getQualifiedName());
+			out.printf("@javax.annotation.processing.Generated(\"%s\")%n",
+				getClass().getName());
+			out.printf("@SuppressWarnings({ \"unchecked\", \"rawtypes\" })%n");
+			out.printf("public final class %s extends %s {%n",
+				simpleName, GeneratedSerializer.class.getName());
+			if (!type.getModifiers().contains(Modifier.ABSTRACT)) {
+				out.printf("\t@Override%n");
+				out.printf("\tpublic Object newInstance() {%n");
+				out.printf("\t\treturn new %s();%n", cast);
+				out.printf("\t}%n%n");
+			}
+
+			out.printf("\t@Override%n");
+			out.printf("\tpublic %s field(String name) {%n",
+				FieldAccess.class.getName());
+			out.printf("\t\tswitch (name) {%n");
+			for (VariableElement f
+			: ElementFilter.fieldsIn(type.getEnclosedElements())) {
+				Set<Modifier> modifiers = f.getModifiers();
+				if (modifiers.contains(Modifier.STATIC)
+				|| modifiers.contains(Modifier.PRIVATE)
+				|| modifiers.contains(Modifier.FINAL))
+					continue;
+				writeField(out, f, cast);
+			}
+			out.printf("\t\t\tdefault: return null;%n");
+			out.printf("\t\t}%n");
+			out.printf("\t}%n");
+			out.printf("}%n");
+		}
+	}
+
+
+	/**
+	 * Writes the case of the {@code field} method returning the accessor of
+	 * the passed field.
+	 *
+	 * @param out The source file of the serializer.
+	 * @param f The field.
+	 * @param cast The (raw) name of the class declaring the field.
+	 */
+	private void writeField(PrintWriter out, VariableElement f, String cast) {
+		TypeKind kind = f.asType().getKind();
+		String type, name;
+		if (kind.isPrimitive()) {
+			type = kind.name().toLowerCase(Locale.ROOT);
+			name = Character.toUpperCase(type.charAt(0)) + type.substring(1);
+		} else {
+			type = "Object";
+			name = "Object";
+		}
+		// References are cast to the erasure of the field's type.
+		String value = kind.isPrimitive() ? "v" : String.format("(%s) v",
+			processingEnv.getTypeUtils().erasure(f.asType()));
+
+		out.printf("\t\t\tcase \"%s\": return new %s() {%n",
+			f.getSimpleName(), FieldAccess.class.getName());
+		out.printf("\t\t\t\t@Override%n");
+		out.printf("\t\t\t\tpublic %s get%s(Object o) {%n", type, name);
+		out.printf("\t\t\t\t\treturn ((%s) o).%s;%n", cast, f.getSimpleName());
+		out.printf("\t\t\t\t}%n");
+		out.printf("\t\t\t\t@Override%n");
+		out.printf("\t\t\t\tpublic void set%s(Object o, %s v) {%n", name, type);
+		out.printf("\t\t\t\t\t((%s) o).%s = %s;%n",
+			cast, f.getSimpleName(), value);
+		out.printf("\t\t\t\t}%n");
+		out.printf("\t\t\t};%n");
+	}
+}
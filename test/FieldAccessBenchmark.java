@@ -0,0 +1,111 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// FieldAccessBenchmark.java
+// ======================================================
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+
+import samples.*;
+
+
+/**
+ * Compares the boxed {@code Field}/{@code Array} access used previously by the
+ * serializers against the typed paths of {@code FieldAccessor} (including
+ * accessors generated at run time and at compile time). Each trial reads,
+ * increments and writes back {@code Simple.number} for a batch of objects
+ * (and every element of an {@code int[]}), reporting the mean time and heap
+ * allocation per access. Run with {@code make doBench}.
+ */
+public class FieldAccessBenchmark {
+	// Number of objects (and array elements) touched per trial.
+	static final int BATCH = 1 << 16;
+	// Number of untimed and timed trials per strategy.
+	static final int WARMUP = 200, TRIALS = 200;
+
+
+	public static void main(String[] args) throws Exception {
+		Simple[] objects = new Simple[BATCH];
+		for (int i = 0; i < BATCH; i ++)
+			objects[i] = new Simple(i << 8, false);
+		int[] array = new int[BATCH];
+		for (int i = 0; i < BATCH; i ++)
+			array[i] = i << 8;
+
+		Field f = ClassDescriptor.of(Simple.class)
+			.getField("number", "samples.Simple").field;
+		FieldAccessor reflective = new FieldAccessor.ReflectiveAccessor(f);
+		FieldAccessor handle = new FieldAccessor.VarHandleAccessor(f);
+		FieldAccessor generated = GeneratedAccessor.create(f);
+		FieldAccessor compiled = new FieldAccessor.CompiledAccessor(
+			serial.GeneratedSerializer.of(Simple.class).field("number"));
+
+		report("Field.get/Field.set (boxed)", () -> {
+			for (Simple s : objects)
+				f.set(s, (Integer) f.get(s) + 1);
+		});
+		report("Field.getInt/Field.setInt", () -> {
+			for (Simple s : objects)
+				reflective.setInt(s, reflective.getInt(s) + 1);
+		});
+		report("VarHandle getInt/setInt", () -> {
+			for (Simple s : objects)
+				handle.setInt(s, handle.getInt(s) + 1);
+		});
+		report("Generated getInt/setInt", () -> {
+			for (Simple s : objects)
+				generated.setInt(s, generated.getInt(s) + 1);
+		});
+		report("Compiled getInt/setInt", () -> {
+			for (Simple s : objects)
+				compiled.setInt(s, compiled.getInt(s) + 1);
+		});
+		report("Array.get/Array.set (boxed)", () -> {
+			for (int i = 0; i < BATCH; i ++)
+				Array.set(array, i, (Integer) Array.get(array, i) + 1);
+		});
+		report("int[] element access", () -> {
+			int[] typed = array;
+			for (int i = 0; i < BATCH; i ++)
+				typed[i] = typed[i] + 1;
+		});
+	}
+
+
+	/**
+	 * Warms up, times and measures the allocation of the passed trial, printing
+	 * the mean cost of an access.
+	 *
+	 * @param label A description of the access strategy.
+	 * @param trial A trial touching {@code BATCH} fields or elements.
+	 * @throws Exception If the trial fails.
+	 */
+	static void report(String label, Trial trial) throws Exception {
+		for (int i = 0; i < WARMUP; i ++)
+			trial.run();
+
+		com.sun.management.ThreadMXBean threads
+			= (com.sun.management.ThreadMXBean)
+				ManagementFactory.getThreadMXBean();
+		long thread = Thread.currentThread().getId();
+		long allocated = threads.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		for (int i = 0; i < TRIALS; i ++)
+			trial.run();
+		double perAccess
+			= (System.nanoTime() - start) / (double) TRIALS / BATCH;
+		double bytesPerAccess
+			= (threads.getThreadAllocatedBytes(thread) - allocated)
+				/ (double) TRIALS / BATCH;
+
+		System.out.printf("%-32s %8.2f ns/access %8.2f B/access\n",
+			label, perAccess, bytesPerAccess);
+	}
+
+
+	// A single timed batch of accesses.
+	interface Trial {
+		void run() throws Exception;
+	}
+}
@@ -0,0 +1,112 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestBinarySerialize.java
+// ======================================================
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestBinarySerialize {
+	@Test
+	public void testVarints() throws Exception {
+		int[] values = { 0, 1, 127, 128, 300, Integer.MAX_VALUE, -1 };
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(bytes);
+		for (int v : values) out.writeVarint(v);
+		out.flush();
+		// 1 + 1 + 1 + 2 + 2 + 5 + 5 bytes.
+		assertEquals(17, bytes.size());
+
+		BinaryReader in = reader(bytes.toByteArray());
+		for (int v : values) assertEquals(v, in.readVarint());
+	}
+
+	@Test
+	public void testLittleEndian() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(bytes);
+		out.writeInt(0x01020304);
+		out.flush();
+		assertArrayEquals(new byte[] { 4, 3, 2, 1 }, bytes.toByteArray());
+	}
+
+	@Test
+	public void testLargeString() throws Exception {
+		String text = "\u00e9x".repeat(10000);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(bytes);
+		out.writeString(text);
+		out.writeLong(Long.MIN_VALUE);
+		out.flush();
+
+		BinaryReader in = reader(bytes.toByteArray());
+		assertEquals(text, in.readString());
+		assertEquals(Long.MIN_VALUE, in.readLong());
+	}
+
+	@Test
+	public void testSmallerThanText() throws Exception {
+		Object o = new Cyclic(List.of(3, 1, 4, 1, 5, 9, 2, 6, 5, 3));
+		int binary = new BinarySerialize().serializeObject(o).length();
+		int json = new JSONSerialize().serializeObject(o).length();
+		assertTrue(binary * 5 < json);
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncatedMessage() throws Exception {
+		BinarySerialize serial = new BinarySerialize();
+		String message = serial.serializeObject(new Simple(1, true));
+		serial.deserializeObject(message.substring(0, message.length() - 2));
+	}
+
+	@Test(expected = Exception.class)
+	public void testUnsupportedVersion() throws Exception {
+		new BinarySerialize().deserializeObject("c\u0000");
+	}
+
+
+	@Test
+	public void testLengthWithinMessage() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(bytes);
+		out.writeString("abc");
+		out.writeVarint(5);
+		out.flush();
+
+		BinaryReader in = new BinaryReader(
+			new ByteArrayInputStream(bytes.toByteArray()), bytes.size());
+		assertEquals("abc", in.readString());
+		try {
+			// Five elements cannot fit in the last byte.
+			in.readLength();
+			fail();
+		} catch (IOException e) {
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testLengthBeyondMessage() throws Exception {
+		// A class name claiming 2 GB, in a message of a few bytes.
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		BinaryWriter out = new BinaryWriter(bytes);
+		out.writeVarint(BinarySerialize.VERSION);
+		out.writeVarint(1);
+		out.writeVarint(Integer.MAX_VALUE);
+		out.flush();
+		new BinarySerialize().setInputLimit(bytes.size()).deserializeObject(
+			new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+
+	private static BinaryReader reader(byte[] bytes) {
+		return new BinaryReader(new ByteArrayInputStream(bytes));
+	}
+}
@@ -0,0 +1,67 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestClassDescriptor.java
+// ======================================================
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestClassDescriptor {
+	@Test
+	public void testOfCached() {
+		assertSame(ClassDescriptor.of(Node.class),
+			ClassDescriptor.of(Node.class));
+	}
+
+	@Test
+	public void testFieldsSimple() {
+		FieldDescriptor[] fields = ClassDescriptor.of(Simple.class).fields;
+		assertEquals(2, fields.length);
+		assertEquals("bool", fields[0].name);
+		assertEquals("number", fields[1].name);
+		assertTrue(fields[1].isPrimitive);
+		assertEquals("samples.Simple", fields[1].declaringClass);
+	}
+
+	@Test
+	public void testFieldsNonStatic() {
+		for (FieldDescriptor f : ClassDescriptor.of(ArrayList.class).fields)
+			assertFalse(Modifier.isStatic(f.field.getModifiers()));
+	}
+
+	@Test
+	public void testFieldsIndexed() {
+		FieldDescriptor[] fields = ClassDescriptor.of(Node.class).fields;
+		for (int i = 0; i < fields.length; i ++)
+			assertEquals(i, fields[i].index);
+	}
+
+	@Test
+	public void testAllFieldsMatchesHelper() {
+		Field[] all = ClassDescriptor.of(ArrayList.class).allFields;
+		assertArrayEquals(
+			ReflectionHelper.getAllFields(ArrayList.class).values().toArray(),
+			all);
+	}
+
+	@Test
+	public void testGetField() {
+		ClassDescriptor desc = ClassDescriptor.of(Node.class);
+		assertSame(desc.fields[0], desc.getField("next", "samples.Node"));
+		assertNull(desc.getField("next", "samples.Cyclic"));
+	}
+
+	@Test
+	public void testArray() {
+		ClassDescriptor desc = ClassDescriptor.of(int[].class);
+		assertTrue(desc.isArray);
+		assertEquals(int.class, desc.componentType);
+		assertEquals(0, desc.fields.length);
+	}
+}
@@ -0,0 +1,60 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestClassResolver.java
+// ======================================================
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestClassResolver {
+	@Test
+	public void testCached() throws Exception {
+		ClassResolver resolver = new ClassResolver();
+		assertSame(Node.class, resolver.resolve("samples.Node"));
+		assertSame(Node.class, resolver.resolve("samples.Node"));
+	}
+
+	@Test
+	public void testPackagePattern() throws Exception {
+		ClassResolver resolver = new ClassResolver("samples.*");
+		assertSame(Simple.class, resolver.resolve("samples.Simple"));
+		assertSame(Node[][].class, resolver.resolve("[[Lsamples.Node;"));
+		assertSame(int[].class, resolver.resolve("[I"));
+	}
+
+	@Test(expected = Exception.class)
+	public void testNotAllowed() throws Exception {
+		new ClassResolver("samples.*").resolve("java.lang.Thread");
+	}
+
+	@Test(expected = Exception.class)
+	public void testArrayOfNotAllowed() throws Exception {
+		new ClassResolver("samples.*").resolve("[Ljava.lang.Thread;");
+	}
+
+	@Test(expected = Exception.class)
+	public void testPrefixIsNotPackage() throws Exception {
+		new ClassResolver("samples.*").resolve("samplesX.Node");
+	}
+
+	@Test(expected = Exception.class)
+	public void testDeserializeNotAllowed() throws Exception {
+		String json = new JSONSerialize().serializeObject(new Simple(1, true));
+		new JSONSerialize().setClassResolver(new ClassResolver("java.lang.*"))
+			.deserializeObject(json);
+	}
+
+	@Test
+	public void testExactClass() throws Exception {
+		ClassResolver resolver = new ClassResolver("samples.Simple");
+		assertSame(Simple.class, resolver.resolve("samples.Simple"));
+		try {
+			resolver.resolve("samples.Node");
+			fail("samples.Node should not be allowed");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("not allowed"));
+		}
+	}
+}
@@ -0,0 +1,110 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestDecodeContext.java
+// ======================================================
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestDecodeContext {
+	// The "next" field of samples.Node.
+	private static final FieldDescriptor NEXT
+		= ClassDescriptor.of(Node.class).getField("next", "samples.Node");
+
+
+	@Test
+	public void testBackwardReferenceSetImmediately() throws Exception {
+		DecodeContext ctx = new DecodeContext(new ClassResolver());
+		Node a = new Node(), b = new Node();
+		ctx.register(0, a);
+		ctx.register(1, b);
+		ctx.setReference(b, NEXT, 0);
+		assertSame(a, next(b));
+		assertSame(a, ctx.resolve());
+	}
+
+	@Test
+	public void testForwardReferencesPatchedOnRegister() throws Exception {
+		DecodeContext ctx = new DecodeContext(new ClassResolver());
+		Node a = new Node(), b = new Node();
+		Object[] array = new Object[2];
+		ctx.register(0, a);
+		ctx.setReference(a, NEXT, 1);
+		ctx.setElement(array, 1, 1);
+		assertNull(next(a));
+		ctx.register(1, b);
+		assertSame(b, next(a));
+		assertSame(b, array[1]);
+		assertSame(a, ctx.resolve());
+	}
+
+	@Test
+	public void testFixupRowsReused() throws Exception {
+		DecodeContext ctx = new DecodeContext(new ClassResolver());
+		Node[] nodes = new Node[1000];
+		for (int i = 0; i < nodes.length; i ++) {
+			nodes[i] = new Node();
+			ctx.register(i, nodes[i]);
+			ctx.setReference(nodes[i], NEXT, i + 1);
+		}
+		ctx.register(nodes.length, nodes[0]);
+		for (int i = 0; i + 1 < nodes.length; i ++)
+			assertSame(nodes[i + 1], next(nodes[i]));
+		assertSame(nodes[0], next(nodes[nodes.length - 1]));
+	}
+
+	@Test(expected = Exception.class)
+	public void testUnknownReference() throws Exception {
+		DecodeContext ctx = new DecodeContext(new ClassResolver());
+		Node a = new Node();
+		ctx.register(0, a);
+		ctx.setReference(a, NEXT, 3);
+		ctx.resolve();
+	}
+
+	@Test(expected = Exception.class)
+	public void testIdBeyondDocument() throws Exception {
+		// Would otherwise grow the tables to hold the ID.
+		DecodeContext ctx = new DecodeContext(new ClassResolver());
+		Node a = new Node();
+		ctx.register(0, a);
+		ctx.setReference(a, NEXT, Integer.MAX_VALUE - 1);
+	}
+
+	@Test
+	public void testLengthBeyondDocument() throws Exception {
+		DecodeContext ctx = new DecodeContext(new ClassResolver(), 100);
+		ClassDescriptor ints = ClassDescriptor.of(int[].class);
+		assertEquals(100, ((int[]) Serialize.registerArray(
+			ints, 0, 100, ctx)).length);
+		try {
+			// Would otherwise allocate 8 GB.
+			Serialize.registerArray(ints, 1, Integer.MAX_VALUE, ctx);
+			fail();
+		} catch (Exception e) {
+			assertTrue(e.getMessage().startsWith("Invalid length"));
+		}
+	}
+
+	@Test(expected = Exception.class)
+	public void testLengthBeyondJSON() throws Exception {
+		String json = "{\"objects\": [{\"class\": \"[I\", \"id\": 0, "
+			+ "\"length\": 2000000000, \"entries\": []}]}";
+		new JSONSerialize().setInputLimit(json.length())
+			.deserializeObject(json);
+	}
+
+	@Test(expected = Exception.class)
+	public void testDuplicateId() throws Exception {
+		DecodeContext ctx = new DecodeContext(new ClassResolver());
+		ctx.register(0, new Node());
+		ctx.register(0, new Node());
+	}
+
+
+	private static Object next(Node n) throws Exception {
+		return NEXT.accessor.getObject(n);
+	}
+}
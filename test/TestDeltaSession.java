@@ -0,0 +1,187 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestDeltaSession.java
+// ======================================================
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestDeltaSession {
+	// An object graph mutated between messages.
+	static class Item {
+		int count;
+		double weight;
+		String name;
+		Item next;
+		int[] values;
+		ArrayList<Item> children = new ArrayList<Item>();
+		HashMap<String, Integer> tags = new HashMap<String, Integer>();
+	}
+
+	private BinarySerialize sender;
+	private BinarySerialize receiver;
+	private int lastSize;
+
+
+	@Before
+	public void setUp() {
+		sender = new BinarySerialize().setSession(true);
+		receiver = new BinarySerialize().setSession(true);
+	}
+
+
+	/**
+	 * Sends an object from the sender to the receiver of the session.
+	 *
+	 * @param o The object to send.
+	 * @return The object received.
+	 */
+	private Object send(Object o) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sender.serializeObject(o, bytes);
+		lastSize = bytes.size();
+		return receiver.deserializeObject(
+			new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+
+	@Test
+	public void testUnchanged() throws Exception {
+		Item item = new Item();
+		item.name = "first";
+		item.values = new int[100];
+		Item copy = (Item) send(item);
+		int full = lastSize;
+		assertEquals("first", copy.name);
+		assertEquals(100, copy.values.length);
+
+		assertSame(copy, send(item));
+		assertTrue(lastSize * 10 < full);
+	}
+
+	@Test
+	public void testChangedFields() throws Exception {
+		Item item = new Item();
+		item.count = 1;
+		Item copy = (Item) send(item);
+		item.count = 2;
+		item.weight = -0.5;
+		item.name = "renamed";
+		assertSame(copy, send(item));
+		assertEquals(2, copy.count);
+		assertEquals(-0.5, copy.weight, 0);
+		assertEquals("renamed", copy.name);
+	}
+
+	@Test
+	public void testNewAndRemovedReferences() throws Exception {
+		Item item = new Item();
+		Item copy = (Item) send(item);
+		item.next = new Item();
+		item.next.next = item;
+		send(item);
+		assertNotNull(copy.next);
+		assertSame(copy, copy.next.next);
+
+		Item second = copy.next;
+		item.next = null;
+		send(item);
+		assertNull(copy.next);
+		// A known object that becomes the root again keeps its identity.
+		item.next = new Item();
+		Item old = item.next;
+		send(item);
+		assertNotSame(second, copy.next);
+		assertSame(copy.next, send(old));
+	}
+
+	@Test
+	public void testArraysAndCollections() throws Exception {
+		Item item = new Item();
+		item.values = new int[] { 1, 2, 3 };
+		item.children.add(new Item());
+		item.tags.put("a", 1);
+		Item copy = (Item) send(item);
+		Item child = copy.children.get(0);
+
+		item.values[1] = 20;
+		item.children.add(new Item());
+		item.tags.put("b", 2);
+		item.tags.remove("a");
+		send(item);
+		assertArrayEquals(new int[] { 1, 20, 3 }, copy.values);
+		assertEquals(2, copy.children.size());
+		assertSame(child, copy.children.get(0));
+		assertEquals(1, copy.tags.size());
+		assertEquals(Integer.valueOf(2), copy.tags.get("b"));
+
+		item.children.remove(0);
+		item.values = new int[] { 4 };
+		send(item);
+		assertEquals(1, copy.children.size());
+		assertNotSame(child, copy.children.get(0));
+		assertArrayEquals(new int[] { 4 }, copy.values);
+	}
+
+	@Test
+	public void testNullRoot() throws Exception {
+		send(new Item());
+		assertNull(send(null));
+	}
+
+	@Test(expected = Exception.class)
+	public void testNotInSession() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		sender.serializeObject(new Item(), bytes);
+		new BinarySerialize().deserializeObject(
+			new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	@Test
+	public void testFailedMessage() throws Exception {
+		Item item = new Item();
+		send(item);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		item.count = 1;
+		sender.serializeObject(item, bytes);
+		byte[] truncated = bytes.toByteArray();
+		try {
+			receiver.deserializeObject(new ByteArrayInputStream(truncated, 0,
+				truncated.length - 2));
+			fail();
+		} catch (Exception e) {
+		}
+		// Later messages of the session are refused, even valid ones.
+		item.count = 2;
+		try {
+			send(item);
+			fail();
+		} catch (Exception e) {
+			assertTrue(e.getMessage().contains("out of step"));
+		}
+
+		// Until both ends start over.
+		sender.setSession(true);
+		receiver.setSession(true);
+		assertEquals(2, ((Item) send(item)).count);
+	}
+
+	@Test
+	public void testNewSession() throws Exception {
+		Item item = new Item();
+		send(item);
+		// Both ends start over: the object is sent in full again.
+		sender.setSession(true);
+		receiver.setSession(true);
+		Item copy = (Item) send(item);
+		assertNotNull(copy);
+		assertNotNull(copy.children);
+	}
+}
@@ -0,0 +1,89 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestFrameCompressor.java
+// ======================================================
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestFrameCompressor {
+	/**
+	 * Returns the remaining bytes of a buffer.
+	 */
+	private static byte[] bytes(ByteBuffer buffer) {
+		byte[] bytes = new byte[buffer.remaining()];
+		buffer.duplicate().get(bytes);
+		return bytes;
+	}
+
+
+	@Test
+	public void testThreshold() throws Exception {
+		byte[] small = "small".getBytes("UTF-8");
+		byte[] large = "{\"a\": 1}, ".repeat(1000).getBytes("UTF-8");
+		try (FrameCompressor frames = new FrameCompressor(100)) {
+			assertNull(frames.deflate(ByteBuffer.wrap(small)));
+
+			ByteBuffer message = ByteBuffer.wrap(large);
+			ByteBuffer compressed = frames.deflate(message);
+			assertTrue(compressed.remaining() * 20 < large.length);
+			// The message is left as it was.
+			assertEquals(large.length, message.remaining());
+
+			// A Receiver inflates whatever its threshold.
+			try (FrameCompressor other
+				= new FrameCompressor(Integer.MAX_VALUE)) {
+				InputStream in = other.inflate(
+					new ByteArrayInputStream(bytes(compressed)));
+				assertArrayEquals(large, in.readAllBytes());
+				// The same inflater serves the next messages.
+				in = other.inflate(new ByteArrayInputStream(
+					bytes(frames.deflate(ByteBuffer.wrap(large)))));
+				assertArrayEquals(large, in.readAllBytes());
+			}
+		}
+	}
+
+	@Test
+	public void testGrowing() throws Exception {
+		// Compresses to more than the initial buffer.
+		byte[] text = new byte[200000];
+		Random random = new Random(1);
+		for (int i = 0; i < text.length; i ++)
+			text[i] = (byte) ('a' + random.nextInt(4));
+		try (FrameCompressor frames = new FrameCompressor(0)) {
+			ByteBuffer compressed = frames.deflate(ByteBuffer.wrap(text));
+			assertTrue(compressed.remaining() > 8192);
+			assertArrayEquals(text, frames.inflate(new ByteArrayInputStream(
+				bytes(compressed))).readAllBytes());
+		}
+	}
+
+	@Test
+	public void testIncompressible() throws Exception {
+		byte[] random = new byte[4096];
+		new Random(1).nextBytes(random);
+		try (FrameCompressor frames = new FrameCompressor(0)) {
+			assertNull(frames.deflate(ByteBuffer.wrap(random)));
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testInflatedTooLarge() throws Exception {
+		// A few hundred bytes inflating to more than allowed.
+		byte[] zeros = new byte[100000];
+		try (FrameCompressor frames = new FrameCompressor(0, 50000)) {
+			ByteBuffer compressed = frames.deflate(ByteBuffer.wrap(zeros));
+			assertTrue(compressed.remaining() < 1000);
+			frames.inflate(new ByteArrayInputStream(bytes(compressed)))
+				.readAllBytes();
+		}
+	}
+}
@@ -0,0 +1,153 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestFrameReader.java
+// ======================================================
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestFrameReader {
+	/**
+	 * Returns a reader of the passed bytes, as sent over a connection.
+	 */
+	private static FrameReader reader(ByteArrayOutputStream bytes) {
+		return new FrameReader(Channels.newChannel(
+			new ByteArrayInputStream(bytes.toByteArray())));
+	}
+
+
+	/**
+	 * Returns a writer of frames to the passed bytes.
+	 */
+	private static FrameWriter writer(ByteArrayOutputStream bytes,
+	String... args) {
+		return new CommandLine(args)
+			.createFrameWriter(Channels.newChannel(bytes));
+	}
+
+
+	/**
+	 * Writes and sends a message.
+	 */
+	private static int send(FrameWriter frames, byte[] message)
+	throws IOException {
+		frames.message().write(message);
+		return frames.send();
+	}
+
+
+	@Test
+	public void testFrames() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (FrameWriter frames = writer(bytes, "xml")) {
+			assertEquals(Frame.HEADER + 3,
+				send(frames, new byte[] { 1, 2, 3 }));
+			send(frames, new byte[] { 9 });
+			frames.end();
+		}
+
+		FrameReader reader = reader(bytes);
+		Frame frame = reader.next();
+		assertEquals(Frame.XML, frame.codec);
+		assertEquals(0, frame.flags);
+		assertEquals(Frame.HEADER + 3, frame.size());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, frame.open().readAllBytes());
+		reader.release(frame);
+
+		Frame next = reader.next();
+		assertEquals(9, next.open().read());
+		// The released buffer holds the next frame.
+		assertSame(frame.buffer, next.buffer);
+		assertNull(reader.next());
+	}
+
+	@Test
+	public void testLargeFrame() throws Exception {
+		// Larger than the buffers first allocated on both ends.
+		byte[] large = new byte[100000];
+		large[large.length - 1] = 7;
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (FrameWriter frames = writer(bytes, "binary")) {
+			send(frames, large);
+		}
+
+		FrameReader reader = reader(bytes);
+		Frame frame = reader.next();
+		assertEquals(Frame.BINARY, frame.codec);
+		assertArrayEquals(large, frame.open().readAllBytes());
+		// Closing the connection between frames ends the messages.
+		assertNull(reader.next());
+	}
+
+	@Test
+	public void testCompressedWithChecksum() throws Exception {
+		byte[] text = "\u00e9t\u00e9 ".repeat(1000).getBytes("UTF-8");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (FrameWriter frames = writer(bytes, "compress", "checksum")) {
+			assertTrue(send(frames, text) < text.length / 10);
+			// The message written is left as it was.
+			assertEquals(text.length, frames.written().remaining());
+		}
+
+		Frame frame = reader(bytes).next();
+		assertEquals(Frame.COMPRESSED | Frame.CHECKSUM, frame.flags);
+		frame.verify();
+		try (FrameCompressor frames = new FrameCompressor(0)) {
+			InputStream in = frames.inflate(frame.open());
+			assertArrayEquals(text, in.readAllBytes());
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testChecksumMismatch() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (FrameWriter frames = writer(bytes, "checksum")) {
+			send(frames, new byte[] { 1, 2, 3 });
+		}
+		byte[] sent = bytes.toByteArray();
+		sent[sent.length - 1] ^= 1;
+		bytes.reset();
+		bytes.write(sent);
+		reader(bytes).next().verify();
+	}
+
+	@Test(expected = EOFException.class)
+	public void testTruncated() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(Frame.JSON);
+		out.writeByte(0);
+		out.writeInt(10);
+		out.write(new byte[5]);
+		reader(bytes).next();
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotAFrame() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(42);
+		out.writeByte(0);
+		out.writeInt(0);
+		reader(bytes).next();
+	}
+
+	@Test(expected = IOException.class)
+	public void testTooLarge() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(Frame.BINARY);
+		out.writeByte(0);
+		out.writeInt(Frame.MAX_LENGTH + 1);
+		reader(bytes).next();
+	}
+}
@@ -0,0 +1,114 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestGeneratedAccessor.java
+// ======================================================
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestGeneratedAccessor {
+	// A class with a private field of each type.
+	static class Fields {
+		private boolean z;
+		private byte b;
+		private char c;
+		private short s;
+		private int i;
+		private long j;
+		private float f;
+		private double d;
+		private String text;
+		private int[] array;
+		private final int constant = 1;
+	}
+
+
+	/**
+	 * Returns the generated accessor of a field of {@code Fields}.
+	 *
+	 * @param name The name of the field.
+	 * @return The field's accessor.
+	 * @throws Exception If the field does not exist.
+	 */
+	private static FieldAccessor accessor(String name) throws Exception {
+		FieldAccessor a
+			= GeneratedAccessor.create(Fields.class.getDeclaredField(name));
+		assertNotNull(a);
+		return a;
+	}
+
+
+	@Test
+	public void testPrimitives() throws Exception {
+		Fields o = new Fields();
+		accessor("z").setBoolean(o, true);
+		accessor("b").setByte(o, Byte.MIN_VALUE);
+		accessor("c").setChar(o, '\uffff');
+		accessor("s").setShort(o, Short.MAX_VALUE);
+		accessor("i").setInt(o, -123456);
+		accessor("j").setLong(o, Long.MIN_VALUE);
+		accessor("f").setFloat(o, 1.5f);
+		accessor("d").setDouble(o, -0.25);
+
+		assertTrue(o.z);
+		assertEquals(Byte.MIN_VALUE, o.b);
+		assertEquals('\uffff', o.c);
+		assertEquals(Short.MAX_VALUE, o.s);
+		assertEquals(-123456, o.i);
+		assertEquals(Long.MIN_VALUE, o.j);
+		assertEquals(1.5f, o.f, 0);
+		assertEquals(-0.25, o.d, 0);
+
+		assertTrue(accessor("z").getBoolean(o));
+		assertEquals(Byte.MIN_VALUE, accessor("b").getByte(o));
+		assertEquals('\uffff', accessor("c").getChar(o));
+		assertEquals(Short.MAX_VALUE, accessor("s").getShort(o));
+		assertEquals(-123456, accessor("i").getInt(o));
+		assertEquals(Long.MIN_VALUE, accessor("j").getLong(o));
+		assertEquals(1.5f, accessor("f").getFloat(o), 0);
+		assertEquals(-0.25, accessor("d").getDouble(o), 0);
+	}
+
+	@Test
+	public void testReferences() throws Exception {
+		Fields o = new Fields();
+		int[] array = { 1, 2 };
+		accessor("text").setObject(o, "text");
+		accessor("array").setObject(o, array);
+		assertEquals("text", accessor("text").getObject(o));
+		assertSame(array, accessor("array").getObject(o));
+		accessor("text").setObject(o, null);
+		assertNull(o.text);
+	}
+
+	@Test(expected = ClassCastException.class)
+	public void testWrongReference() throws Exception {
+		accessor("text").setObject(new Fields(), 42);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongType() throws Exception {
+		accessor("text").getInt(new Fields());
+	}
+
+	@Test
+	public void testOtherPackage() throws Exception {
+		Node node = new Node(7);
+		FieldAccessor value
+			= GeneratedAccessor.create(Node.class.getDeclaredField("value"));
+		assertEquals(7, value.getInt(node));
+	}
+
+	@Test
+	public void testUnsupported() throws Exception {
+		// Final fields, and fields of classes not open to us.
+		assertNull(GeneratedAccessor.create(
+			Fields.class.getDeclaredField("constant")));
+		assertNull(GeneratedAccessor.create(
+			ArrayList.class.getDeclaredField("size")));
+	}
+}
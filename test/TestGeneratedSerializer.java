@@ -0,0 +1,81 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestGeneratedSerializer.java
+// ======================================================
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+import serial.FieldAccess;
+import serial.GeneratedSerializer;
+import serial.Serializable;
+
+
+public class TestGeneratedSerializer {
+	// A nested class with fields the generated code cannot access.
+	@Serializable
+	static class Point {
+		long x;
+		private int y;
+		final String label = "p";
+	}
+
+	// A class without the annotation.
+	static class Plain {
+		int x;
+	}
+
+
+	@Test
+	public void testSerializerName() {
+		assertEquals("samples.Node_Serializer",
+			GeneratedSerializer.serializerName("samples.Node"));
+		assertEquals("TestGeneratedSerializer_Point_Serializer",
+			GeneratedSerializer.serializerName(Point.class.getName()));
+	}
+
+	@Test
+	public void testNewInstance() {
+		GeneratedSerializer s = GeneratedSerializer.of(Node.class);
+		assertNotNull(s);
+		assertSame(s, GeneratedSerializer.of(Node.class));
+		assertTrue(s.newInstance() instanceof Node);
+		assertTrue(Instantiator.of(Node.class)
+			instanceof Instantiator.CompiledInstantiator);
+	}
+
+	@Test
+	public void testFields() throws Exception {
+		Node node = new Node(5);
+		FieldAccess value = GeneratedSerializer.of(Node.class).field("value");
+		FieldAccess next = GeneratedSerializer.of(Node.class).field("next");
+		assertEquals(5, value.getInt(node));
+		next.setObject(node, node);
+		assertSame(node, next.getObject(node));
+		assertNull(GeneratedSerializer.of(Node.class).field("missing"));
+		assertTrue(ClassDescriptor.of(Node.class)
+			.getField("value", "samples.Node").accessor
+			instanceof FieldAccessor.CompiledAccessor);
+	}
+
+	@Test
+	public void testNestedClass() {
+		GeneratedSerializer s = GeneratedSerializer.of(Point.class);
+		Point p = (Point) s.newInstance();
+		s.field("x").setLong(p, -1L);
+		assertEquals(-1L, p.x);
+		// Private and final fields are left to reflection.
+		assertNull(s.field("y"));
+		assertNull(s.field("label"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testWrongType() {
+		GeneratedSerializer.of(Node.class).field("value").getLong(new Node());
+	}
+
+	@Test
+	public void testNotAnnotated() {
+		assertNull(GeneratedSerializer.of(Plain.class));
+	}
+}
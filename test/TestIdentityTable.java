@@ -0,0 +1,74 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestIdentityTable.java
+// ======================================================
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestIdentityTable {
+	@Test
+	public void testAssignSequential() {
+		IdentityTable ids = new IdentityTable();
+		assertEquals(0, ids.assign(new Object()));
+		assertEquals(1, ids.assign(new Object()));
+		assertEquals(2, ids.assign(new Object()));
+		assertEquals(3, ids.size());
+	}
+
+	@Test
+	public void testAssignExisting() {
+		IdentityTable ids = new IdentityTable();
+		Object o = new Object();
+		ids.assign(new Object());
+		assertEquals(1, ids.assign(o));
+		assertEquals(1, ids.assign(o));
+		assertEquals(2, ids.size());
+	}
+
+	@Test
+	public void testGetMissing() {
+		IdentityTable ids = new IdentityTable();
+		ids.assign(new Object());
+		assertEquals(-1, ids.get(new Object()));
+	}
+
+	@Test
+	public void testEqualObjectsDistinct() {
+		IdentityTable ids = new IdentityTable();
+		String a = new String("apple");
+		String b = new String("apple");
+		assertEquals(0, ids.assign(a));
+		assertEquals(1, ids.assign(b));
+		assertEquals(0, ids.get(a));
+		assertEquals(1, ids.get(b));
+	}
+
+	@Test
+	public void testGrow() {
+		IdentityTable ids = new IdentityTable();
+		ArrayList<Object> objects = new ArrayList<Object>();
+		for (int i = 0; i < 10000; i ++) {
+			Object o = new Object();
+			objects.add(o);
+			assertEquals(i, ids.assign(o));
+		}
+		for (int i = 0; i < objects.size(); i ++)
+			assertEquals(i, ids.get(objects.get(i)));
+	}
+
+	@Test
+	public void testClear() {
+		IdentityTable ids = new IdentityTable();
+		Object o = new Object();
+		ids.assign(new Object());
+		ids.assign(o);
+		ids.clear();
+		assertEquals(0, ids.size());
+		assertEquals(-1, ids.get(o));
+		assertEquals(0, ids.assign(o));
+	}
+}
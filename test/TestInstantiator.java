@@ -0,0 +1,57 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestInstantiator.java
+// ======================================================
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestInstantiator {
+	// A class without a no-argument constructor.
+	static class Point {
+		final int x;
+		int y = 5;
+		Point(int x) { this.x = x; }
+	}
+
+
+	@Test
+	public void testCached() {
+		assertSame(Instantiator.of(Node.class), Instantiator.of(Node.class));
+	}
+
+	@Test
+	public void testNewInstance() throws Exception {
+		Object a = Instantiator.of(Node.class).newInstance();
+		Object b = Instantiator.of(Node.class).newInstance();
+		assertTrue(a instanceof Node);
+		assertNotSame(a, b);
+	}
+
+	@Test
+	public void testWrapperIsNotShared() throws Exception {
+		Object i = Instantiator.of(Integer.class).newInstance();
+		assertEquals(0, i);
+		assertNotSame(Integer.valueOf(0), i);
+	}
+
+	@Test(expected = Exception.class)
+	public void testNoConstructor() throws Exception {
+		Instantiator.create(Point.class, false).newInstance();
+	}
+
+	@Test
+	public void testSerializationConstructor() throws Exception {
+		Point p = (Point) Instantiator.create(Point.class, true).newInstance();
+		// No constructor of Point (or its initializers) has run.
+		assertEquals(0, p.x);
+		assertEquals(0, p.y);
+	}
+
+	@Test(expected = Exception.class)
+	public void testAbstract() throws Exception {
+		Instantiator.of(Number.class).newInstance();
+	}
+}
@@ -0,0 +1,108 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestJSONPullParser.java
+// ======================================================
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestJSONPullParser {
+	@Test
+	public void testObject() throws Exception {
+		JSONPullParser in = parser("{\"a\": 12, \"b\": \"x\"}");
+		in.beginObject();
+		assertEquals("a", in.nextName());
+		assertEquals(12, in.nextInt());
+		assertEquals("b", in.nextName());
+		assertEquals("x", in.nextString());
+		assertFalse(in.hasNext());
+		in.endObject();
+		assertEquals(JSONPullParser.END_DOCUMENT, in.peek());
+	}
+
+	@Test
+	public void testArray() throws Exception {
+		JSONPullParser in = parser("[1, -2, []]");
+		in.beginArray();
+		assertEquals(1, in.nextInt());
+		assertEquals(-2, in.nextInt());
+		in.beginArray();
+		assertFalse(in.hasNext());
+		in.endArray();
+		assertFalse(in.hasNext());
+		in.endArray();
+	}
+
+	@Test
+	public void testEscapes() throws Exception {
+		JSONPullParser in = parser("\"q\\\"b\\\\n\\nu\\u00e9\"");
+		assertEquals("q\"b\\n\nu\u00e9", in.nextString());
+	}
+
+	@Test
+	public void testLongString() throws Exception {
+		String text = "abc".repeat(10000);
+		assertEquals(text, parser("\"" + text + "\"").nextString());
+	}
+
+	@Test
+	public void testSymbolsShared() throws Exception {
+		JSONPullParser in = parser("[\"samples.Node\", \"samples.Node\"]");
+		in.beginArray();
+		assertSame(in.nextSymbol(), in.nextSymbol());
+	}
+
+	@Test
+	public void testSkipValue() throws Exception {
+		JSONPullParser in = parser("{\"a\": {\"b\": [1, {}]}, \"c\": true}");
+		in.beginObject();
+		in.nextName();
+		in.skipValue();
+		assertEquals("c", in.nextName());
+		assertEquals("true", in.nextString());
+	}
+
+	@Test
+	public void testWriterOutputParses() throws Exception {
+		StringWriter out = new StringWriter();
+		new JSONStreamWriter(out, 4).beginObject()
+			.name("k").value("tab\tquote\"")
+			.name("n").value(-7)
+			.endObject().flush();
+		JSONPullParser in = parser(out.toString());
+		in.beginObject();
+		assertEquals("k", in.nextName());
+		assertEquals("tab\tquote\"", in.nextString());
+		assertEquals("n", in.nextName());
+		assertEquals(-7, in.nextInt());
+		in.endObject();
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingColon() throws Exception {
+		JSONPullParser in = parser("{\"a\" 1}");
+		in.beginObject();
+		in.nextName();
+		in.nextInt();
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnterminatedString() throws Exception {
+		parser("\"abc").nextString();
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongToken() throws Exception {
+		parser("[1]").beginObject();
+	}
+
+
+	private static JSONPullParser parser(String json) {
+		return new JSONPullParser(new StringReader(json));
+	}
+}
@@ -0,0 +1,50 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestLoadGenerator.java
+// ======================================================
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestLoadGenerator {
+	@Test
+	public void testSamples() {
+		assertTrue(new LoadGenerator("simple", 0, -1, 0).next()
+			instanceof Simple);
+		assertTrue(new LoadGenerator("cyclic", 3, -1, 0).next()
+			instanceof Cyclic);
+		assertTrue(new LoadGenerator("primitive", 3, -1, 0).next()
+			instanceof PrimitiveArray);
+		assertTrue(new LoadGenerator("objects", 3, -1, 0).next()
+			instanceof ObjectArray);
+		assertTrue(new LoadGenerator("list", 3, -1, 0).next()
+			instanceof ArrayListContainer);
+	}
+
+	@Test
+	public void testNewObjects() {
+		LoadGenerator objects = new LoadGenerator("list", 10, -1, 0);
+		assertNotSame(objects.next(), objects.next());
+	}
+
+	@Test
+	public void testChanges() throws Exception {
+		LoadGenerator objects = new LoadGenerator("list", 10, 2, 0);
+		Object first = objects.next();
+		String before = new JSONSerialize().serializeObject(first);
+		assertSame(first, objects.next());
+		assertNotEquals(before, new JSONSerialize().serializeObject(first));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testUnknownSample() {
+		new LoadGenerator("nodes", 10, -1, 0);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testChangesNeedList() {
+		new LoadGenerator("objects", 10, 1, 0);
+	}
+}
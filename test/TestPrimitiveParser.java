@@ -0,0 +1,110 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestPrimitiveParser.java
+// ======================================================
+
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+
+public class TestPrimitiveParser {
+	// Text the parsers must read as the wrapper classes do.
+	private static final String[] DECIMALS = {
+		"0", "-0", "0.0", "-0.0", "1", "1.0", "-1.5", "0.1",
+		"0.30000000000000004", "1.0E10", "1.0E-10", "4.9E-324",
+		"1.7976931348623157E308", "2.5e3",
+		"123456789012345678", "1.", ".5", "+2", "NaN", "Infinity", "-Infinity",
+		"3.4028235E38", "1.4E-45", "9007199254740993", "1e22", "1e23",
+		"0.000001", "1.0E-5", "1e-400", "1e400",
+	};
+
+
+	// Parses the passed text from the middle of a larger buffer.
+	private static char[] buffer(String text) {
+		return ("[" + text + "]").toCharArray();
+	}
+
+	private static double parseDouble(String text) {
+		return PrimitiveParser.parseDouble(buffer(text), 1, text.length());
+	}
+
+	private static float parseFloat(String text) {
+		return PrimitiveParser.parseFloat(buffer(text), 1, text.length());
+	}
+
+	private static long parseLong(String text) {
+		return PrimitiveParser.parseLong(buffer(text), 1, text.length());
+	}
+
+
+	@Test
+	public void testDoubles() {
+		for (String text : DECIMALS)
+			assertEquals(text, Double.doubleToRawLongBits(
+				Double.parseDouble(text)),
+				Double.doubleToRawLongBits(parseDouble(text)));
+	}
+
+	@Test
+	public void testFloats() {
+		for (String text : DECIMALS)
+			assertEquals(text, Float.floatToRawIntBits(Float.parseFloat(text)),
+				Float.floatToRawIntBits(parseFloat(text)));
+	}
+
+	@Test
+	public void testRandomRoundTrip() {
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i ++) {
+			double d = random.nextDouble()
+				* Math.pow(10, random.nextInt(40) - 20);
+			assertEquals(d, parseDouble(Double.toString(d)), 0.0);
+			float f = (float) d;
+			assertEquals(f, parseFloat(Float.toString(f)), 0.0f);
+			// Short decimals, as most values in documents are.
+			String text = Integer.toString(random.nextInt(1000000)) + "."
+				+ random.nextInt(1000);
+			assertEquals(text,
+				Double.parseDouble(text), parseDouble(text), 0.0);
+			assertEquals(text, Float.parseFloat(text), parseFloat(text), 0.0f);
+		}
+	}
+
+	@Test
+	public void testLongs() {
+		assertEquals(0, parseLong("0"));
+		assertEquals(-42, parseLong("-42"));
+		assertEquals(42, parseLong("+42"));
+		assertEquals(Long.MIN_VALUE, parseLong("-9223372036854775808"));
+		assertEquals(Long.MAX_VALUE, parseLong("9223372036854775807"));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testLongUnderflow() {
+		parseLong("-9223372036854775809");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testSignOnly() {
+		parseLong("-");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testEmpty() {
+		parseLong("");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testMalformedDouble() {
+		parseDouble("1.2.3");
+	}
+
+	@Test
+	public void testNull() {
+		assertTrue(PrimitiveParser.isNull(buffer("null"), 1, 4));
+		assertFalse(PrimitiveParser.isNull(buffer("nul"), 1, 3));
+		assertFalse(PrimitiveParser.isNull(buffer("0"), 1, 1));
+	}
+}
@@ -0,0 +1,154 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestReceivePipeline.java
+// ======================================================
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+public class TestReceivePipeline {
+	private PrintStream stdout;
+	private ByteArrayOutputStream printed;
+
+
+	@Before
+	public void setUp() {
+		stdout = System.out;
+		printed = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(printed, true));
+	}
+
+	@After
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+
+	/**
+	 * Sends a frame holding the passed message.
+	 */
+	private static void frame(FrameWriter frames, String message)
+	throws Exception {
+		frames.message().write(message.getBytes("UTF-8"));
+		frames.send();
+	}
+
+
+	@Test
+	public void testOrder() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		WritableByteChannel channel = Channels.newChannel(bytes);
+		FrameWriter json = new CommandLine(new String[] { "checksum" })
+			.createFrameWriter(channel);
+		FrameWriter xml = new CommandLine(new String[] { "xml" })
+			.createFrameWriter(channel);
+		JSONSerialize serial = new JSONSerialize();
+		for (int i = 0; i < 50; i ++) {
+			if (i == 20) frame(json, "not JSON");
+			if (i == 30) {
+				// Frames name their encoding, which may change.
+				frame(xml, new XMLSerialize().serializeObject(
+					new Simple(i, true)));
+				continue;
+			}
+			frame(json, serial.serializeObject(new Simple(i, true)));
+		}
+		json.end();
+		json.close();
+		xml.close();
+
+		ReceivePipeline pipeline = new ReceivePipeline(
+			new CommandLine(new String[0]), 4, 2, false);
+		Throughput throughput = new Throughput();
+		pipeline.run(new FrameReader(Channels.newChannel(
+			new ByteArrayInputStream(bytes.toByteArray()))), "", throughput);
+		assertEquals(51, throughput.objects());
+
+		// The objects are printed in the order they were sent.
+		String text = printed.toString("UTF-8");
+		int at = 0;
+		for (int i = 0; i < 50; i ++) {
+			if (i == 20) {
+				at = text.indexOf("Failed to deserialize object!", at);
+				assertTrue(at >= 0);
+			}
+			at = text.indexOf("Value : " + i + "\n", at);
+			assertTrue("Object " + i, at >= 0);
+		}
+		assertTrue(pipeline.depths().contains("max 2"));
+	}
+
+	@Test
+	public void testQuiet() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		frame(new CommandLine(new String[0]).createFrameWriter(
+			Channels.newChannel(bytes)),
+			new JSONSerialize().serializeObject(new Simple(1, true)));
+
+		// Closing the connection between frames also ends the pipeline.
+		new ReceivePipeline(new CommandLine(new String[0]), 2, 4, true)
+			.run(new FrameReader(Channels.newChannel(
+				new ByteArrayInputStream(bytes.toByteArray()))), "");
+		assertEquals(0, printed.size());
+	}
+
+	@Test(timeout = 10000)
+	public void testError() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		FrameWriter frames = new CommandLine(new String[0])
+			.createFrameWriter(Channels.newChannel(bytes));
+		JSONSerialize serial = new JSONSerialize();
+		for (int i = 0; i < 20; i ++)
+			frame(frames, i % 5 == 2 ? "deep"
+				: serial.serializeObject(new Simple(i, true)));
+		frames.end();
+
+		// A codec failing with an Error, as on a graph too deep for it.
+		CommandLine cmd = new CommandLine(new String[0]) {
+			@Override
+			Serialize createSerializer(String mode) {
+				return new Serialize() {
+					@Override
+					public void serializeObject(Object source,
+					OutputStream out) {
+						throw new UnsupportedOperationException();
+					}
+
+					@Override
+					public Object deserializeObject(InputStream source)
+					throws Exception {
+						byte[] payload = source.readAllBytes();
+						if (new String(payload, "UTF-8").equals("deep"))
+							throw new StackOverflowError();
+						return serial.deserializeObject(
+							new String(payload, "UTF-8"));
+					}
+				};
+			}
+		};
+		new ReceivePipeline(cmd, 2, 2, false).run(new FrameReader(
+			Channels.newChannel(new ByteArrayInputStream(
+				bytes.toByteArray()))), "");
+
+		// Every frame is reported, in order, and the pipeline ends.
+		String text = printed.toString("UTF-8");
+		int at = 0;
+		for (int i = 0; i < 20; i ++) {
+			at = text.indexOf(i % 5 == 2 ? "Failed to deserialize object!"
+				: "Value : " + i + "\n", at);
+			assertTrue("Frame " + i, at >= 0);
+		}
+	}
+}
@@ -0,0 +1,242 @@
+// ======================================================
+// Matthew Michaud (matthew.michaud@alumni.ucalgary.ca)
+// TestRoundTrip.java
+// ======================================================
+
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import static org.junit.Assert.*;
+import samples.*;
+
+
+@RunWith(Parameterized.class)
+public class TestRoundTrip {
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> codecs() {
+		return Arrays.asList(new Object[][] {
+			{ "json", new JSONSerialize() },
+			{ "xml", new XMLSerialize() },
+			{ "binary", new BinarySerialize() },
+			{ "json-packed", new JSONSerialize().setPackArrays(true) },
+			{ "xml-packed", new XMLSerialize().setPackArrays(true) },
+			{ "json-dictionary", new JSONSerialize().setUseDictionary(true) },
+			{ "xml-dictionary", new XMLSerialize().setUseDictionary(true) },
+		});
+	}
+
+	// Constants of which one has a class body of its own.
+	enum Color {
+		RED,
+		GREEN { @Override public String toString() { return "g"; } }
+	}
+
+	// Holder of values written as leaves.
+	static class Leaves {
+		String text = "caf\u00e9 \"<&>\" \u0000\u0001\t\r\n\uffff";
+		String empty = "";
+		String shared = text;
+		Integer boxed = -7;
+		Character letter = '\r';
+		Double real = 0.1;
+		BigInteger big = BigInteger.ONE.shiftLeft(100).negate();
+		BigDecimal decimal = new BigDecimal("1.50E-30");
+		Color color = Color.GREEN;
+		Object[] mixed = { "x", 5, 2.5f, (short) 3, true, Color.RED, null };
+	}
+
+	// Holder of collections written by their contents.
+	static class Containers {
+		ArrayList<Object> list = new ArrayList<Object>(100);
+		ArrayDeque<Object> deque = new ArrayDeque<Object>();
+		HashMap<String, Object> map = new HashMap<String, Object>();
+		HashSet<Object> set = new HashSet<Object>();
+		HashSet<HashSet<Integer>> nested = new HashSet<HashSet<Integer>>();
+		ArrayList<Object> empty = new ArrayList<Object>();
+
+		Containers() {
+			Simple simple = new Simple(3, true);
+			list.addAll(Arrays.asList(simple, "a", null, simple, 1.5));
+			list.add(list);
+			deque.addAll(Arrays.asList(2, 'x', simple));
+			map.put("simple", simple);
+			map.put("list", list);
+			map.put("null", null);
+			set.addAll(Arrays.asList("b", 4L, Color.RED));
+			nested.add(new HashSet<Integer>(Arrays.asList(1, 2, 3)));
+			nested.add(new HashSet<Integer>());
+		}
+	}
+
+	private final Serialize serial; // The codec under test.
+
+
+	public TestRoundTrip(String name, Serialize serial) {
+		this.serial = serial;
+	}
+
+
+	@Test
+	public void testSimple() throws Exception {
+		doTestRoundTrip(new Simple(-42, true));
+	}
+
+	@Test
+	public void testCyclic() throws Exception {
+		doTestRoundTrip(new Cyclic(List.of(3, 1, 4, 1, 5)));
+	}
+
+	@Test
+	public void testCyclicSingleNode() throws Exception {
+		doTestRoundTrip(new Cyclic(List.of(7)));
+	}
+
+	@Test
+	public void testPrimitiveArray() throws Exception {
+		doTestRoundTrip(new PrimitiveArray(
+			List.of(Integer.MIN_VALUE, 0, Integer.MAX_VALUE)));
+	}
+
+	@Test
+	public void testObjectArraySharedElements() throws Exception {
+		Simple shared = new Simple(1, false);
+		ArrayList<Simple> list = new ArrayList<Simple>();
+		list.add(shared);
+		list.add(null);
+		list.add(new Simple(2, true));
+		list.add(shared);
+		doTestRoundTrip(new ObjectArray(list));
+	}
+
+	@Test
+	public void testPrimitiveArrays() throws Exception {
+		doTestRoundTrip(new double[] { -0.5, Double.MAX_VALUE, 1e-300 });
+		doTestRoundTrip(new char[] { 'a', '"', '<', '\n', '\r', ' ', '\u00e9' });
+		doTestRoundTrip(new long[] { Long.MIN_VALUE, 0, Long.MAX_VALUE });
+		doTestRoundTrip(new boolean[] { true, false });
+	}
+
+	@Test
+	public void testEmptyArray() throws Exception {
+		doTestRoundTrip(new Simple[0]);
+	}
+
+	@Test
+	public void testLeaves() throws Exception {
+		Leaves copy = (Leaves) doTestRoundTrip(new Leaves());
+		assertSame(copy.text, copy.shared);
+	}
+
+	@Test
+	public void testLeafRoots() throws Exception {
+		for (Object o : new Object[] { "root", 42L, 'c', Color.GREEN,
+			new BigDecimal("-12.340") })
+			assertEquals(o,
+				serial.deserializeObject(serial.serializeObject(o)));
+	}
+
+
+	@Test
+	public void testCollections() throws Exception {
+		Containers copy = (Containers) doTestRoundTrip(new Containers());
+		assertSame(copy.list, copy.list.get(5));
+		assertSame(copy.list.get(0), copy.map.get("simple"));
+		assertTrue(copy.nested.contains(Set.of(1, 2, 3)));
+	}
+
+	@Test
+	public void testCollectionCapacity() throws Exception {
+		// Only the elements are written, whatever the collection's capacity.
+		ArrayList<Object> small = new ArrayList<Object>(1);
+		ArrayList<Object> large = new ArrayList<Object>(1000);
+		small.add("x");
+		large.add("x");
+		assertEquals(serial.serializeObject(small),
+			serial.serializeObject(large));
+	}
+
+
+	/**
+	 * Serializes and deserializes the passed object, asserting that the result
+	 * is a distinct but structurally identical object graph.
+	 *
+	 * @param o The root of the object graph.
+	 * @return The deserialized copy of the graph.
+	 * @throws Exception If the object cannot be serialized.
+	 */
+	private Object doTestRoundTrip(Object o) throws Exception {
+		Object copy = serial.deserializeObject(serial.serializeObject(o));
+		assertNotSame(o, copy);
+		assertGraphEquals(o, copy, new IdentityHashMap<Object, Object>());
+		return copy;
+	}
+
+
+	/**
+	 * Asserts that two object graphs have the same shape and values, mapping
+	 * each expected object onto exactly one actual object.
+	 *
+	 * @param expected The original object.
+	 * @param actual The deserialized object.
+	 * @param seen Mapping from the expected objects visited to their copies.
+	 * @throws Exception If a field cannot be read.
+	 */
+	static void assertGraphEquals(Object expected, Object actual,
+	IdentityHashMap<Object, Object> seen) throws Exception {
+		if (expected == null || actual == null) {
+			assertSame(expected, actual);
+			return;
+		}
+		Class<?> c = expected.getClass();
+		assertEquals(c, actual.getClass());
+		if (ClassDescriptor.of(c).isLeaf) {
+			assertEquals(expected, actual);
+			return;
+		}
+		// Shared and cyclic references must map onto the same copy.
+		if (seen.containsKey(expected)) {
+			assertSame(seen.get(expected), actual);
+			return;
+		}
+		seen.put(expected, actual);
+
+		if (expected instanceof Set) {
+			// Hash sets are compared by value, as their order may differ.
+			assertEquals(expected, actual);
+		} else if (expected instanceof Map) {
+			Map<?, ?> map = (Map<?, ?>) actual;
+			assertEquals(((Map<?, ?>) expected).size(), map.size());
+			for (Map.Entry<?, ?> e : ((Map<?, ?>) expected).entrySet()) {
+				assertTrue(map.containsKey(e.getKey()));
+				assertGraphEquals(e.getValue(), map.get(e.getKey()), seen);
+			}
+		} else if (ClassDescriptor.of(c).collection != null) {
+			assertGraphEquals(((Collection<?>) expected).toArray(),
+				((Collection<?>) actual).toArray(), seen);
+		} else if (c.isArray()) {
+			assertEquals(Array.getLength(expected), Array.getLength(actual));
+			for (int i = 0; i < Array.getLength(expected); i ++)
+				assertGraphEquals(
+					Array.get(expected, i), Array.get(actual, i), seen);
+		} else {
+			for (FieldDescriptor f : ClassDescriptor.of(c).fields)
+				assertGraphEquals(
+					f.field.get(expected), f.field.get(actual), seen);
+		}
+	}
+}
@@ -3,6 +3,10 @@
 // TestSerialize.java
 // ======================================================
 
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+
 import org.junit.Test;
 import static org.junit.Assert.*;
 
@@ -10,71 +14,89 @@ import static org.junit.Assert.*;
 public class TestSerialize extends Serialize {
 	// Stub methood to permit the extension of the class under test.
 	@Override
-	public String serializeObject(Object source) throws Exception {
-		return null;
-	}
+	public void serializeObject(Object source, OutputStream out)
+	throws Exception {}
 
 	// Stub methood to permit the extension of the class under test.
 	@Override
-	public Object deserializeObject(String source) throws Exception {
+	public Object deserializeObject(InputStream source) throws Exception {
 		return null;
 	}
 	
 
+	// Decodes the passed text into the first element of a primitive array.
+	private static Object decode(Object array, char code, String text)
+	throws Exception {
+		char[] chars = ("  " + text).toCharArray(); // Not at the start.
+		decodeElement(array, code, 0, chars, 2, text.length());
+		return Array.get(array, 0);
+	}
+
+
 	@Test
-	public void testExtractPrimitiveBoolean() throws Exception {
-		assertEquals(false, extractPrimitive(boolean.class, "false"));
+	public void testDecodeElementBoolean() throws Exception {
+		assertEquals(false, decode(new boolean[1], 'Z', "false"));
+		assertEquals(true, decode(new boolean[1], 'Z', "TRUE"));
 	}
 
 	@Test
-	public void testExtractPrimitiveShort() throws Exception {
-		assertEquals((short) 55, extractPrimitive(short.class, "55"));
+	public void testDecodeElementShort() throws Exception {
+		assertEquals((short) 55, decode(new short[1], 'S', "55"));
 	}
 
 	@Test
-	public void testExtractPrimitiveInteger() throws Exception {
-		assertEquals((int) 1234, extractPrimitive(int.class, "1234"));
+	public void testDecodeElementInteger() throws Exception {
+		assertEquals((int) 1234, decode(new int[1], 'I', "1234"));
+		assertEquals(Integer.MIN_VALUE,
+			decode(new int[1], 'I', "-2147483648"));
 	}
 
 	@Test
-	public void testExtractPrimitiveLong() throws Exception {
-		assertEquals((long) 767, extractPrimitive(long.class, "767"));
+	public void testDecodeElementLong() throws Exception {
+		assertEquals((long) 767, decode(new long[1], 'J', "767"));
+		assertEquals(Long.MAX_VALUE,
+			decode(new long[1], 'J', "9223372036854775807"));
 	}
 
 	@Test
-	public void testExtractPrimitiveFloat() throws Exception {
-		assertEquals((float) 1.424, extractPrimitive(float.class, "1.424"));
+	public void testDecodeElementFloat() throws Exception {
+		assertEquals((float) 1.424, decode(new float[1], 'F', "1.424"));
 	}
 
 	@Test
-	public void testExtractPrimitiveDouble() throws Exception {
+	public void testDecodeElementDouble() throws Exception {
 		assertEquals((double) 565.879,
-			extractPrimitive(double.class, "565.879"));
+			decode(new double[1], 'D', "565.879"));
 	}
 
 	@Test
-	public void testExtractPrimitiveByte() throws Exception {
-		assertEquals((byte) 76, extractPrimitive(byte.class, "76"));
+	public void testDecodeElementByte() throws Exception {
+		assertEquals((byte) 76, decode(new byte[1], 'B', "76"));
 	}
 
 	@Test
-	public void testExtractPrimitiveChar() throws Exception {
-		assertEquals('y', extractPrimitive(char.class, "y"));
+	public void testDecodeElementChar() throws Exception {
+		assertEquals('y', decode(new char[1], 'C', "y"));
 	}
 
 	@Test(expected = Exception.class)
-	public void testExtractPrimitiveNonPrimitive() throws Exception {
-		extractPrimitive(Object.class, "apple");
+	public void testDecodeElementNonPrimitive() throws Exception {
+		decode(new Object[1], 'L', "apple");
 	}
 
 	@Test(expected = NumberFormatException.class)
-	public void testExtractPrimitiveNumberFormat() throws Exception {
-		extractPrimitive(int.class, "apple");
+	public void testDecodeElementNumberFormat() throws Exception {
+		decode(new int[1], 'I', "apple");
 	}
 	
 	@Test(expected = NumberFormatException.class)
-	public void testExtractPrimitiveBoundsFault() throws Exception {
-		extractPrimitive(byte.class, "256");
+	public void testDecodeElementBoundsFault() throws Exception {
+		decode(new byte[1], 'B', "256");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void testDecodeElementOverflow() throws Exception {
+		decode(new long[1], 'J', "9223372036854775808");
 	}
 
 
@@ -122,4 +144,28 @@ public class TestSerialize extends Serialize {
 	public void testInstantiateObjectNonPrimitive() throws Exception {
 		assertNotNull(instantiateObject(Object.class));
 	}
+
+	@Test
+	public void testPackArrayLittleEndian() throws Exception {
+		assertArrayEquals(new byte[] { 4, 3, 2, 1, -1, -1, -1, -1 },
+			packArray(new int[] { 0x01020304, -1 }, 'I'));
+	}
+
+	@Test
+	public void testUnpackArray() throws Exception {
+		double[] values = { -0.0, Double.NaN, 1e300 };
+		double[] copy = new double[3];
+		unpackArray(packArray(values, 'D'), copy, 'D');
+		assertArrayEquals(values, copy, 0.0);
+
+		boolean[] flags = new boolean[2];
+		unpackArray(packArray(new boolean[] { true, false }, 'Z'), flags, 'Z');
+		assertTrue(flags[0]);
+		assertFalse(flags[1]);
+	}
+
+	@Test(expected = Exception.class)
+	public void testUnpackArrayWrongLength() throws Exception {
+		unpackArray(new byte[6], new int[2], 'I');
+	}
 }